@@ -0,0 +1,69 @@
+package hudson.plugins.plot;
+
+import hudson.model.Job;
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Predicate;
+
+/**
+ * The x-axis labels of the builds of a job, shared by all the series and
+ * plots of the job so that each build has a single {@link Plot.Label} and its
+ * date is only formatted once.
+ */
+final class BuildLabels {
+    private static final ConcurrentMap<File, BuildLabels> LABELS = new ConcurrentHashMap<>();
+
+    /**
+     * The most labels kept per job and kind, the oldest builds are usually
+     * no longer plotted anyway.
+     */
+    private static final int MAX_LABELS = 10_000;
+
+    /**
+     * The labels showing the build number and date, and those showing the
+     * build description, by build number.
+     */
+    private final ConcurrentMap<Integer, Plot.Label> numbered = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<Integer, Plot.Label> described = new ConcurrentHashMap<>();
+
+    private BuildLabels() {}
+
+    /**
+     * Returns the labels of the given job.
+     */
+    static BuildLabels of(Job<?, ?> job) {
+        return LABELS.computeIfAbsent(job.getRootDir().getAbsoluteFile(), dir -> new BuildLabels());
+    }
+
+    /**
+     * Drops the labels of the jobs whose directory matches, once they were
+     * deleted or moved, see {@link PlotItemListener}.
+     */
+    static void forget(Predicate<File> jobDir) {
+        LABELS.keySet().removeIf(jobDir);
+    }
+
+    /**
+     * Returns the label of a build.
+     *
+     * @param buildNumber the build number
+     * @param buildTime   the build timestamp, in milliseconds
+     * @param text        the build description to show instead of the number
+     *                    and date, or null
+     */
+    Plot.Label get(int buildNumber, String buildTime, String text) {
+        ConcurrentMap<Integer, Plot.Label> labels = text == null ? numbered : described;
+        Plot.Label label = labels.get(buildNumber);
+        if (label == null || !label.matches(buildNumber, buildTime, text)) {
+            // a new build, or one whose description changed
+            if (labels.size() >= MAX_LABELS) {
+                labels.clear();
+            }
+            label = new Plot.Label(buildNumber, buildTime, text);
+            labels.put(buildNumber, label);
+        }
+        return label;
+    }
+}
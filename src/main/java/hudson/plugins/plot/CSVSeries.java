@@ -5,8 +5,6 @@
  */
 package hudson.plugins.plot;
 
-import com.opencsv.CSVReader;
-import com.opencsv.exceptions.CsvValidationException;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.Extension;
 import hudson.FilePath;
@@ -25,6 +23,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 import net.sf.json.JSONObject;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.ArrayUtils;
@@ -57,6 +56,12 @@ public class CSVSeries extends Series {
      */
     private Set<String> strExclusionSet;
 
+    /**
+     * The valid regular expressions of {@link #strExclusionSet}, compiled once.
+     * Those that can be are combined into one alternation, which comes first.
+     */
+    private transient List<Pattern> exclusionPatterns;
+
     /**
      * Set for excluding values by column #
      */
@@ -117,6 +122,12 @@ public class CSVSeries extends Series {
             }
         }
         loadExclusionSet();
+        compileExclusionPatterns();
+    }
+
+    private Object readResolve() {
+        compileExclusionPatterns();
+        return this;
     }
 
     public String getInclusionFlag() {
@@ -143,51 +154,73 @@ public class CSVSeries extends Series {
      * Load the series from a properties file.
      */
     @Override
-    public List<PlotPoint> loadSeries(FilePath workspaceRootDir, int buildNumber, PrintStream logger) {
-        List<PlotPoint> plotPoints = null;
+    public boolean loadSeries(FilePath workspaceRootDir, int buildNumber, PrintStream logger, PointSink sink) {
         FilePath[] seriesFiles;
         try {
             seriesFiles = workspaceRootDir.list(getFile());
         } catch (Exception e) {
             LOGGER.log(Level.SEVERE, "Exception trying to retrieve series files", e);
-            return null;
+            return false;
         }
 
         if (ArrayUtils.isEmpty(seriesFiles)) {
             LOGGER.info("No plot data file found: " + workspaceRootDir.getName() + " " + getFile());
-            return null;
+            return false;
         }
 
-        for (FilePath seriesFile : seriesFiles) {
-            List<PlotPoint> seriesList = loadSeriesFile(seriesFile, buildNumber);
-            if (seriesList != null) {
-                if (plotPoints != null) {
-                    plotPoints.addAll(seriesList);
-                } else {
-                    plotPoints = seriesList;
-                }
+        SharedExtraction shared = SharedExtraction.find(workspaceRootDir, buildNumber);
+        return loadSeriesFiles(
+                workspaceRootDir,
+                seriesFiles,
+                buildNumber,
+                (f, fingerprint, s) -> loadSeriesFile(f, fingerprint, shared, buildNumber, s),
+                sink);
+    }
+
+    /**
+     * Loads the points of one file, from the content read for all series if
+     * the build shares it.
+     *
+     * @param fingerprint the fingerprint of the file, null if it isn't known
+     *                    yet
+     * @param shared      the content shared by the build, may be null
+     */
+    private boolean loadSeriesFile(
+            FilePath seriesFile,
+            FileFingerprint fingerprint,
+            SharedExtraction shared,
+            int buildNumber,
+            PointSink sink) {
+        if (shared != null && fingerprint == null) {
+            try {
+                fingerprint = FileFingerprint.of(seriesFile);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Exception computing the fingerprint of " + seriesFile, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (shared != null && fingerprint != null && fingerprint.getLength() <= SharedExtraction.MAX_SHARED_LENGTH) {
+            CSVTable table = shared.get(seriesFile, fingerprint, CSVTable.class, CSVTable::read);
+            if (table != null) {
+                addPoints(table, buildNumber, sink);
+                return true;
             }
         }
-        return plotPoints;
-    }
 
-    private List<PlotPoint> loadSeriesFile(FilePath seriesFile, int buildNumber) {
-        CSVReader reader = null;
+        CSVTokenizer tokenizer = null;
         InputStream in = null;
-        InputStreamReader inputReader = null;
 
         try {
-            List<PlotPoint> ret = new ArrayList<>();
-
             try {
                 if (LOGGER.isLoggable(DEFAULT_LOG_LEVEL)) {
                     LOGGER.log(DEFAULT_LOG_LEVEL, "Loading plot series data from: " + getFile());
                 }
 
-                in = seriesFile.read();
+                in = SeriesFiles.open(seriesFile);
             } catch (Exception e) {
                 LOGGER.log(Level.SEVERE, "Exception reading plot series data from " + seriesFile, e);
-                return null;
+                return false;
             }
 
             if (LOGGER.isLoggable(DEFAULT_LOG_LEVEL)) {
@@ -195,76 +228,136 @@ public class CSVSeries extends Series {
             }
 
             // load existing plot file
-            inputReader = new InputStreamReader(in, Charset.defaultCharset());
-            reader = new CSVReader(inputReader);
-            String[] nextLine;
+            tokenizer = new CSVTokenizer(new InputStreamReader(in, Charset.defaultCharset()));
 
             // save the header line to use it for the plot labels.
-            String[] headerLine = reader.readNext();
-
-            // read each line of the CSV file and add to rawPlotData
-            int lineNum = 0;
-            while ((nextLine = reader.readNext()) != null) {
-                // skip empty lines
-                if (nextLine.length == 1 && nextLine[0].isEmpty()) {
-                    continue;
+            List<String> header = new ArrayList<>();
+            if (tokenizer.nextRecord()) {
+                while (tokenizer.nextField()) {
+                    header.add(tokenizer.getField());
                 }
+            }
+            String[] headerLine = header.toArray(new String[0]);
 
-                for (int index = 0; index < nextLine.length; index++) {
-                    String yvalue;
-                    String label = null;
-
-                    yvalue = nextLine[index].trim();
+            // the label and whether it is excluded only depend on the column,
+            // so they are decided once per file and the excluded cells of the
+            // data lines are skipped without being copied
+            String[] labels = getColumnLabels(headerLine);
+            boolean[] excluded = getExcludedColumns(labels);
+            int columns = labels.length;
 
-                    // empty value, caused by e.g. trailing comma in CSV
-                    if (yvalue.trim().isEmpty()) {
+            // read each line of the CSV file and add to rawPlotData
+            int lineNum = 0;
+            while (tokenizer.nextRecord()) {
+                for (int index = 0; ; index++) {
+                    String label = index < columns ? labels[index] : getColumnLabel(headerLine, index);
+                    boolean exclude = index < columns ? excluded[index] : excludePoint(label, index);
+                    if (exclude) {
+                        if (!tokenizer.skipField()) {
+                            break;
+                        }
                         continue;
                     }
-
-                    if (index < headerLine.length) {
-                        label = headerLine[index].trim();
+                    if (!tokenizer.nextField()) {
+                        break;
                     }
-
-                    if (label == null || label.length() <= 0) {
-                        // if there isn't a label, use the index as the label
-                        label = "" + index;
+                    // empty value, caused by e.g. trailing comma in CSV or
+                    // an empty line
+                    if (tokenizer.isBlank()) {
+                        continue;
                     }
+                    String yvalue = tokenizer.getTrimmedField();
 
-                    // LOGGER.finest("Loaded point: " + point);
-
-                    // create a new point with the yvalue from the csv file and
-                    // url from the URL_index in the properties file.
-                    if (!excludePoint(label, index)) {
-                        PlotPoint point = new PlotPoint(yvalue, getUrl(url, label, index, buildNumber), label);
-                        if (LOGGER.isLoggable(DEFAULT_LOG_LEVEL)) {
-                            LOGGER.log(DEFAULT_LOG_LEVEL, "CSV Point: [" + index + ":" + lineNum + "]" + point);
-                        }
-                        ret.add(point);
-                    } else {
-                        if (LOGGER.isLoggable(DEFAULT_LOG_LEVEL)) {
-                            LOGGER.log(DEFAULT_LOG_LEVEL, "excluded CSV Column: " + index + " : " + label);
-                        }
+                    // add a point with the yvalue from the csv file and url
+                    // from the URL_index in the properties file.
+                    if (LOGGER.isLoggable(DEFAULT_LOG_LEVEL)) {
+                        LOGGER.log(
+                                DEFAULT_LOG_LEVEL, "CSV Point: [" + index + ":" + lineNum + "]" + label + " " + yvalue);
                     }
+                    addPoint(sink, yvalue, url, label, index, buildNumber);
                 }
                 lineNum++;
             }
 
-            return ret;
-        } catch (CsvValidationException | IOException ioe) {
+            return true;
+        } catch (IOException ioe) {
             LOGGER.log(Level.SEVERE, "Exception loading series", ioe);
         } finally {
-            if (reader != null) {
+            if (tokenizer != null) {
                 try {
-                    reader.close();
+                    tokenizer.close();
                 } catch (IOException e) {
                     LOGGER.log(Level.SEVERE, "Failed to close series reader", e);
                 }
             }
-            IOUtils.closeQuietly(inputReader);
             IOUtils.closeQuietly(in);
         }
 
-        return null;
+        return false;
+    }
+
+    /**
+     * Adds the points of a file that was read for all series.
+     */
+    private void addPoints(CSVTable table, int buildNumber, PointSink sink) {
+        String[] headerLine = table.getHeader();
+        String[] labels = getColumnLabels(headerLine);
+        boolean[] excluded = getExcludedColumns(labels);
+        int columns = labels.length;
+        for (String[] line : table.getLines()) {
+            for (int index = 0; index < line.length; index++) {
+                // blank values were left out when the file was read
+                String yvalue = line[index];
+                if (yvalue == null) {
+                    continue;
+                }
+                String label = index < columns ? labels[index] : getColumnLabel(headerLine, index);
+                if (index < columns ? excluded[index] : excludePoint(label, index)) {
+                    continue;
+                }
+                addPoint(sink, yvalue, url, label, index, buildNumber);
+            }
+        }
+    }
+
+    /**
+     * Returns the labels of the columns of the header line.
+     */
+    private static String[] getColumnLabels(String[] headerLine) {
+        String[] labels = new String[headerLine.length];
+        for (int index = 0; index < labels.length; index++) {
+            labels[index] = getColumnLabel(headerLine, index);
+        }
+        return labels;
+    }
+
+    /**
+     * Returns which of the columns with the given labels are excluded.
+     */
+    private boolean[] getExcludedColumns(String[] labels) {
+        boolean[] excluded = new boolean[labels.length];
+        for (int index = 0; index < labels.length; index++) {
+            excluded[index] = excludePoint(labels[index], index);
+            if (excluded[index] && LOGGER.isLoggable(DEFAULT_LOG_LEVEL)) {
+                LOGGER.log(DEFAULT_LOG_LEVEL, "excluded CSV Column: " + index + " : " + labels[index]);
+            }
+        }
+        return excluded;
+    }
+
+    /**
+     * Returns the label of a column, its header or else its index.
+     */
+    private static String getColumnLabel(String[] headerLine, int index) {
+        String label = null;
+        if (headerLine != null && index < headerLine.length) {
+            label = headerLine[index].trim();
+        }
+        if (label == null || label.isEmpty()) {
+            // if there isn't a label, use the index as the label
+            label = "" + index;
+        }
+        return label;
     }
 
     /**
@@ -307,23 +400,57 @@ public class CSVSeries extends Series {
     private boolean checkExclusionSet(String label) {
         if (strExclusionSet.contains(label)) {
             return true;
-        } else {
-            for (String s : strExclusionSet) {
-                if (checkPatternIsValid(s) && label.matches(s)) {
-                    return true;
-                }
+        }
+        for (Pattern pattern : exclusionPatterns) {
+            if (pattern.matcher(label).matches()) {
+                return true;
             }
         }
         return false;
     }
 
-    private boolean checkPatternIsValid(String pattern) {
-        try {
-            Pattern.compile(pattern);
-        } catch (java.util.regex.PatternSyntaxException e) {
-            return false;
+    /**
+     * Compiles the regular expressions of the exclusion set. Invalid ones are
+     * ignored, as they only ever matched as plain text.
+     */
+    private void compileExclusionPatterns() {
+        List<Pattern> patterns = new ArrayList<>();
+        if (strExclusionSet != null) {
+            StringBuilder alternation = new StringBuilder();
+            for (String s : strExclusionSet) {
+                Pattern pattern;
+                try {
+                    pattern = Pattern.compile(s);
+                } catch (PatternSyntaxException e) {
+                    continue;
+                }
+                // groups would be renumbered, and quotes or comments would
+                // swallow the rest of an alternation
+                if (pattern.matcher("").groupCount() > 0 || s.contains("\\Q") || s.contains("#")) {
+                    patterns.add(pattern);
+                    continue;
+                }
+                if (alternation.length() > 0) {
+                    alternation.append('|');
+                }
+                alternation.append("(?:").append(s).append(')');
+            }
+            if (alternation.length() > 0) {
+                try {
+                    patterns.add(0, Pattern.compile(alternation.toString()));
+                } catch (PatternSyntaxException e) {
+                    LOGGER.log(Level.WARNING, "Failed to combine the CSV exclusion patterns " + strExclusionSet, e);
+                    for (String s : strExclusionSet) {
+                        try {
+                            patterns.add(Pattern.compile(s));
+                        } catch (PatternSyntaxException ignored) {
+                            // only matches as plain text
+                        }
+                    }
+                }
+            }
         }
-        return true;
+        exclusionPatterns = patterns;
     }
 
     /**
@@ -0,0 +1,60 @@
+package hudson.plugins.plot;
+
+import hudson.FilePath;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The content of a CSV series file: its header line and the trimmed fields of
+ * the other lines, null for the blank ones. It is read once for all the
+ * series that take their points from the same file, see
+ * {@link SharedExtraction}.
+ */
+final class CSVTable {
+    private final String[] header;
+    private final List<String[]> lines;
+
+    private CSVTable(String[] header, List<String[]> lines) {
+        this.header = header;
+        this.lines = Collections.unmodifiableList(lines);
+    }
+
+    static CSVTable read(FilePath file) throws IOException, InterruptedException {
+        try (CSVTokenizer tokenizer =
+                new CSVTokenizer(new InputStreamReader(SeriesFiles.open(file), Charset.defaultCharset()))) {
+            List<String> fields = new ArrayList<>();
+            if (tokenizer.nextRecord()) {
+                while (tokenizer.nextField()) {
+                    fields.add(tokenizer.getField());
+                }
+            }
+            String[] header = fields.toArray(new String[0]);
+
+            List<String[]> lines = new ArrayList<>();
+            while (tokenizer.nextRecord()) {
+                fields.clear();
+                while (tokenizer.nextField()) {
+                    fields.add(tokenizer.isBlank() ? null : tokenizer.getTrimmedField());
+                }
+                lines.add(fields.toArray(new String[0]));
+            }
+            return new CSVTable(header, lines);
+        }
+    }
+
+    String[] getHeader() {
+        return header.clone();
+    }
+
+    /**
+     * Returns the lines after the header, with the trimmed value of each
+     * field or null if it is blank.
+     */
+    List<String[]> getLines() {
+        return lines;
+    }
+}
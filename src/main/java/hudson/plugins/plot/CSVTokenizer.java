@@ -0,0 +1,372 @@
+package hudson.plugins.plot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Reads CSV data one field at a time, so the fields that aren't needed can be
+ * skipped without unescaping them or creating a String for them.
+ * <p>
+ * The content of a field is unescaped in place in the read buffer, which only
+ * moves when it is refilled, and a String is only created when the field is
+ * asked for. Fields that repeat from record to record, like labels, can be
+ * asked for interned so that all the records share one String.
+ * <p>
+ * Fields are split like the default parser of opencsv splits them: a comma
+ * separates fields outside of double quotes, two double quotes or a backslash
+ * followed by a quote or backslash stand for that character, other backslashes
+ * are dropped, and a record continues on the next line while a quoted field is
+ * open. Lines end with LF, CR or CRLF.
+ */
+final class CSVTokenizer implements Closeable {
+    private static final int EOF = -1;
+
+    private static final char SEPARATOR = ',';
+    private static final char QUOTE = '"';
+    private static final char ESCAPE = '\\';
+
+    /**
+     * The most Strings kept for interning, so that a file with many distinct
+     * values doesn't make the table grow without bound.
+     */
+    private static final int MAX_INTERNED = 4096;
+
+    private final Reader reader;
+
+    private char[] buffer = new char[8192];
+    private int position;
+    private int limit;
+
+    /**
+     * Where the content of the last field read starts and ends in the buffer.
+     * The unescaped content is written over the characters already read, so
+     * it never gets ahead of {@link #position}.
+     */
+    private int fieldStart;
+
+    private int fieldEnd;
+
+    /**
+     * The column of the last field read or skipped, -1 before the first one.
+     */
+    private int column = -1;
+
+    /**
+     * Whether the last field read or skipped was the last of its record.
+     */
+    private boolean endOfRecord = true;
+
+    /**
+     * The interned Strings, in an open addressing table created on first use.
+     */
+    private String[] interned;
+
+    private int internedCount;
+
+    CSVTokenizer(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Moves to the next record, skipping what is left of the current one.
+     *
+     * @return false if there are no more records
+     */
+    boolean nextRecord() throws IOException {
+        while (!endOfRecord) {
+            parseField(false);
+        }
+        // the last field is no longer needed when refilling the buffer
+        fieldStart = position;
+        fieldEnd = position;
+        if (peek() == EOF) {
+            return false;
+        }
+        endOfRecord = false;
+        column = -1;
+        return true;
+    }
+
+    /**
+     * Reads the next field of the current record.
+     *
+     * @return false if the record has no more fields
+     */
+    boolean nextField() throws IOException {
+        if (endOfRecord) {
+            return false;
+        }
+        parseField(true);
+        return true;
+    }
+
+    /**
+     * Moves past the next field of the current record without keeping its
+     * content: nothing is unescaped or copied, and the buffer doesn't grow
+     * for a large field. The content of the last field is empty afterwards.
+     *
+     * @return false if the record has no more fields
+     */
+    boolean skipField() throws IOException {
+        if (endOfRecord) {
+            return false;
+        }
+        parseField(false);
+        return true;
+    }
+
+    /**
+     * Returns the column of the last field read or skipped in the record.
+     */
+    int getColumn() {
+        return column;
+    }
+
+    /**
+     * Returns the content of the last field read.
+     */
+    String getField() {
+        return new String(buffer, fieldStart, fieldEnd - fieldStart);
+    }
+
+    /**
+     * Returns whether the last field read is empty or only has characters that
+     * {@link String#trim()} removes.
+     */
+    boolean isBlank() {
+        return trimmedStart() == fieldEnd;
+    }
+
+    /**
+     * Returns the content of the last field read like {@link String#trim()}
+     * returns it, without creating the untrimmed String first.
+     */
+    String getTrimmedField() {
+        int start = trimmedStart();
+        return new String(buffer, start, trimmedEnd(start) - start);
+    }
+
+    /**
+     * Returns the content of the last field read, which is the same String
+     * for every field of this tokenizer with the same content.
+     */
+    String getInternedField() {
+        int length = fieldEnd - fieldStart;
+        int hash = 0;
+        for (int i = fieldStart; i < fieldEnd; i++) {
+            hash = 31 * hash + buffer[i];
+        }
+        if (interned == null) {
+            interned = new String[64];
+        }
+        int mask = interned.length - 1;
+        int slot = spread(hash) & mask;
+        String candidate;
+        while ((candidate = interned[slot]) != null) {
+            if (candidate.hashCode() == hash && candidate.length() == length && contentEquals(candidate)) {
+                return candidate;
+            }
+            slot = (slot + 1) & mask;
+        }
+        String field = new String(buffer, fieldStart, length);
+        if (internedCount < MAX_INTERNED) {
+            interned[slot] = field;
+            if (++internedCount * 2 > interned.length) {
+                rehash();
+            }
+        }
+        return field;
+    }
+
+    private boolean contentEquals(String candidate) {
+        for (int i = 0; i < candidate.length(); i++) {
+            if (candidate.charAt(i) != buffer[fieldStart + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash() {
+        String[] old = interned;
+        interned = new String[old.length * 2];
+        int mask = interned.length - 1;
+        for (String s : old) {
+            if (s != null) {
+                int slot = spread(s.hashCode()) & mask;
+                while (interned[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                interned[slot] = s;
+            }
+        }
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private int trimmedStart() {
+        int start = fieldStart;
+        while (start < fieldEnd && buffer[start] <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    private int trimmedEnd(int start) {
+        int end = fieldEnd;
+        while (end > start && buffer[end - 1] <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * Reads a field, and unescapes its content into the buffer if it is kept.
+     */
+    private void parseField(boolean keep) throws IOException {
+        fieldStart = position;
+        fieldEnd = position;
+        column++;
+        boolean inQuotes = false;
+        boolean inField = false;
+        // the previous character on the same line, which decides whether a
+        // quote in the middle of a field is kept
+        int previous = EOF;
+        while (true) {
+            int c = read();
+            if (c == EOF) {
+                if (inQuotes) {
+                    throw new IOException("Unterminated quoted field at the end of the CSV data");
+                }
+                endOfRecord = true;
+                return;
+            }
+            if (c == '\r' || c == '\n') {
+                if (c == '\r' && peek() == '\n') {
+                    read();
+                }
+                if (!inQuotes) {
+                    endOfRecord = true;
+                    return;
+                }
+                if (keep) {
+                    append('\n');
+                }
+                previous = EOF;
+                continue;
+            }
+            if (c == ESCAPE) {
+                int next = peek();
+                if ((inQuotes || inField) && (next == QUOTE || next == ESCAPE)) {
+                    read();
+                    if (keep) {
+                        append((char) next);
+                    }
+                    previous = next;
+                } else {
+                    previous = c;
+                }
+                continue;
+            }
+            if (c == QUOTE) {
+                int next = peek();
+                if ((inQuotes || inField) && next == QUOTE) {
+                    read();
+                    if (keep) {
+                        append(QUOTE);
+                    }
+                    previous = next;
+                } else {
+                    inQuotes = !inQuotes;
+                    boolean lineGoesOn = next != EOF && next != '\r' && next != '\n';
+                    if (keep && previous != EOF && previous != SEPARATOR && lineGoesOn && next != SEPARATOR) {
+                        // a quote in the middle of a field is part of it,
+                        // unless only blanks precede it
+                        if (fieldEnd > fieldStart && isWhitespace(fieldStart, fieldEnd)) {
+                            fieldEnd = fieldStart;
+                        } else {
+                            append(QUOTE);
+                        }
+                    }
+                    previous = c;
+                }
+                inField = !inField;
+                continue;
+            }
+            if (c == SEPARATOR && !inQuotes) {
+                return;
+            }
+            if (keep) {
+                append((char) c);
+            }
+            inField = true;
+            previous = c;
+        }
+    }
+
+    private boolean isWhitespace(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (!Character.isWhitespace(buffer[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds a character to the field. It is only called after the character
+     * was read, so it never overwrites one that wasn't read yet.
+     */
+    private void append(char c) {
+        buffer[fieldEnd++] = c;
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            return EOF;
+        }
+        return buffer[position++];
+    }
+
+    private int peek() throws IOException {
+        if (position == limit && !fill()) {
+            return EOF;
+        }
+        return buffer[position];
+    }
+
+    /**
+     * Reads more characters, keeping the content of the current field at the
+     * start of the buffer and growing it if the field fills it.
+     */
+    private boolean fill() throws IOException {
+        int kept = fieldEnd - fieldStart;
+        if (kept == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        } else {
+            System.arraycopy(buffer, fieldStart, buffer, 0, kept);
+        }
+        fieldStart = 0;
+        fieldEnd = kept;
+        position = kept;
+        limit = kept;
+        int read;
+        do {
+            read = reader.read(buffer, kept, buffer.length - kept);
+        } while (read == 0);
+        if (read < 0) {
+            return false;
+        }
+        limit = kept + read;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,146 @@
+package hudson.plugins.plot;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import jenkins.util.SystemProperties;
+
+/**
+ * Extracts plot data series and series files concurrently.
+ * <p>
+ * The calling thread extracts items itself, helped by at most
+ * {@link #PARALLELISM} - 1 threads of its own, so the extraction of one build
+ * never waits for that of another one, even when reading from a slow agent
+ * blocks. Results are always returned in the order of the submitted items, so
+ * callers can merge them deterministically no matter which item finishes
+ * first. Nested calls (a series that fans out over its matched files while
+ * the series themselves run in parallel) don't deadlock either, because every
+ * caller keeps extracting until all of its items are taken.
+ */
+final class ExtractionPool {
+    /**
+     * Maximum number of series or files of one call extracted at the same
+     * time. A value of 1 extracts everything on the calling thread, as before.
+     */
+    static final int PARALLELISM = Math.max(
+            1,
+            SystemProperties.getInteger(
+                    ExtractionPool.class.getName() + ".parallelism",
+                    Math.min(4, Runtime.getRuntime().availableProcessors())));
+
+    /**
+     * Runs the helpers; idle threads go away after a minute.
+     */
+    private static final ExecutorService HELPERS = Executors.newCachedThreadPool(
+            new NamingThreadFactory(new DaemonThreadFactory(), "Plot series extraction"));
+
+    private ExtractionPool() {}
+
+    /**
+     * Applies the given function to every item, concurrently if there is more
+     * than one item.
+     *
+     * @param items    the items to process
+     * @param function the extraction to run for each item
+     * @return the results, in the same order as {@code items}
+     */
+    static <T, R> List<R> map(List<T> items, Function<? super T, ? extends R> function) {
+        if (items.size() < 2 || PARALLELISM < 2) {
+            List<R> results = new ArrayList<>(items.size());
+            for (T item : items) {
+                results.add(function.apply(item));
+            }
+            return results;
+        }
+
+        Extraction<T, R> extraction = new Extraction<>(items, function);
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        int helpers = Math.min(PARALLELISM, items.size()) - 1;
+        for (int i = 0; i < helpers; i++) {
+            HELPERS.execute(() -> {
+                Thread thread = Thread.currentThread();
+                thread.setContextClassLoader(loader);
+                try {
+                    extraction.run();
+                } finally {
+                    thread.setContextClassLoader(ExtractionPool.class.getClassLoader());
+                }
+            });
+        }
+        extraction.run();
+        return extraction.await();
+    }
+
+    /**
+     * The items of one call, taken one at a time by the caller and its
+     * helpers.
+     */
+    private static final class Extraction<T, R> {
+        private final List<T> items;
+        private final Function<? super T, ? extends R> function;
+        private final Object[] results;
+        private final AtomicInteger next = new AtomicInteger();
+        private final CountDownLatch done;
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Extraction(List<T> items, Function<? super T, ? extends R> function) {
+            this.items = items;
+            this.function = function;
+            results = new Object[items.size()];
+            done = new CountDownLatch(items.size());
+        }
+
+        void run() {
+            int i;
+            while ((i = next.getAndIncrement()) < items.size()) {
+                try {
+                    // once an item failed, the others aren't needed
+                    if (failure.get() == null) {
+                        results[i] = function.apply(items.get(i));
+                    }
+                } catch (RuntimeException | Error e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    done.countDown();
+                }
+            }
+        }
+
+        /**
+         * Waits for the items the helpers are still extracting.
+         */
+        @SuppressWarnings("unchecked")
+        List<R> await() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    // the helpers are about to finish, and their results
+                    // must not be abandoned half-way
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            Throwable e = failure.get();
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            }
+            if (e != null) {
+                throw (Error) e;
+            }
+            return (List<R>) Arrays.asList(results);
+        }
+    }
+}
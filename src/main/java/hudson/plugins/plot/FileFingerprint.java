@@ -0,0 +1,70 @@
+package hudson.plugins.plot;
+
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Objects;
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Identifies the content of a series file by its size and modification time.
+ * It is computed on the agent that has the file, without reading the file,
+ * so checking whether a file changed since the previous build costs a single
+ * call to the agent. Like for {@code make}, a file rewritten with the same
+ * size within the same millisecond is taken for unchanged.
+ */
+final class FileFingerprint implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long length;
+    private final long lastModified;
+
+    private FileFingerprint(long length, long lastModified) {
+        this.length = length;
+        this.lastModified = lastModified;
+    }
+
+    static FileFingerprint of(FilePath file) throws IOException, InterruptedException {
+        return file.act(new Compute());
+    }
+
+    long getLength() {
+        return length;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof FileFingerprint)) {
+            return false;
+        }
+        FileFingerprint other = (FileFingerprint) o;
+        return length == other.length && lastModified == other.lastModified;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(length, lastModified);
+    }
+
+    @Override
+    public String toString() {
+        return length + ":" + lastModified;
+    }
+
+    private static final class Compute extends MasterToSlaveFileCallable<FileFingerprint> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public FileFingerprint invoke(File f, VirtualChannel channel) throws IOException {
+            if (!f.isFile()) {
+                throw new IOException("Not a file: " + f);
+            }
+            return new FileFingerprint(f.length(), f.lastModified());
+        }
+    }
+}
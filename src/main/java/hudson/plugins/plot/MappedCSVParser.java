@@ -0,0 +1,288 @@
+package hudson.plugins.plot;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Splits the records of a plot file in a buffer, usually a read-only mapping
+ * of the file, without copying or decoding the bytes first.
+ * <p>
+ * The lines written by {@link com.opencsv.CSVWriter} only have fields that
+ * are quoted without escapes, or not quoted at all, and such fields are split
+ * directly on the bytes. Only the first field of a record, the value, is
+ * decoded for each row; the other fields repeat from row to row and are
+ * decoded once, then shared like {@link CSVTokenizer#getInternedField()}
+ * shares them. Any other line is handed to a {@link CSVTokenizer}, so the
+ * records are always the ones it would return.
+ * <p>
+ * This only works for charsets that encode the separators in a single byte
+ * that no other character uses, see {@link #supports(Charset)}.
+ */
+final class MappedCSVParser {
+    private static final byte SEPARATOR = ',';
+    private static final byte QUOTE = '"';
+    private static final byte ESCAPE = '\\';
+
+    /**
+     * The most Strings kept for sharing, like {@link CSVTokenizer} does.
+     */
+    private static final int MAX_INTERNED = 4096;
+
+    private final ByteBuffer data;
+    private final Charset charset;
+
+    /**
+     * The bytes of the field being decoded.
+     */
+    private byte[] field = new byte[256];
+
+    private String[] interned = new String[64];
+    private int[] hashes = new int[64];
+    private int internedCount;
+
+    MappedCSVParser(ByteBuffer data, Charset charset) {
+        this.data = data;
+        this.charset = charset;
+    }
+
+    /**
+     * Returns whether bytes in a charset can be split at the ASCII separators
+     * and line ends: UTF-8 and the single byte charsets that agree with
+     * ASCII on them.
+     */
+    static boolean supports(Charset charset) {
+        if (charset.equals(StandardCharsets.UTF_8)) {
+            return true;
+        }
+        if (!charset.canEncode() || charset.newEncoder().maxBytesPerChar() != 1) {
+            return false;
+        }
+        String special = "\",\\\r\n%0123456789";
+        return Arrays.equals(special.getBytes(charset), special.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Passes the records of the buffer, up to the given length, in order.
+     */
+    void parse(int length, Consumer<String[]> records) throws IOException {
+        List<String> fields = new ArrayList<>();
+        int position = 0;
+        while (position < length) {
+            int next = parseLine(position, length, fields);
+            if (next >= 0) {
+                records.accept(fields.toArray(new String[0]));
+                position = next;
+                continue;
+            }
+            int end = lineEnd(position, length);
+            if (isWholeRecord(position, end)) {
+                tokenize(position, Math.min(end + 1, length), records);
+                position = end + 1;
+            } else {
+                // a quoted field goes on over the next lines, or escapes
+                // change where quotes are; only the tokenizer knows where
+                // the record ends
+                tokenize(position, length, records);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Splits a line whose fields are all simple.
+     *
+     * @return where the next line starts, -1 if the line isn't simple
+     */
+    private int parseLine(int start, int length, List<String> fields) {
+        fields.clear();
+        int position = start;
+        while (true) {
+            int fieldStart;
+            int fieldEnd;
+            if (position < length && data.get(position) == QUOTE) {
+                int close = position + 1;
+                byte b;
+                while (close < length && (b = data.get(close)) != QUOTE && b != ESCAPE && b != '\n' && b != '\r') {
+                    close++;
+                }
+                if (close >= length || data.get(close) != QUOTE) {
+                    return -1;
+                }
+                fieldStart = position + 1;
+                fieldEnd = close;
+                position = close + 1;
+                if (position < length && data.get(position) != SEPARATOR && data.get(position) != '\n') {
+                    return -1;
+                }
+            } else {
+                fieldStart = position;
+                byte b;
+                while (position < length && (b = data.get(position)) != SEPARATOR && b != '\n') {
+                    if (b == QUOTE || b == ESCAPE || b == '\r') {
+                        return -1;
+                    }
+                    position++;
+                }
+                fieldEnd = position;
+            }
+            fields.add(fields.isEmpty() ? decode(fieldStart, fieldEnd) : intern(fieldStart, fieldEnd));
+            if (position >= length || data.get(position) == '\n') {
+                return position + 1;
+            }
+            // past the separator
+            position++;
+        }
+    }
+
+    private int lineEnd(int start, int length) {
+        int end = start;
+        while (end < length && data.get(end) != '\n') {
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * Returns whether a line that isn't simple still holds a whole record:
+     * without escapes or carriage returns, every quote opens or closes a
+     * quoted part, or comes in pairs.
+     */
+    private boolean isWholeRecord(int start, int end) {
+        int quotes = 0;
+        for (int i = start; i < end; i++) {
+            byte b = data.get(i);
+            if (b == ESCAPE || b == '\r') {
+                return false;
+            }
+            if (b == QUOTE) {
+                quotes++;
+            }
+        }
+        return quotes % 2 == 0;
+    }
+
+    private void tokenize(int start, int end, Consumer<String[]> records) throws IOException {
+        try (CSVTokenizer tokenizer = new CSVTokenizer(
+                new InputStreamReader(new BufferInputStream(data.slice(start, end - start)), charset))) {
+            List<String> fields = new ArrayList<>();
+            while (tokenizer.nextRecord()) {
+                fields.clear();
+                while (tokenizer.nextField()) {
+                    fields.add(tokenizer.getColumn() == 0 ? tokenizer.getField() : tokenizer.getInternedField());
+                }
+                records.accept(fields.toArray(new String[0]));
+            }
+        }
+    }
+
+    private String decode(int start, int end) {
+        int length = end - start;
+        if (field.length < length) {
+            field = new byte[Math.max(length, field.length * 2)];
+        }
+        data.get(start, field, 0, length);
+        return new String(field, 0, length, charset);
+    }
+
+    /**
+     * Returns the String of a field, the same one for every field with the
+     * same content as long as it is ASCII.
+     */
+    private String intern(int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            byte b = data.get(i);
+            if (b < 0) {
+                return decode(start, end);
+            }
+            // the same hash as the String's
+            hash = 31 * hash + b;
+        }
+        int mask = interned.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        String candidate;
+        while ((candidate = interned[slot]) != null) {
+            if (hashes[slot] == hash && contentEquals(candidate, start, end)) {
+                return candidate;
+            }
+            slot = (slot + 1) & mask;
+        }
+        String decoded = decode(start, end);
+        if (internedCount < MAX_INTERNED) {
+            interned[slot] = decoded;
+            hashes[slot] = hash;
+            if (++internedCount * 2 > interned.length) {
+                rehash();
+            }
+        }
+        return decoded;
+    }
+
+    private boolean contentEquals(String candidate, int start, int end) {
+        if (candidate.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < candidate.length(); i++) {
+            if (candidate.charAt(i) != data.get(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash() {
+        String[] oldInterned = interned;
+        int[] oldHashes = hashes;
+        interned = new String[oldInterned.length * 2];
+        hashes = new int[interned.length];
+        int mask = interned.length - 1;
+        for (int i = 0; i < oldInterned.length; i++) {
+            if (oldInterned[i] != null) {
+                int hash = oldHashes[i];
+                int slot = (hash ^ (hash >>> 16)) & mask;
+                while (interned[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                interned[slot] = oldInterned[i];
+                hashes[slot] = hash;
+            }
+        }
+    }
+
+    /**
+     * Reads the remaining bytes of a buffer.
+     */
+    private static final class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int read = Math.min(len, buffer.remaining());
+            buffer.get(b, off, read);
+            return read;
+        }
+    }
+}
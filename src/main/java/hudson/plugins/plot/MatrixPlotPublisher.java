@@ -179,9 +179,13 @@ public class MatrixPlotPublisher extends AbstractPlotPublisher {
         }
         listener.getLogger().println("Recording plot data");
 
-        // add the build to each plot
-        for (Plot plot : plotsOfConfigurations.get(((MatrixRun) build).getProject())) {
-            plot.addBuild(build, listener.getLogger());
+        // add the build to each plot, the plots reading the same files share
+        // their content
+        try (SharedExtraction shared =
+                SharedExtraction.open(build.getWorkspace(), build.getNumber(), build.getParent().getRootDir())) {
+            for (Plot plot : plotsOfConfigurations.get(((MatrixRun) build).getProject())) {
+                plot.addBuild(build, listener.getLogger());
+            }
         }
         // misconfigured plots will not fail a build so always return true
         return true;
@@ -0,0 +1,309 @@
+package hudson.plugins.plot;
+
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * Recognizes and parses the numbers of data files the way
+ * {@code new Scanner(text).hasNextDouble()} and {@code nextDouble()} do, but
+ * without compiling regular expressions or allocating for common values.
+ * <p>
+ * Only the first whitespace separated token of the text is considered. It is a
+ * number if it is a decimal number with an optional sign and exponent, using
+ * the grouping and decimal separators of the default format locale (for
+ * instance {@code 1,234.5} in English or {@code 1.234,5} in German), a
+ * hexadecimal floating point number with a binary exponent, {@code NaN} or
+ * {@code Infinity}. Digits of other scripts are accepted like Scanner does.
+ */
+final class NumberParser {
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19,
+        1e20, 1e21, 1e22
+    };
+
+    /**
+     * Values with at most this many significant digits are exact as a long and
+     * as a double.
+     */
+    private static final int MAX_EXACT_DIGITS = 15;
+
+    private static volatile NumberParser cached;
+
+    private final Locale locale;
+    private final char groupingSeparator;
+    private final char decimalSeparator;
+
+    NumberParser(Locale locale) {
+        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(locale);
+        this.locale = locale;
+        this.groupingSeparator = symbols.getGroupingSeparator();
+        this.decimalSeparator = symbols.getDecimalSeparator();
+    }
+
+    /**
+     * Returns a parser for the default format locale, which is the locale a
+     * new Scanner uses.
+     */
+    static NumberParser forDefaultLocale() {
+        Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+        NumberParser parser = cached;
+        if (parser == null || !parser.locale.equals(locale)) {
+            parser = new NumberParser(locale);
+            cached = parser;
+        }
+        return parser;
+    }
+
+    /**
+     * Returns whether the text starts with a number.
+     */
+    boolean isNumber(String text) {
+        if (text == null) {
+            return false;
+        }
+        int from = tokenStart(text);
+        int to = tokenEnd(text, from);
+        return from < to && numberEnd(text, from, to) == to;
+    }
+
+    /**
+     * Parses the number the text starts with.
+     *
+     * @throws NumberFormatException if the text doesn't start with a number
+     */
+    double parse(String text) {
+        if (!isNumber(text)) {
+            throw new NumberFormatException("Not a number: " + text);
+        }
+        int from = tokenStart(text);
+        int to = tokenEnd(text, from);
+        int i = from;
+        boolean negative = false;
+        char c = text.charAt(i);
+        if (c == '+' || c == '-') {
+            negative = c == '-';
+            i++;
+        }
+        c = text.charAt(i);
+        boolean hex = i + 1 < to && (text.charAt(i + 1) == 'x' || text.charAt(i + 1) == 'X');
+        if (hex || !isDigit(c) && c != decimalSeparator) {
+            // NaN, Infinity or a hexadecimal number
+            return parseSlowly(text, from, to);
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean fraction = false;
+        for (; i < to; i++) {
+            c = text.charAt(i);
+            if (c == groupingSeparator) {
+                continue;
+            }
+            if (c == decimalSeparator) {
+                fraction = true;
+                continue;
+            }
+            if (c == 'e' || c == 'E') {
+                break;
+            }
+            int digit = Character.digit(c, 10);
+            if (digit == 0 && digits == 0) {
+                // leading zeros are not significant
+                if (fraction) {
+                    scale--;
+                }
+                continue;
+            }
+            if (digits == MAX_EXACT_DIGITS) {
+                return parseSlowly(text, from, to);
+            }
+            mantissa = mantissa * 10 + digit;
+            digits++;
+            if (fraction) {
+                scale--;
+            }
+        }
+        if (i < to) {
+            int exponent = parseExponent(text, i + 1, to);
+            if (exponent == Integer.MIN_VALUE) {
+                return parseSlowly(text, from, to);
+            }
+            scale += exponent;
+        }
+
+        double value;
+        if (mantissa == 0) {
+            value = 0;
+        } else if (scale == 0) {
+            value = mantissa;
+        } else if (scale > 0 && scale < POWERS_OF_TEN.length) {
+            value = mantissa * POWERS_OF_TEN[scale];
+        } else if (scale < 0 && -scale < POWERS_OF_TEN.length) {
+            value = mantissa / POWERS_OF_TEN[-scale];
+        } else {
+            return parseSlowly(text, from, to);
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Returns the exponent of a decimal number, or {@link Integer#MIN_VALUE}
+     * if it is too large to be handled here.
+     */
+    private static int parseExponent(String text, int from, int to) {
+        boolean negative = false;
+        char c = text.charAt(from);
+        if (c == '+' || c == '-') {
+            negative = c == '-';
+            from++;
+        }
+        if (to - from > 4) {
+            return Integer.MIN_VALUE;
+        }
+        int exponent = 0;
+        for (int i = from; i < to; i++) {
+            exponent = exponent * 10 + Character.digit(text.charAt(i), 10);
+        }
+        return negative ? -exponent : exponent;
+    }
+
+    /**
+     * Parses a number by handing its plain form to Double, like Scanner does.
+     * Used for the numbers that can't be computed exactly here.
+     */
+    private double parseSlowly(String text, int from, int to) {
+        StringBuilder plain = new StringBuilder(to - from);
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c == groupingSeparator) {
+                continue;
+            }
+            if (c == decimalSeparator) {
+                plain.append('.');
+            } else if (isDigit(c)) {
+                plain.append(Character.digit(c, 10));
+            } else {
+                plain.append(c);
+            }
+        }
+        return Double.parseDouble(plain.toString());
+    }
+
+    private static int tokenStart(String text) {
+        int i = 0;
+        while (i < text.length() && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int tokenEnd(String text, int from) {
+        int i = from;
+        while (i < text.length() && !Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Returns where the number starting at {@code from} ends, or -1 if there
+     * is no number.
+     */
+    private int numberEnd(String text, int from, int to) {
+        int i = from;
+        char c = text.charAt(i);
+        if (c == '+' || c == '-') {
+            i++;
+        }
+        if (text.startsWith("NaN", i)) {
+            return i + 3;
+        }
+        if (text.startsWith("Infinity", i)) {
+            return i + 8;
+        }
+        if (i + 1 < to && text.charAt(i) == '0' && (text.charAt(i + 1) == 'x' || text.charAt(i + 1) == 'X')) {
+            return hexEnd(text, i + 2, to);
+        }
+
+        int end = numeralEnd(text, i, to);
+        if (end < 0) {
+            // a fraction without integral part
+            if (i + 1 >= to || text.charAt(i) != decimalSeparator || !isDigit(text.charAt(i + 1))) {
+                return -1;
+            }
+            end = digitsEnd(text, i + 1, to);
+        } else if (end < to && text.charAt(end) == decimalSeparator) {
+            end = digitsEnd(text, end + 1, to);
+        }
+        if (end < to && (text.charAt(end) == 'e' || text.charAt(end) == 'E')) {
+            int exponent = end + 1;
+            if (exponent < to && (text.charAt(exponent) == '+' || text.charAt(exponent) == '-')) {
+                exponent++;
+            }
+            end = digitsEnd(text, exponent, to);
+            if (end == exponent) {
+                return -1;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Returns where the integral digits starting at {@code from} end, with or
+     * without grouping separators, or -1 if there are none.
+     */
+    private int numeralEnd(String text, int from, int to) {
+        int end = digitsEnd(text, from, to);
+        int length = end - from;
+        if (length == 0) {
+            return -1;
+        }
+        if (length > 3 || text.charAt(from) == '0') {
+            return end;
+        }
+        while (end + 3 < to && text.charAt(end) == groupingSeparator && digitsEnd(text, end + 1, end + 4) == end + 4) {
+            end += 4;
+        }
+        return end;
+    }
+
+    private static int hexEnd(String text, int from, int to) {
+        int i = from;
+        while (i < to && Character.digit(text.charAt(i), 16) >= 0 && text.charAt(i) < 128) {
+            i++;
+        }
+        if (i >= to || text.charAt(i) != '.') {
+            return -1;
+        }
+        int fraction = ++i;
+        while (i < to && Character.digit(text.charAt(i), 16) >= 0 && text.charAt(i) < 128) {
+            i++;
+        }
+        // Double can't parse it without a binary exponent
+        if (i == fraction || i >= to || (text.charAt(i) != 'p' && text.charAt(i) != 'P')) {
+            return -1;
+        }
+        i++;
+        if (i < to && (text.charAt(i) == '+' || text.charAt(i) == '-')) {
+            i++;
+        }
+        int exponent = i;
+        while (i < to && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+            i++;
+        }
+        return i == exponent ? -1 : i;
+    }
+
+    private static int digitsEnd(String text, int from, int to) {
+        int i = from;
+        while (i < to && isDigit(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9' || c >= 128 && Character.isDigit(c);
+    }
+}
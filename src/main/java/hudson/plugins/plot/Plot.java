@@ -7,9 +7,6 @@ package hudson.plugins.plot;
 
 import static org.jfree.chart.plot.PlotOrientation.VERTICAL;
 
-import com.opencsv.CSVReader;
-import com.opencsv.CSVWriter;
-import com.opencsv.exceptions.CsvValidationException;
 import hudson.FilePath;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
@@ -22,18 +19,16 @@ import java.awt.Color;
 import java.awt.Polygon;
 import java.awt.Shape;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
 import java.io.PrintStream;
-import java.nio.charset.Charset;
 import java.text.NumberFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.commons.collections.CollectionUtils;
@@ -83,19 +78,18 @@ public class Plot implements Comparable<Plot> {
     private static final Logger LOGGER = Logger.getLogger(Plot.class.getName());
     private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("MMM d");
 
-    /**
-     * Effectively a 2-dimensional array, where each row is the data for one
-     * data series of an individual build; the columns are: series y-value,
-     * series label, build number, optional URL
-     */
-    private transient List<String[]> rawPlotData;
-
     /**
      * The generated plot, which is only regenerated when new data is added (it
      * is re-rendered, however, every time it is requested).
      */
     private transient JFreeChart plot;
 
+    /**
+     * The deleted builds that were skipped when the plot was generated, it is
+     * regenerated when more builds are deleted.
+     */
+    private transient Set<Integer> plottedDeletedBuilds;
+
     /**
      * The project (or job) that this plot belongs to. A reference to the
      * project is needed to retrieve and save the CSV file that is stored in the
@@ -262,11 +256,17 @@ public class Plot implements Comparable<Plot> {
 
     static class Label implements Comparable<Label> {
         private final Integer buildNum;
+        private final String buildTime;
         private final String buildDate;
         private final String text;
 
         public Label(String buildNum, String buildTime, String text) {
-            this.buildNum = Integer.parseInt(buildNum);
+            this(Integer.parseInt(buildNum), buildTime, text);
+        }
+
+        Label(int buildNum, String buildTime, String text) {
+            this.buildNum = buildNum;
+            this.buildTime = buildTime;
             synchronized (DATE_FORMAT) {
                 this.buildDate = DATE_FORMAT.format(new Date(Long.parseLong(buildTime)));
             }
@@ -291,6 +291,14 @@ public class Plot implements Comparable<Plot> {
             return buildNum.hashCode();
         }
 
+        /**
+         * Returns whether this label is the one of the given build, with the
+         * given build time and text.
+         */
+        boolean matches(int buildNum, String buildTime, String text) {
+            return this.buildNum == buildNum && this.buildTime.equals(buildTime) && Objects.equals(this.text, text);
+        }
+
         public String numDateString() {
             return "#" + buildNum + " (" + buildDate + ")";
         }
@@ -732,40 +740,118 @@ public class Plot implements Comparable<Plot> {
     /**
      * Called when a build completes. Adds the finished build to this plot. This
      * method extracts the data for each data series from the build and saves it
-     * in the plot's CSV file.
+     * in the plot's CSV file. When background recording is enabled, only the
+     * extraction happens here and the CSV file is updated later by the
+     * {@link PlotWriteQueue}.
      */
     public void addBuild(Run<?, ?> run, PrintStream logger, FilePath workspace) {
         if (project == null) {
             project = run.getParent();
         }
 
-        // load the existing plot data from disk
-        loadPlotData();
-        // extract the data for each data series
+        List<String[]> rows;
+        try (SharedExtraction shared =
+                SharedExtraction.open(workspace, run.getNumber(), run.getParent().getRootDir())) {
+            rows = extractRows(run, logger, workspace);
+        }
+        if (PlotWriteQueue.ASYNC) {
+            PlotWriteQueue.get().submit(this, run, rows);
+        } else {
+            try {
+                mergeRows(rows, false);
+            } catch (IOException ioe) {
+                LOGGER.log(Level.SEVERE, "Exception saving plot file", ioe);
+            }
+        }
+    }
+
+    /**
+     * Extracts the data for each data series from the workspace of the given
+     * build, in the CSV row format of the plot file.
+     */
+    private List<String[]> extractRows(Run<?, ?> run, PrintStream logger, FilePath workspace) {
+        // extract the data for each data series, the series order decides
+        // the point order no matter which series finishes first
+        List<Series> seriesList = new ArrayList<>();
         for (Series s : getSeries()) {
-            if (s == null) {
-                continue;
+            if (s != null) {
+                seriesList.add(s);
             }
-            List<PlotPoint> seriesData = s.loadSeries(workspace, run.getNumber(), logger);
-            if (seriesData != null) {
-                for (PlotPoint point : seriesData) {
-                    if (point == null) {
-                        continue;
-                    }
+        }
+        List<RowSink> extracted = ExtractionPool.map(seriesList, s -> {
+            RowSink sink = new RowSink(run.getNumber(), run.getTimestamp().getTimeInMillis());
+            s.loadSeries(workspace, run.getNumber(), logger, sink);
+            return sink;
+        });
+
+        List<String[]> rows = new ArrayList<>();
+        int rejectedCount = 0;
+        List<String> rejected = new ArrayList<>();
+        for (RowSink sink : extracted) {
+            rows.addAll(sink.getRows());
+            rejectedCount += sink.getRejectedCount();
+            for (String point : sink.getRejected()) {
+                if (rejected.size() < RowSink.MAX_REPORTED) {
+                    rejected.add(point);
+                }
+            }
+        }
+        if (rejectedCount > 0) {
+            // reported once per build here rather than each time the chart
+            // is drawn
+            logger.println("Plot " + getTitle() + ": skipped " + rejectedCount + " points whose value is not a number: "
+                    + String.join(", ", rejected) + (rejectedCount > rejected.size() ? ", ..." : ""));
+        }
+        return rows;
+    }
 
-                    rawPlotData.add(new String[] {
-                        point.getYvalue(),
-                        point.getLabel(),
-                        run.getNumber() + "", // convert to a string
-                        run.getTimestamp().getTimeInMillis() + "",
-                        point.getUrl()
-                    });
+    /**
+     * Adds the given rows to the plot's CSV file.
+     *
+     * @param rows         rows in the CSV file format
+     * @param skipExisting if true, rows that are already stored are not added
+     *                     again, so replaying a queued record is harmless
+     * @throws IOException if the plot file could not be written
+     */
+    void mergeRows(List<String[]> rows, boolean skipExisting) throws IOException {
+        PlotStore store = getStore();
+        if (skipExisting) {
+            store.rewrite(getTitle(), existing -> {
+                List<String[]> merged = new ArrayList<>(existing);
+                for (String[] row : rows) {
+                    if (!containsRow(existing, row)) {
+                        merged.add(row);
+                    }
                 }
+                return merged;
+            });
+        } else {
+            store.append(getTitle(), rows);
+        }
+        PlotCompaction.recorded(this, project);
+    }
+
+    /**
+     * Returns whether the rows have the given row. The URL of a row read from
+     * a plain file is the URL that the template of the row renders, so URLs
+     * are compared rendered.
+     */
+    private static boolean containsRow(List<String[]> rows, String[] row) {
+        int fields = Math.min(row.length, 4);
+        for (String[] existing : rows) {
+            if (existing.length == row.length
+                    && Arrays.equals(existing, 0, fields, row, 0, fields)
+                    && (row.length < 5 || sameUrl(existing, row))) {
+                return true;
             }
         }
+        return false;
+    }
 
-        // save the updated plot data to disk
-        savePlotData();
+    private static boolean sameUrl(String[] existing, String[] row) {
+        return Objects.equals(existing[4], row[4])
+                || Objects.equals(
+                        PlotUrl.expand(existing[4], row[1], row[2]), PlotUrl.expand(row[4], row[1], row[2]));
     }
 
     /**
@@ -778,47 +864,53 @@ public class Plot implements Comparable<Plot> {
         // LOGGER.info("Determining if we should generate plot " +
         // getCsvFileName());
         File csvFile = new File(project.getRootDir(), getCsvFileName());
-        if (csvFile.lastModified() == csvLastModification && plot != null && !forceGenerate) {
+        Set<Integer> deletedBuilds = PlotTombstones.of(project).get();
+        if (csvFile.lastModified() == csvLastModification
+                && deletedBuilds == plottedDeletedBuilds
+                && plot != null
+                && !forceGenerate) {
             // data hasn't changed so don't regenerate the plot
             return;
         }
-        if (rawPlotData == null || csvFile.lastModified() > csvLastModification) {
-            // data has changed or has not been loaded so load it now
-            loadPlotData();
-        }
         // LOGGER.info("Generating plot " + getCsvFileName());
         csvLastModification = csvFile.lastModified();
+        plottedDeletedBuilds = deletedBuilds;
         PlotCategoryDataset dataset = new PlotCategoryDataset();
-        for (String[] record : rawPlotData) {
+        BuildLabels buildLabels = BuildLabels.of(project);
+        boolean useDescr = getUrlUseDescr();
+        Label columnXLabel = null;
+        boolean checked = false;
+        int checkedBuildNum = 0;
+        boolean reported = false;
+        // only the rows of the builds that can be shown are read
+        PlotValues values = readPlotValues(firstReportedBuild(), getRightBuildNum());
+        for (int i = 0; i < values.size(); i++) {
             // record: series y-value, series label, build number, build date,
             // url
-            int buildNum;
-            try {
-                buildNum = Integer.parseInt(record[2]);
-                if (!reportBuild(buildNum) || buildNum > getRightBuildNum()) {
-                    continue; // skip this record
-                }
-            } catch (NumberFormatException nfe) {
-                LOGGER.log(Level.SEVERE, "Exception converting to integer", nfe);
-                continue; // skip this record all together
+            if (!values.isValid(i)) {
+                continue; // already reported when the file was read
             }
-            Number value;
-            try {
-                value = Integer.parseInt(record[0]);
-            } catch (NumberFormatException nfe) {
-                try {
-                    value = Double.parseDouble(record[0]);
-                } catch (NumberFormatException nfe2) {
-                    LOGGER.log(Level.SEVERE, "Exception converting to number", nfe2);
-                    continue; // skip this record all together
-                }
+            int buildNum = values.getBuildNumber(i);
+            // the rows of a build follow each other, so the build is only
+            // checked again when it changes
+            if (!checked || buildNum != checkedBuildNum) {
+                checked = true;
+                checkedBuildNum = buildNum;
+                reported = reportBuild(buildNum) && buildNum <= getRightBuildNum();
+            }
+            if (!reported) {
+                continue; // skip this record
+            }
+            String[] record = values.getRows().get(i);
+            Number value = values.getNumber(i);
+            // the rows of a build follow each other, so the label is only
+            // looked up again when the build changes
+            if (columnXLabel == null || columnXLabel.buildNum != buildNum) {
+                columnXLabel = buildLabels.get(buildNum, record[3], useDescr ? descriptionForBuild(buildNum) : null);
             }
-            Label columnXLabel = getUrlUseDescr()
-                    ? new Label(record[2], record[3], descriptionForBuild(buildNum))
-                    : new Label(record[2], record[3]);
             String url = null;
             if (record.length >= 5) {
-                url = record[4];
+                url = PlotUrl.expand(record[4], record[1], buildNum);
             }
             String rowSeries = record[1];
             dataset.setValue(value, url, rowSeries, columnXLabel);
@@ -947,96 +1039,49 @@ public class Plot implements Comparable<Plot> {
         return null;
     }
 
+    PlotStore getStore() {
+        return PlotStore.of(new File(project.getRootDir(), getCsvFileName()));
+    }
+
     /**
-     * Loads the plot data from the CSV file on disk. The CSV file is stored in
-     * the projects root directory. The data is stored in the rawPlotData
-     * instance variable.
+     * Returns the plot data of the CSV file on disk. The CSV file is stored in
+     * the projects root directory.
+     *
+     * @return an unmodifiable snapshot of the rows, without the header lines
      */
-    private void loadPlotData() {
-        rawPlotData = new ArrayList<>();
-        // load existing plot file
-        File plotFile = new File(project.getRootDir(), getCsvFileName());
-        if (!plotFile.exists()) {
-            return;
-        }
-        CSVReader reader = null;
-        rawPlotData = new ArrayList<>();
-        try {
-            reader = new CSVReader(new InputStreamReader(new FileInputStream(plotFile), Charset.defaultCharset()));
-            // throw away 2 header lines
-            reader.readNext();
-            reader.readNext();
-            // read each line of the CSV file and add to rawPlotData
-            String[] nextLine;
-            while ((nextLine = reader.readNext()) != null) {
-                rawPlotData.add(nextLine);
-            }
-        } catch (CsvValidationException | IOException ioe) {
-            LOGGER.log(Level.SEVERE, "Exception reading plot file", ioe);
-        } finally {
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (IOException e) {
-                    LOGGER.log(Level.SEVERE, "Failed to close plot reader", e);
-                }
-            }
-        }
+    List<String[]> readPlotData() {
+        return getStore().read();
     }
 
     /**
-     * Saves the plot data to the CSV file on disk. The CSV file is stored in
-     * the projects root directory. The data is read from the rawPlotData
-     * instance variable.
+     * Returns the rows of the plot file for the given builds, with their
+     * values and build numbers parsed.
      */
-    private void savePlotData() {
-        File plotFile = new File(project.getRootDir(), getCsvFileName());
-        CSVWriter writer = null;
-        try {
-            writer = new CSVWriter(new OutputStreamWriter(new FileOutputStream(plotFile), Charset.defaultCharset()));
-            // write 2 header lines
-            String[] header1 = new String[] {Messages.Plot_Title(), this.getTitle()};
-            String[] header2 = new String[] {
-                Messages.Plot_Value(),
-                Messages.Plot_SeriesLabel(),
-                Messages.Plot_BuildNumber(),
-                Messages.Plot_BuildDate(),
-                Messages.Plot_URL()
-            };
-            writer.writeNext(header1);
-            writer.writeNext(header2);
-            // write each entry of rawPlotData to a new line in the CSV file
-            for (String[] entry : rawPlotData) {
-                if (reportBuild(Integer.parseInt(entry[2]))) {
-                    writer.writeNext(entry);
-                }
-            }
-        } catch (IOException ioe) {
-            LOGGER.log(Level.SEVERE, "Exception saving plot file", ioe);
-        } finally {
-            if (writer != null) {
-                try {
-                    writer.close();
-                } catch (IOException e) {
-                    LOGGER.log(Level.SEVERE, "Failed to close plot reader", e);
-                }
-            }
-        }
+    PlotValues readPlotValues(int fromBuild, int toBuild) {
+        return getStore().readValues(fromBuild, toBuild);
     }
 
     /**
-     * @return true if the build should be part of the graph.
+     * Returns the lowest build number {@link #reportBuild(int)} accepts.
      */
-    /* package */ boolean reportBuild(int buildNumber) {
+    private int firstReportedBuild() {
         int buildsNumber;
         try {
             buildsNumber = Integer.parseInt(this.numBuilds);
         } catch (NumberFormatException ex) {
             // Report all builds
-            buildsNumber = Integer.MAX_VALUE;
+            return Integer.MIN_VALUE;
         }
+        return project.getNextBuildNumber() - buildsNumber;
+    }
 
-        return buildNumber >= project.getNextBuildNumber() - buildsNumber
-                && (keepRecords || project.getBuildByNumber(buildNumber) != null);
+    /**
+     * @return true if the build should be part of the graph.
+     */
+    /* package */ boolean reportBuild(int buildNumber) {
+        return buildNumber >= firstReportedBuild()
+                && (keepRecords
+                        || !PlotTombstones.of(project).contains(buildNumber)
+                                && project.getBuildByNumber(buildNumber) != null);
     }
 }
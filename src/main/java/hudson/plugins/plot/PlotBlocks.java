@@ -0,0 +1,254 @@
+package hudson.plugins.plot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The compressed format of the plot files, see {@link PlotStore}.
+ * <p>
+ * A compressed plot file is a sequence of blocks, each a complete gzip member
+ * holding whole rows of the plain format, so the file can still be read with
+ * {@code zcat}. Every append adds a block and a block never splits the rows of
+ * a build. Like in BGZF, the header of each block has an extra field with the
+ * length of the block, so the blocks can be found without inflating them and
+ * a block that was only partially appended is recognized by its length.
+ * <p>
+ * The rows of a block are either CSV text or encoded column by column (see
+ * {@link PlotColumns}), which the identifier of the extra field tells apart.
+ */
+final class PlotBlocks {
+    private static final int ID1 = 0x1f;
+    private static final int ID2 = 0x8b;
+    private static final int DEFLATE = 8;
+    private static final int FEXTRA = 4;
+    private static final int OS_UNKNOWN = 255;
+
+    /**
+     * The identifier of the extra subfield with the block length, of a block
+     * of CSV text or of encoded rows.
+     */
+    private static final int SI1 = 'P';
+
+    private static final int SI2_TEXT = 'L';
+    private static final int SI2_COLUMNS = 'C';
+
+    /**
+     * The length of the header of a block: the gzip header with an extra
+     * field that only has the subfield with the block length.
+     */
+    private static final int HEADER_LENGTH = 10 + 2 + 8;
+
+    /**
+     * The length of the CRC and size at the end of a block.
+     */
+    private static final int TRAILER_LENGTH = 8;
+
+    /**
+     * The uncompressed size a rewritten file's blocks are cut at, at the next
+     * build.
+     */
+    static final int BLOCK_SIZE = 64 * 1024;
+
+    private PlotBlocks() {}
+
+    /**
+     * Returns whether the content of a file is in the compressed format.
+     */
+    static boolean isCompressed(byte[] content, int length) {
+        return length >= 2 && (content[0] & 0xff) == ID1 && (content[1] & 0xff) == ID2;
+    }
+
+    /**
+     * Returns whether the content of a file in a buffer is in the compressed
+     * format.
+     */
+    static boolean isCompressed(ByteBuffer content) {
+        return content.limit() >= 2 && (content.get(0) & 0xff) == ID1 && (content.get(1) & 0xff) == ID2;
+    }
+
+    /**
+     * Receives the uncompressed content of the blocks of a file.
+     */
+    interface BlockReader {
+        /**
+         * @param columns whether the data is encoded rows rather than CSV
+         *                text
+         */
+        void read(byte[] data, boolean columns) throws IOException;
+    }
+
+    /**
+     * Compresses data into a block.
+     *
+     * @param columns whether the data is encoded rows rather than CSV text
+     */
+    static byte[] encode(byte[] data, int offset, int length, boolean columns) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        ByteArrayOutputStream block = new ByteArrayOutputStream(HEADER_LENGTH + length / 4 + 64);
+        try {
+            block.write(new byte[HEADER_LENGTH], 0, HEADER_LENGTH);
+            deflater.setInput(data, offset, length);
+            deflater.finish();
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int deflated = deflater.deflate(buffer);
+                block.write(buffer, 0, deflated);
+            }
+        } finally {
+            deflater.end();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        writeInt(block, (int) crc.getValue());
+        writeInt(block, length);
+
+        byte[] bytes = block.toByteArray();
+        bytes[0] = (byte) ID1;
+        bytes[1] = (byte) ID2;
+        bytes[2] = DEFLATE;
+        bytes[3] = FEXTRA;
+        // no modification time, no extra flags
+        bytes[9] = (byte) OS_UNKNOWN;
+        bytes[10] = 8;
+        bytes[11] = 0;
+        bytes[12] = (byte) SI1;
+        bytes[13] = (byte) (columns ? SI2_COLUMNS : SI2_TEXT);
+        bytes[14] = 4;
+        bytes[15] = 0;
+        setInt(bytes, 16, bytes.length);
+        return bytes;
+    }
+
+    /**
+     * Returns the length of the complete blocks at the start of the content,
+     * without a block at the end that is only partially written.
+     *
+     * @throws IOException if the content isn't a sequence of blocks
+     */
+    static int completeLength(byte[] content, int length) throws IOException {
+        int offset = 0;
+        while (offset + HEADER_LENGTH <= length) {
+            int blockLength = blockLength(content, offset);
+            if (length - offset < blockLength) {
+                break;
+            }
+            offset += blockLength;
+        }
+        return offset;
+    }
+
+    /**
+     * Returns the number of blocks.
+     *
+     * @param length the length of the complete blocks, see
+     *               {@link #completeLength(byte[], int)}
+     */
+    static int count(byte[] content, int length) throws IOException {
+        int count = 0;
+        for (int offset = 0; offset < length; offset += blockLength(content, offset)) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of blocks holding encoded rows.
+     *
+     * @param length the length of the complete blocks, see
+     *               {@link #completeLength(byte[], int)}
+     */
+    static int countColumns(byte[] content, int length) throws IOException {
+        int count = 0;
+        for (int offset = 0; offset < length; offset += blockLength(content, offset)) {
+            if (content[offset + 13] == SI2_COLUMNS) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Passes the uncompressed content of each block to a reader, in order.
+     *
+     * @param length the length of the complete blocks, see
+     *               {@link #completeLength(byte[], int)}
+     * @throws IOException if a block is corrupt
+     */
+    static void decode(byte[] content, int length, BlockReader reader) throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream(BLOCK_SIZE);
+        Inflater inflater = new Inflater(true);
+        try {
+            byte[] buffer = new byte[8192];
+            int offset = 0;
+            while (offset < length) {
+                int blockLength = blockLength(content, offset);
+                data.reset();
+                inflater.reset();
+                inflater.setInput(
+                        content, offset + HEADER_LENGTH, blockLength - HEADER_LENGTH - TRAILER_LENGTH);
+                while (!inflater.finished()) {
+                    int inflated = inflater.inflate(buffer);
+                    if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new IOException("Truncated block at " + offset);
+                    }
+                    data.write(buffer, 0, inflated);
+                }
+                int trailer = offset + blockLength - TRAILER_LENGTH;
+                if (getInt(content, trailer + 4) != data.size()) {
+                    throw new IOException("Wrong size of block at " + offset);
+                }
+                reader.read(data.toByteArray(), content[offset + 13] == SI2_COLUMNS);
+                offset += blockLength;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt block", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Returns the length of the block starting at the given offset, from its
+     * header.
+     */
+    private static int blockLength(byte[] content, int offset) throws IOException {
+        if ((content[offset] & 0xff) != ID1
+                || (content[offset + 1] & 0xff) != ID2
+                || content[offset + 2] != DEFLATE
+                || content[offset + 3] != FEXTRA
+                || content[offset + 12] != SI1
+                || (content[offset + 13] != SI2_TEXT && content[offset + 13] != SI2_COLUMNS)) {
+            throw new IOException("No block at " + offset);
+        }
+        int blockLength = getInt(content, offset + 16);
+        if (blockLength < HEADER_LENGTH + TRAILER_LENGTH) {
+            throw new IOException("Wrong length of block at " + offset);
+        }
+        return blockLength;
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        for (int i = 0; i < 4; i++) {
+            out.write(value >>> (8 * i));
+        }
+    }
+
+    private static void setInt(byte[] bytes, int offset, int value) {
+        for (int i = 0; i < 4; i++) {
+            bytes[offset + i] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    private static int getInt(byte[] bytes, int offset) {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value |= (bytes[offset + i] & 0xff) << (8 * i);
+        }
+        return value;
+    }
+}
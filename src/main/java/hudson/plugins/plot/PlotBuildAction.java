@@ -32,6 +32,10 @@ public class PlotBuildAction extends InvisibleAction implements StaplerProxy, Si
         return null;
     }
 
+    List<Plot> getPlots() {
+        return plots != null ? plots : Collections.emptyList();
+    }
+
     void addPlots(List<Plot> plots) {
         if (this.plots == null) {
             this.plots = new CopyOnWriteArrayList<>();
@@ -6,6 +6,7 @@ import hudson.Extension;
 import hudson.FilePath;
 import hudson.Launcher;
 import hudson.Util;
+import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.Run;
 import hudson.model.TaskListener;
@@ -254,6 +255,12 @@ public class PlotBuilder extends Builder implements SimpleBuildStep {
             series.addAll(propertiesSeries);
         }
 
+        if (!(build instanceof AbstractBuild)) {
+            // a pipeline step makes new series for every run
+            for (Series s : series) {
+                s.setTemporary();
+            }
+        }
         plot.series = series;
         plot.addBuild(build, listener.getLogger(), workspace);
         plots.add(plot);
@@ -7,9 +7,12 @@ package hudson.plugins.plot;
 
 import java.io.Serial;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import org.jfree.data.category.CategoryDataset;
 import org.jfree.data.general.AbstractDataset;
 
@@ -44,6 +47,14 @@ public class PlotCategoryDataset extends AbstractDataset implements CategoryData
      */
     private transient List<Comparable> columnKeys;
 
+    /**
+     * The index of each row key, and the column keys as a set, so that adding
+     * a value doesn't search the keys one after the other
+     */
+    private transient Map<Comparable, Integer> rowIndexes;
+
+    private transient Set<Comparable> columnKeySet;
+
     /**
      * The row data
      */
@@ -60,6 +71,8 @@ public class PlotCategoryDataset extends AbstractDataset implements CategoryData
     public PlotCategoryDataset() {
         this.rowKeys = new ArrayList<>();
         this.columnKeys = new ArrayList<>();
+        this.rowIndexes = new HashMap<>();
+        this.columnKeySet = new HashSet<>();
         this.data = new ArrayList<>();
     }
 
@@ -90,6 +103,10 @@ public class PlotCategoryDataset extends AbstractDataset implements CategoryData
                     rowKeys.remove(i);
                 }
             }
+            rowIndexes.clear();
+            for (int i = 0; i < rowKeys.size(); i++) {
+                rowIndexes.put(rowKeys.get(i), i);
+            }
         }
     }
 
@@ -129,7 +146,7 @@ public class PlotCategoryDataset extends AbstractDataset implements CategoryData
 
     @Override
     public int getRowIndex(Comparable key) {
-        return rowKeys.indexOf(key);
+        return rowIndexes.getOrDefault(key, -1);
     }
 
     @Override
@@ -169,7 +186,7 @@ public class PlotCategoryDataset extends AbstractDataset implements CategoryData
     @Override
     public Number getValue(Comparable rowKey, Comparable columnKey) {
         // LOGGER.info("("+rowKey+","+columnKey+")");
-        int rowIndex = rowKeys.indexOf(rowKey);
+        int rowIndex = getRowIndex(rowKey);
         if (rowIndex == -1 || data.get(rowIndex) == null) {
             return null;
         }
@@ -215,24 +232,22 @@ public class PlotCategoryDataset extends AbstractDataset implements CategoryData
      */
     public void setValue(Number value, String url, Comparable rowKey, Comparable columnKey) {
         // LOGGER.info("Data point:"+value+","+url+","+rowKey+","+columnKey);
-        int rowIndex = rowKeys.indexOf(rowKey);
+        int rowIndex = getRowIndex(rowKey);
         if (rowIndex == -1) {
             rowKeys.add(rowKey);
             rowIndex = rowKeys.size() - 1;
+            rowIndexes.put(rowKey, rowIndex);
             data.add(new HashMap<>());
         }
-        if (!columnKeys.contains(columnKey)) {
-            boolean added = false;
-            for (int i = 0; i < columnKeys.size(); i++) {
-                Comparable key = columnKeys.get(i);
-                if (key.compareTo(columnKey) >= 0) {
-                    columnKeys.add(i, columnKey);
-                    added = true;
-                    break;
-                }
-            }
-            if (!added) {
+        if (columnKeySet.add(columnKey)) {
+            // the column keys are sorted, and columns are mostly added in
+            // order, so the last one is checked before searching
+            int size = columnKeys.size();
+            if (size == 0 || columnKeys.get(size - 1).compareTo(columnKey) < 0) {
                 columnKeys.add(columnKey);
+            } else {
+                int i = Collections.binarySearch((List) columnKeys, columnKey);
+                columnKeys.add(i < 0 ? -i - 1 : i, columnKey);
             }
         }
         // LOGGER.info("columnKeys.size():"+columnKeys.size());
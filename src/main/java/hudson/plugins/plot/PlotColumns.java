@@ -0,0 +1,517 @@
+package hudson.plugins.plot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * Encodes the records of a compressed plot file block column by column,
+ * the way time-series databases do (see Gorilla, VLDB 2015), see
+ * {@link PlotBlocks}.
+ * <p>
+ * The build numbers and the timestamps only grow, mostly by the same amount,
+ * so they are stored as the zig-zag varint of the difference between
+ * consecutive deltas, which is 0 for all rows of a build. The values of a
+ * series change little from one build to the next, so each value is stored
+ * as the XOR of its bits with those of the previous value of the same
+ * series, which is a single bit when it didn't change. The labels, URLs and
+ * any field that isn't a number in its canonical form are stored once per
+ * block in a table of Strings and referred to by their index. A record reads
+ * back exactly as it was written, apart from null fields, which read back
+ * as empty, like they do from a CSV file.
+ */
+final class PlotColumns {
+    private static final int VERSION = 1;
+
+    /**
+     * The kinds of value of a record, in bits 4 and 5 of its tag.
+     */
+    private static final int TEXT = 0;
+
+    private static final int INT = 1;
+    private static final int DOUBLE = 2;
+
+    /**
+     * The field count of a record is in the tag unless it is this or more.
+     */
+    private static final int MAX_TAG_FIELDS = 15;
+
+    private static final int KIND_SHIFT = 4;
+    private static final int BUILD_NUMBER = 1 << 6;
+    private static final int TIMESTAMP = 1 << 7;
+
+    /**
+     * The number of rows a rewritten file's blocks are cut at, at the next
+     * build.
+     */
+    static final int BLOCK_ROWS = 4096;
+
+    private PlotColumns() {}
+
+    /**
+     * Returns the encoded records, that must have at least one field each.
+     */
+    static byte[] encode(List<String[]> records) {
+        ByteArrayOutputStream tags = new ByteArrayOutputStream(records.size() + 16);
+        ByteArrayOutputStream refs = new ByteArrayOutputStream(records.size() * 2 + 16);
+        ByteArrayOutputStream builds = new ByteArrayOutputStream(records.size() + 16);
+        ByteArrayOutputStream timestamps = new ByteArrayOutputStream(records.size() + 16);
+        BitWriter values = new BitWriter();
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        Map<String, XorState> series = new HashMap<>();
+        Delta buildDelta = new Delta();
+        Delta timestampDelta = new Delta();
+
+        for (String[] record : records) {
+            int fieldCount = record.length;
+            String value = field(record, 0);
+            String build = field(record, 2);
+            String timestamp = field(record, 3);
+            int kind = kindOf(value);
+            boolean buildNumber = fieldCount > 2 && isCanonicalInt(build);
+            boolean numericTimestamp = fieldCount > 3 && isCanonicalLong(timestamp);
+            int tag = Math.min(fieldCount, MAX_TAG_FIELDS)
+                    | kind << KIND_SHIFT
+                    | (buildNumber ? BUILD_NUMBER : 0)
+                    | (numericTimestamp ? TIMESTAMP : 0);
+            tags.write(tag);
+            if (fieldCount >= MAX_TAG_FIELDS) {
+                writeVarint(tags, fieldCount - MAX_TAG_FIELDS);
+            }
+
+            if (kind == TEXT) {
+                writeVarint(refs, ref(strings, value));
+            }
+            String label = "";
+            if (fieldCount > 1) {
+                label = field(record, 1);
+                writeVarint(refs, ref(strings, label));
+            }
+            if (fieldCount > 2) {
+                if (buildNumber) {
+                    writeVarint(builds, zigZag(buildDelta.next(Integer.parseInt(build))));
+                } else {
+                    writeVarint(refs, ref(strings, build));
+                }
+            }
+            if (fieldCount > 3) {
+                if (numericTimestamp) {
+                    writeVarint(timestamps, zigZag(timestampDelta.next(Long.parseLong(timestamp))));
+                } else {
+                    writeVarint(refs, ref(strings, timestamp));
+                }
+            }
+            for (int i = 4; i < fieldCount; i++) {
+                writeVarint(refs, ref(strings, field(record, i)));
+            }
+            if (kind != TEXT) {
+                double number = kind == INT ? Integer.parseInt(value) : Double.parseDouble(value);
+                series.computeIfAbsent(label, l -> new XorState()).write(values, number);
+            }
+        }
+
+        ByteArrayOutputStream out =
+                new ByteArrayOutputStream(tags.size() + refs.size() + builds.size() + timestamps.size() + 64);
+        writeVarint(out, VERSION);
+        writeVarint(out, records.size());
+        writeVarint(out, strings.size());
+        for (String string : strings.keySet()) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            writeVarint(out, bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+        for (ByteArrayOutputStream section : List.of(tags, refs, builds, timestamps, values.finish())) {
+            writeVarint(out, section.size());
+            out.writeBytes(section.toByteArray());
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns the records of encoded data.
+     *
+     * @param intern returns the String the records should share for a field
+     *               other than the value
+     * @throws IOException if the data is corrupt
+     */
+    static List<String[]> decode(byte[] data, int length, UnaryOperator<String> intern) throws IOException {
+        try {
+            ByteReader in = new ByteReader(data, 0, length);
+            int version = (int) in.readVarint();
+            if (version != VERSION) {
+                throw new IOException("Unknown version " + version + " of encoded plot rows");
+            }
+            int count = in.readCount();
+            String[] strings = new String[in.readCount()];
+            for (int i = 0; i < strings.length; i++) {
+                int stringLength = in.readCount();
+                int start = in.skip(stringLength);
+                strings[i] = intern.apply(new String(data, start, stringLength, StandardCharsets.UTF_8));
+            }
+            ByteReader tags = in.section();
+            ByteReader refs = in.section();
+            ByteReader builds = in.section();
+            ByteReader timestamps = in.section();
+            ByteReader valueBytes = in.section();
+            BitReader values = new BitReader(valueBytes);
+            Map<String, XorState> series = new HashMap<>();
+            Delta buildDelta = new Delta();
+            Delta timestampDelta = new Delta();
+
+            List<String[]> records = new ArrayList<>(count);
+            for (int r = 0; r < count; r++) {
+                int tag = tags.readByte();
+                int fieldCount = tag & MAX_TAG_FIELDS;
+                if (fieldCount == MAX_TAG_FIELDS) {
+                    // each of the other fields has a reference
+                    fieldCount += refs.readCount(tags.readVarint());
+                }
+                if (fieldCount == 0) {
+                    throw new IOException("Encoded plot row without fields");
+                }
+                int kind = (tag >>> KIND_SHIFT) & 3;
+                String[] record = new String[fieldCount];
+                if (kind == TEXT) {
+                    record[0] = string(strings, refs);
+                }
+                String label = "";
+                if (fieldCount > 1) {
+                    label = string(strings, refs);
+                    record[1] = label;
+                }
+                if (fieldCount > 2) {
+                    record[2] = (tag & BUILD_NUMBER) != 0
+                            ? intern.apply(Integer.toString(Math.toIntExact(buildDelta.read(builds))))
+                            : string(strings, refs);
+                }
+                if (fieldCount > 3) {
+                    record[3] = (tag & TIMESTAMP) != 0
+                            ? intern.apply(Long.toString(timestampDelta.read(timestamps)))
+                            : string(strings, refs);
+                }
+                for (int i = 4; i < fieldCount; i++) {
+                    record[i] = string(strings, refs);
+                }
+                if (kind == INT) {
+                    double number = series.computeIfAbsent(label, l -> new XorState()).read(values);
+                    record[0] = Integer.toString((int) number);
+                } else if (kind == DOUBLE) {
+                    double number = series.computeIfAbsent(label, l -> new XorState()).read(values);
+                    record[0] = Double.toString(number);
+                } else if (kind != TEXT) {
+                    throw new IOException("Unknown kind of value " + kind);
+                }
+                records.add(record);
+            }
+            return records;
+        } catch (IndexOutOfBoundsException | ArithmeticException e) {
+            throw new IOException("Corrupt encoded plot rows", e);
+        }
+    }
+
+    private static String field(String[] record, int index) {
+        if (index >= record.length || record[index] == null) {
+            return "";
+        }
+        return record[index];
+    }
+
+    private static int ref(Map<String, Integer> strings, String string) {
+        Integer ref = strings.get(string);
+        if (ref == null) {
+            ref = strings.size();
+            strings.put(string, ref);
+        }
+        return ref;
+    }
+
+    private static String string(String[] strings, ByteReader refs) throws IOException {
+        long ref = refs.readVarint();
+        if (ref < 0 || ref >= strings.length) {
+            throw new IOException("Unknown string " + ref + " in encoded plot rows");
+        }
+        return strings[(int) ref];
+    }
+
+    /**
+     * Returns how a value is stored: as a number if it reads back the same
+     * from the number, otherwise as text.
+     */
+    private static int kindOf(String value) {
+        if (isCanonicalInt(value)) {
+            return INT;
+        }
+        if (value.isEmpty() || value.charAt(0) == '%') {
+            // the rows holding a label or template
+            return TEXT;
+        }
+        try {
+            return Double.toString(Double.parseDouble(value)).equals(value) ? DOUBLE : TEXT;
+        } catch (NumberFormatException e) {
+            return TEXT;
+        }
+    }
+
+    private static boolean isCanonicalInt(String value) {
+        return PlotValues.isInteger(value) && Integer.toString(Integer.parseInt(value)).equals(value);
+    }
+
+    private static boolean isCanonicalLong(String value) {
+        int length = value.length();
+        int start = length > 0 && value.charAt(0) == '-' ? 1 : 0;
+        if (start == length || length - start > 19 || (value.charAt(start) == '0' && length > 1)) {
+            return false;
+        }
+        for (int i = start; i < length; i++) {
+            if (value.charAt(i) < '0' || value.charAt(i) > '9') {
+                return false;
+            }
+        }
+        if (length - start < 19) {
+            return true;
+        }
+        // as many digits as Long.MIN_VALUE, it may overflow
+        try {
+            return Long.toString(Long.parseLong(value)).equals(value);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * The state of a column stored as the differences between consecutive
+     * deltas.
+     */
+    private static final class Delta {
+        private long previous;
+        private long delta;
+
+        /**
+         * Returns the delta of delta to store for the next value.
+         */
+        long next(long value) {
+            long next = value - previous;
+            long deltaOfDelta = next - delta;
+            previous = value;
+            delta = next;
+            return deltaOfDelta;
+        }
+
+        long read(ByteReader in) throws IOException {
+            long zigZag = in.readVarint();
+            delta += (zigZag >>> 1) ^ -(zigZag & 1);
+            previous += delta;
+            return previous;
+        }
+    }
+
+    /**
+     * The previous value of a series and the bits its XOR with the value
+     * before that had in common with the one before.
+     */
+    private static final class XorState {
+        private boolean first = true;
+        private long previous;
+        private int leadingZeros = Integer.MAX_VALUE;
+        private int trailingZeros;
+
+        void write(BitWriter out, double value) {
+            long bits = Double.doubleToRawLongBits(value);
+            if (first) {
+                out.write(bits, 64);
+                first = false;
+                previous = bits;
+                return;
+            }
+            long xor = bits ^ previous;
+            previous = bits;
+            if (xor == 0) {
+                out.write(0, 1);
+                return;
+            }
+            out.write(1, 1);
+            int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+            int trailing = Long.numberOfTrailingZeros(xor);
+            if (leading >= leadingZeros && trailing >= trailingZeros) {
+                // within the meaningful bits of the previous XOR
+                out.write(0, 1);
+                out.write(xor >>> trailingZeros, 64 - leadingZeros - trailingZeros);
+            } else {
+                int meaningful = 64 - leading - trailing;
+                out.write(1, 1);
+                out.write(leading, 5);
+                out.write(meaningful - 1, 6);
+                out.write(xor >>> trailing, meaningful);
+                leadingZeros = leading;
+                trailingZeros = trailing;
+            }
+        }
+
+        double read(BitReader in) throws IOException {
+            if (first) {
+                previous = in.read(64);
+                first = false;
+            } else if (in.read(1) != 0) {
+                if (in.read(1) != 0) {
+                    leadingZeros = (int) in.read(5);
+                    int meaningful = (int) in.read(6) + 1;
+                    trailingZeros = 64 - leadingZeros - meaningful;
+                    if (trailingZeros < 0) {
+                        throw new IOException("Corrupt encoded plot value");
+                    }
+                } else if (leadingZeros == Integer.MAX_VALUE) {
+                    throw new IOException("Corrupt encoded plot value");
+                }
+                previous ^= in.read(64 - leadingZeros - trailingZeros) << trailingZeros;
+            }
+            return Double.longBitsToDouble(previous);
+        }
+    }
+
+    private static final class BitWriter {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private long buffer;
+        private int bits;
+
+        /**
+         * Writes the given number of low bits of a value, most significant
+         * first.
+         */
+        void write(long value, int count) {
+            while (count > 0) {
+                int chunk = Math.min(count, 8 - bits);
+                count -= chunk;
+                buffer = (buffer << chunk) | ((value >>> count) & ((1L << chunk) - 1));
+                bits += chunk;
+                if (bits == 8) {
+                    out.write((int) buffer);
+                    buffer = 0;
+                    bits = 0;
+                }
+            }
+        }
+
+        ByteArrayOutputStream finish() {
+            if (bits > 0) {
+                out.write((int) (buffer << (8 - bits)));
+                buffer = 0;
+                bits = 0;
+            }
+            return out;
+        }
+    }
+
+    private static final class BitReader {
+        private final ByteReader in;
+        private int current;
+        private int bits;
+
+        BitReader(ByteReader in) {
+            this.in = in;
+        }
+
+        long read(int count) {
+            long value = 0;
+            while (count > 0) {
+                if (bits == 0) {
+                    current = in.readByte();
+                    bits = 8;
+                }
+                int chunk = Math.min(count, bits);
+                bits -= chunk;
+                value = (value << chunk) | ((current >>> bits) & ((1 << chunk) - 1));
+                count -= chunk;
+            }
+            return value;
+        }
+    }
+
+    private static final class ByteReader {
+        private final byte[] data;
+        private int position;
+        private final int end;
+
+        ByteReader(byte[] data, int position, int end) {
+            this.data = data;
+            this.position = position;
+            this.end = end;
+        }
+
+        int readByte() {
+            if (position >= end) {
+                throw new IndexOutOfBoundsException("End of encoded plot rows");
+            }
+            return data[position++] & 0xff;
+        }
+
+        long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Corrupt varint in encoded plot rows");
+        }
+
+        /**
+         * Reads a varint that is a number of elements of at least one byte
+         * each, from this reader.
+         */
+        int readCount() throws IOException {
+            return readCount(readVarint());
+        }
+
+        /**
+         * Checks a number of elements of at least one byte each, from this
+         * reader.
+         */
+        int readCount(long count) throws IOException {
+            if (count < 0 || count > end - position) {
+                throw new IOException("Corrupt count in encoded plot rows");
+            }
+            return (int) count;
+        }
+
+        /**
+         * Skips the given number of bytes and returns where they start.
+         */
+        int skip(int length) {
+            if (length > end - position) {
+                throw new IndexOutOfBoundsException("End of encoded plot rows");
+            }
+            int start = position;
+            position += length;
+            return start;
+        }
+
+        /**
+         * Returns a reader of the section starting here, and skips it.
+         */
+        ByteReader section() throws IOException {
+            int length = readCount();
+            int start = skip(length);
+            return new ByteReader(data, start, start + length);
+        }
+    }
+}
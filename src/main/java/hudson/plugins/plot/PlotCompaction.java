@@ -0,0 +1,338 @@
+package hudson.plugins.plot;
+
+import hudson.Extension;
+import hudson.matrix.MatrixConfiguration;
+import hudson.model.AbstractProject;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Periodically removes the rows that no chart will show anymore from the plot
+ * CSV files, so recording a build only ever appends to them.
+ * <p>
+ * Rows are dropped if their build falls outside the number of builds a plot
+ * shows, if their build was deleted and the plot doesn't keep records of
+ * deleted builds, or if they can't be parsed. Optionally, rows older than
+ * {@link #MAX_AGE_DAYS} days or beyond the newest {@link #MAX_ROWS} rows of a
+ * file are dropped as well. Builds marked as deleted in {@link PlotTombstones}
+ * are forgotten once their rows are gone from all the plot files of the job.
+ * Files that aren't in the format set by {@link PlotStore#COMPRESS} are
+ * rewritten in it.
+ * <p>
+ * The plots of a job are those of its publishers, those its last completed
+ * build recorded, and those any build recorded since Jenkins started, so a
+ * plot file that still grows is compacted even when the last build didn't
+ * record it.
+ */
+@Extension
+public class PlotCompaction extends AsyncPeriodicWork {
+    private static final Logger LOGGER = Logger.getLogger(PlotCompaction.class.getName());
+
+    /**
+     * Minutes between two compactions.
+     */
+    static long RECURRENCE_PERIOD =
+            SystemProperties.getLong(PlotCompaction.class.getName() + ".recurrencePeriod", 60L);
+
+    /**
+     * Rows recorded more than this many days ago are dropped, 0 keeps them
+     * regardless of their age. Not final so it can be changed from the script
+     * console.
+     */
+    static int MAX_AGE_DAYS = SystemProperties.getInteger(PlotCompaction.class.getName() + ".maxAgeDays", 0);
+
+    /**
+     * Maximum number of rows kept per plot file, the rows of the oldest builds
+     * are dropped first. 0 keeps all rows. Not final so it can be changed from
+     * the script console.
+     */
+    static int MAX_ROWS = SystemProperties.getInteger(PlotCompaction.class.getName() + ".maxRows", 0);
+
+    /**
+     * The plots recorded since Jenkins started, by job directory and plot
+     * file name.
+     */
+    private static final ConcurrentMap<File, Map<String, Plot>> RECORDED = new ConcurrentHashMap<>();
+
+    public PlotCompaction() {
+        super("Plot data compaction");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return TimeUnit.MINUTES.toMillis(RECURRENCE_PERIOD);
+    }
+
+    @Override
+    protected void execute(TaskListener listener) {
+        long now = System.currentTimeMillis();
+        Set<File> compacted = new HashSet<>();
+        long reclaimed = 0;
+        for (Job<?, ?> job : Jenkins.get().getAllItems(Job.class)) {
+            if (!hasPlotFiles(job)) {
+                continue;
+            }
+            PlotTombstones tombstones = PlotTombstones.of(job);
+            Set<Integer> deletedBuilds = tombstones.get();
+            Set<File> jobFiles = new HashSet<>();
+            boolean failed = false;
+            for (Plot plot : getPlots(job)) {
+                PlotStore store = plot.getStore();
+                File file = store.getFile();
+                if (!file.exists() || !compacted.add(file)) {
+                    continue;
+                }
+                try {
+                    long bytes = store.rewrite(plot.getTitle(), rows -> compact(plot, rows, now));
+                    if (bytes != 0) {
+                        listener.getLogger().println("Compacted " + file + ", reclaimed " + bytes + " bytes");
+                        reclaimed += bytes;
+                    }
+                    jobFiles.add(file.getAbsoluteFile());
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING, "Failed to compact plot file " + file, e);
+                    failed = true;
+                }
+            }
+            if (!failed && !deletedBuilds.isEmpty() && containsAll(jobFiles, job.getRootDir())) {
+                // the rows of these builds are gone now
+                try {
+                    tombstones.removeAll(deletedBuilds);
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Failed to clear the deleted builds of " + job, e);
+                }
+            }
+        }
+        listener.getLogger().println("Checked " + compacted.size() + " plot files, reclaimed " + reclaimed + " bytes");
+    }
+
+    /**
+     * Returns the plots recorded by the given job, bound to the job.
+     */
+    static List<Plot> getPlots(Job<?, ?> job) {
+        List<Plot> configured = getPublishedPlots(job);
+        // plots recorded by a build step or pipeline
+        Run<?, ?> build = job.getLastCompletedBuild();
+        PlotBuildAction action = build != null ? build.getAction(PlotBuildAction.class) : null;
+        if (action != null) {
+            configured.addAll(action.getPlots());
+        }
+
+        Map<String, Plot> plots = new LinkedHashMap<>();
+        for (Plot p : configured) {
+            if (!StringUtils.isBlank(p.csvFileName)) {
+                plots.putIfAbsent(p.csvFileName, bind(p, job));
+            }
+        }
+        // plots the last build didn't record, but an earlier one did
+        Map<String, Plot> recorded = RECORDED.get(job.getRootDir().getAbsoluteFile());
+        if (recorded != null) {
+            synchronized (recorded) {
+                for (Plot p : recorded.values()) {
+                    plots.putIfAbsent(p.csvFileName, p);
+                }
+            }
+        }
+        return new ArrayList<>(plots.values());
+    }
+
+    /**
+     * Returns the plots of the publishers of the given job.
+     */
+    private static List<Plot> getPublishedPlots(Job<?, ?> job) {
+        List<Plot> configured = new ArrayList<>();
+        if (job instanceof AbstractProject) {
+            AbstractProject<?, ?> project = (AbstractProject<?, ?>) job;
+            PlotPublisher publisher = project.getPublishersList().get(PlotPublisher.class);
+            if (publisher != null) {
+                configured.addAll(publisher.getPlots());
+            }
+            // matrix plots are recorded by each configuration
+            if (job instanceof MatrixConfiguration) {
+                MatrixPlotPublisher matrixPublisher = project.getPublishersList().get(MatrixPlotPublisher.class);
+                if (matrixPublisher != null) {
+                    configured.addAll(matrixPublisher.getPlots());
+                }
+            }
+        }
+        return configured;
+    }
+
+    /**
+     * Returns whether the given job may have plot files, without loading any
+     * of its builds: it has plot publishers, a plot was recorded since
+     * Jenkins started, or a plot file with a generated name is in its
+     * directory.
+     */
+    static boolean hasPlotFiles(Job<?, ?> job) {
+        File dir = job.getRootDir();
+        if (!getPublishedPlots(job).isEmpty() || RECORDED.containsKey(dir.getAbsoluteFile())) {
+            return true;
+        }
+        File[] files = listPlotFiles(dir);
+        return files != null && files.length > 0;
+    }
+
+    /**
+     * Returns whether the given files include all the plot files with a
+     * generated name in the given job directory. A plot file that wasn't
+     * compacted, because no plot of the job was found for it, may still have
+     * the rows of deleted builds, so their tombstones must be kept.
+     */
+    private static boolean containsAll(Set<File> files, File dir) {
+        File[] plotFiles = listPlotFiles(dir);
+        if (plotFiles == null) {
+            return false;
+        }
+        for (File file : plotFiles) {
+            if (!files.contains(file.getAbsoluteFile())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static File[] listPlotFiles(File dir) {
+        return dir.listFiles((d, name) -> name.startsWith("plot-") && name.endsWith(".csv"));
+    }
+
+    /**
+     * Drops the plots recorded by the jobs whose directory matches, once they
+     * were deleted or moved, see {@link PlotItemListener}.
+     */
+    static void forget(Predicate<File> jobDir) {
+        RECORDED.keySet().removeIf(jobDir);
+    }
+
+    /**
+     * Remembers that rows of a plot were written, so its file is compacted
+     * even if the plot isn't found in the configuration or the last build of
+     * its job.
+     */
+    static void recorded(Plot plot, Job<?, ?> job) {
+        if (StringUtils.isBlank(plot.csvFileName)) {
+            return;
+        }
+        Map<String, Plot> recorded =
+                RECORDED.computeIfAbsent(job.getRootDir().getAbsoluteFile(), dir -> new HashMap<>());
+        synchronized (recorded) {
+            Plot previous = recorded.get(plot.csvFileName);
+            if (previous == null
+                    || !Objects.equals(previous.getTitle(), plot.getTitle())
+                    || !Objects.equals(previous.getNumBuilds(), plot.getNumBuilds())
+                    || previous.getKeepRecords() != plot.getKeepRecords()) {
+                recorded.put(plot.csvFileName, bind(plot, job));
+            }
+        }
+    }
+
+    /**
+     * Returns a plot with the settings of the given one that compaction
+     * needs, bound to the given job.
+     */
+    private static Plot bind(Plot p, Job<?, ?> job) {
+        Plot plot = new Plot(
+                p.getTitle(),
+                null,
+                null,
+                p.getNumBuilds(),
+                p.csvFileName,
+                null,
+                false,
+                p.getKeepRecords(),
+                false,
+                false,
+                null,
+                null,
+                null);
+        plot.setJob(job);
+        return plot;
+    }
+
+    /**
+     * Returns the rows of a plot file that should be kept.
+     */
+    static List<String[]> compact(Plot plot, List<String[]> rows, long now) {
+        long minTimestamp = MAX_AGE_DAYS > 0 ? now - TimeUnit.DAYS.toMillis(MAX_AGE_DAYS) : Long.MIN_VALUE;
+        List<String[]> kept = new ArrayList<>(rows.size());
+        for (String[] row : rows) {
+            int buildNumber;
+            try {
+                buildNumber = Integer.parseInt(row[2]);
+                Double.parseDouble(row[0]);
+            } catch (NumberFormatException e) {
+                // the chart skips it anyway
+                continue;
+            }
+            if (!plot.reportBuild(buildNumber) || recordedBefore(row, minTimestamp)) {
+                continue;
+            }
+            kept.add(row);
+        }
+        return keepNewest(kept, MAX_ROWS);
+    }
+
+    private static boolean recordedBefore(String[] row, long minTimestamp) {
+        if (minTimestamp == Long.MIN_VALUE) {
+            return false;
+        }
+        try {
+            return Long.parseLong(row[3]) < minTimestamp;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Keeps the rows of the newest builds that fit in {@code maxRows}, but
+     * always the rows of the newest build.
+     */
+    static List<String[]> keepNewest(List<String[]> rows, int maxRows) {
+        if (maxRows <= 0 || rows.size() <= maxRows) {
+            return rows;
+        }
+        Map<Integer, Integer> rowsPerBuild = new TreeMap<>(Collections.reverseOrder());
+        for (String[] row : rows) {
+            rowsPerBuild.merge(Integer.parseInt(row[2]), 1, Integer::sum);
+        }
+        int count = 0;
+        int oldestBuild = Integer.MAX_VALUE;
+        for (Map.Entry<Integer, Integer> entry : rowsPerBuild.entrySet()) {
+            if (count > 0 && count + entry.getValue() > maxRows) {
+                break;
+            }
+            count += entry.getValue();
+            oldestBuild = entry.getKey();
+        }
+        List<String[]> newest = new ArrayList<>(count);
+        for (String[] row : rows) {
+            if (Integer.parseInt(row[2]) >= oldestBuild) {
+                newest.add(row);
+            }
+        }
+        return newest;
+    }
+}
@@ -0,0 +1,333 @@
+package hudson.plugins.plot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The rows of a plot file, kept outside of the heap in direct buffers,
+ * encoded column by column (see {@link PlotColumns}) in chunks of up to
+ * {@link #CHUNK_ROWS} rows.
+ * <p>
+ * Only the rows that are read become objects on the heap, and reading the
+ * builds a chart shows only decodes the chunks that have some of them. The
+ * rows of a file go to a {@link Builder} as they are parsed, so there is at
+ * most a chunk of them on the heap at a time.
+ * <p>
+ * A history is immutable: appending rows returns a new history that shares
+ * all the chunks but the last one. The buffer of the last chunk has room for
+ * the rows of the next builds, which are encoded on their own after the rows
+ * already in it, so an append neither decodes nor copies these rows. The
+ * chunk is only encoded again as a whole once it is full.
+ */
+final class PlotHistory {
+    /**
+     * The most rows in a chunk.
+     */
+    static final int CHUNK_ROWS = 1024;
+
+    /**
+     * The least bytes of the buffer of a chunk that isn't full.
+     */
+    private static final int MIN_ROOM = 256;
+
+    private static final PlotHistory EMPTY = new PlotHistory(Collections.emptyList());
+
+    private final List<Chunk> chunks;
+
+    /**
+     * The number of bytes of the buffers of the chunks.
+     */
+    private final long size;
+
+    private PlotHistory(List<Chunk> chunks) {
+        this.chunks = chunks;
+        long bytes = 0;
+        for (Chunk chunk : chunks) {
+            bytes += chunk.buffer.bytes.capacity();
+        }
+        size = bytes;
+    }
+
+    /**
+     * Returns the history of the given rows, which must have at least the
+     * value, label and build number fields.
+     */
+    static PlotHistory of(List<String[]> rows) {
+        Builder builder = new Builder();
+        for (String[] row : rows) {
+            builder.add(row);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Encodes rows into chunks as they are added.
+     */
+    static final class Builder {
+        private final List<Chunk> chunks = new ArrayList<>();
+        private final List<String[]> pending = new ArrayList<>();
+        private long size;
+
+        /**
+         * Adds a row after the ones added before, see {@link #of(List)}.
+         */
+        void add(String[] row) {
+            pending.add(row);
+            if (pending.size() == CHUNK_ROWS) {
+                Chunk chunk = Chunk.of(pending);
+                chunks.add(chunk);
+                size += chunk.buffer.bytes.capacity();
+                pending.clear();
+            }
+        }
+
+        /**
+         * Returns the number of bytes of the chunks encoded so far.
+         */
+        long size() {
+            return size;
+        }
+
+        /**
+         * Returns the history of the rows added so far.
+         */
+        PlotHistory build() {
+            if (!pending.isEmpty()) {
+                Chunk chunk = Chunk.of(pending);
+                chunks.add(chunk);
+                size += chunk.buffer.bytes.capacity();
+                pending.clear();
+            }
+            return chunks.isEmpty() ? EMPTY : new PlotHistory(Collections.unmodifiableList(new ArrayList<>(chunks)));
+        }
+    }
+
+    /**
+     * A direct buffer shared by the versions of a chunk, each of which only
+     * reads the bytes written up to its own end. Bytes are only ever written
+     * after the last ones, so they never change what a chunk reads.
+     */
+    private static final class Buffer {
+        private final ByteBuffer bytes;
+
+        /**
+         * The number of bytes written, guarded by the buffer.
+         */
+        private int end;
+
+        Buffer(int capacity) {
+            bytes = ByteBuffer.allocateDirect(capacity);
+        }
+
+        /**
+         * Writes an encoded segment of rows, preceded by its length, at the
+         * given position if that is where the bytes written so far end and
+         * the segment fits.
+         *
+         * @return false if the segment was not written
+         */
+        synchronized boolean write(int position, byte[] segment) {
+            if (position != end || bytes.capacity() - position < Integer.BYTES + segment.length) {
+                return false;
+            }
+            bytes.putInt(position, segment.length);
+            bytes.put(position + Integer.BYTES, segment);
+            end = position + Integer.BYTES + segment.length;
+            return true;
+        }
+
+        /**
+         * Copies the first bytes of another buffer into this one, which is
+         * still empty.
+         */
+        synchronized void copy(Buffer other, int length) {
+            bytes.put(0, other.bytes, 0, length);
+            end = length;
+        }
+    }
+
+    private static final class Chunk {
+        private final Buffer buffer;
+
+        /**
+         * The number of bytes of the buffer that belong to the chunk.
+         */
+        private final int length;
+
+        private final int rows;
+        private final int minBuild;
+        private final int maxBuild;
+
+        /**
+         * Whether some of the rows have a build number that isn't a number.
+         */
+        private final boolean invalidBuilds;
+
+        /**
+         * Creates a chunk with the given rows after those of the previous
+         * version of the chunk, if any.
+         */
+        private Chunk(Buffer buffer, int length, Chunk previous, List<String[]> added) {
+            this.buffer = buffer;
+            this.length = length;
+            int min = previous != null ? previous.minBuild : Integer.MAX_VALUE;
+            int max = previous != null ? previous.maxBuild : Integer.MIN_VALUE;
+            boolean invalid = previous != null && previous.invalidBuilds;
+            for (String[] row : added) {
+                if (PlotValues.isInteger(row[2])) {
+                    int build = Integer.parseInt(row[2]);
+                    min = Math.min(min, build);
+                    max = Math.max(max, build);
+                } else {
+                    invalid = true;
+                }
+            }
+            rows = (previous != null ? previous.rows : 0) + added.size();
+            minBuild = min;
+            maxBuild = max;
+            invalidBuilds = invalid;
+        }
+
+        /**
+         * Returns a chunk of the given rows, with room for more if it isn't
+         * full.
+         */
+        static Chunk of(List<String[]> rows) {
+            byte[] segment = PlotColumns.encode(rows);
+            int length = Integer.BYTES + segment.length;
+            Buffer buffer = new Buffer(rows.size() < CHUNK_ROWS ? Math.max(2 * length, MIN_ROOM) : length);
+            buffer.write(0, segment);
+            return new Chunk(buffer, length, null, rows);
+        }
+
+        /**
+         * Returns the chunk with the given rows after its own. They must fit
+         * in the chunk.
+         */
+        Chunk append(List<String[]> added) {
+            if (rows + added.size() == CHUNK_ROWS) {
+                // a full chunk takes less space encoded as a whole, and
+                // doesn't need room for more rows
+                List<String[]> all = decode(new HashMap<>());
+                all.addAll(added);
+                return of(all);
+            }
+            byte[] segment = PlotColumns.encode(added);
+            int next = length + Integer.BYTES + segment.length;
+            Buffer target = buffer;
+            if (!buffer.write(length, segment)) {
+                // no room left, or a previous version of the chunk was
+                // already appended to
+                target = new Buffer(Math.max(2 * next, MIN_ROOM));
+                target.copy(buffer, length);
+                target.write(length, segment);
+            }
+            return new Chunk(target, next, this, added);
+        }
+
+        /**
+         * Returns whether the chunk may have rows to read for the given
+         * builds.
+         */
+        boolean overlaps(int fromBuild, int toBuild) {
+            return invalidBuilds || (minBuild <= toBuild && maxBuild >= fromBuild);
+        }
+
+        List<String[]> decode(Map<String, String> shared) {
+            List<String[]> decoded = new ArrayList<>(rows);
+            int position = 0;
+            while (position < length) {
+                byte[] segment = new byte[buffer.bytes.getInt(position)];
+                buffer.bytes.get(position + Integer.BYTES, segment);
+                try {
+                    decoded.addAll(PlotColumns.decode(
+                            segment, segment.length, field -> shared.computeIfAbsent(field, f -> f)));
+                } catch (IOException e) {
+                    throw new IllegalStateException("Corrupt plot history", e);
+                }
+                position += Integer.BYTES + segment.length;
+            }
+            return decoded;
+        }
+    }
+
+    /**
+     * Returns a history with the given rows after those of this one.
+     */
+    PlotHistory append(List<String[]> rows) {
+        if (rows.isEmpty()) {
+            return this;
+        }
+        List<Chunk> next = new ArrayList<>(chunks);
+        int from = 0;
+        if (!next.isEmpty() && next.get(next.size() - 1).rows < CHUNK_ROWS) {
+            // the rows of a build go to the last chunk until it is full
+            Chunk last = next.get(next.size() - 1);
+            from = Math.min(rows.size(), CHUNK_ROWS - last.rows);
+            next.set(next.size() - 1, last.append(rows.subList(0, from)));
+        }
+        for (; from < rows.size(); from += CHUNK_ROWS) {
+            next.add(Chunk.of(rows.subList(from, Math.min(rows.size(), from + CHUNK_ROWS))));
+        }
+        return new PlotHistory(Collections.unmodifiableList(next));
+    }
+
+    /**
+     * Returns all the rows, in order.
+     */
+    List<String[]> read() {
+        return read(Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the rows of the builds in the given range, in order. The rows
+     * whose build number isn't a number are returned as well, so that they
+     * can be reported.
+     */
+    List<String[]> read(int fromBuild, int toBuild) {
+        boolean all = fromBuild == Integer.MIN_VALUE && toBuild == Integer.MAX_VALUE;
+        // the fields other than the value are shared between the rows
+        Map<String, String> shared = new HashMap<>();
+        List<String[]> rows = new ArrayList<>();
+        for (Chunk chunk : chunks) {
+            if (!chunk.overlaps(fromBuild, toBuild)) {
+                continue;
+            }
+            for (String[] row : chunk.decode(shared)) {
+                if (all || isInRange(row[2], fromBuild, toBuild)) {
+                    rows.add(row);
+                }
+            }
+        }
+        return Collections.unmodifiableList(rows);
+    }
+
+    /**
+     * Returns whether a row with the given build number is read for the
+     * given builds, see {@link #read(int, int)}.
+     */
+    static boolean isInRange(String build, int fromBuild, int toBuild) {
+        if (!PlotValues.isInteger(build)) {
+            return true;
+        }
+        int buildNumber = Integer.parseInt(build);
+        return buildNumber >= fromBuild && buildNumber <= toBuild;
+    }
+
+    /**
+     * Returns the number of bytes the history takes outside of the heap,
+     * including the room left in the last chunk.
+     */
+    long size() {
+        return size;
+    }
+
+    int getChunkCount() {
+        return chunks.size();
+    }
+}
@@ -0,0 +1,96 @@
+package hudson.plugins.plot;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+import jenkins.util.SystemProperties;
+
+/**
+ * The {@link PlotHistory histories} of the plot files read or written lately,
+ * keyed by plot file and generation, see {@link PlotStore}.
+ * <p>
+ * Only the newest generation of a file is kept, and the histories take at
+ * most {@link #MAX_BYTES} outside of the heap: the least recently used ones
+ * are dropped first, and read again from their file when they are needed.
+ */
+final class PlotHistoryCache {
+    /**
+     * The most bytes of the cached histories. A history larger than this is
+     * not cached, so its file is read each time. Not final so it can be
+     * changed from the script console.
+     */
+    static long MAX_BYTES =
+            SystemProperties.getLong(PlotHistoryCache.class.getName() + ".maxBytes", 256L * 1024 * 1024);
+
+    /**
+     * The cached histories, least recently used first, guarded by the class.
+     */
+    private static final Map<File, Entry> ENTRIES = new LinkedHashMap<>(16, 0.75f, true);
+
+    private static long bytes;
+
+    private PlotHistoryCache() {}
+
+    private static final class Entry {
+        private final long generation;
+        private final PlotHistory history;
+
+        Entry(long generation, PlotHistory history) {
+            this.generation = generation;
+            this.history = history;
+        }
+    }
+
+    /**
+     * Caches the history of a generation of a file, in place of any other
+     * generation of the file.
+     */
+    static synchronized void put(File file, long generation, PlotHistory history) {
+        Entry previous = ENTRIES.remove(file);
+        if (previous != null) {
+            bytes -= previous.history.size();
+        }
+        if (history.size() <= MAX_BYTES) {
+            ENTRIES.put(file, new Entry(generation, history));
+            bytes += history.size();
+        }
+        Iterator<Entry> eldest = ENTRIES.values().iterator();
+        while (bytes > MAX_BYTES && eldest.hasNext()) {
+            // the new entry comes last, and fits once the others are gone
+            bytes -= eldest.next().history.size();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Returns the history of a generation of a file, null if it isn't cached.
+     */
+    static synchronized PlotHistory get(File file, long generation) {
+        Entry entry = ENTRIES.get(file);
+        return entry != null && entry.generation == generation ? entry.history : null;
+    }
+
+    /**
+     * Drops the histories of the plot files of the jobs whose directory
+     * matches.
+     */
+    static synchronized void forget(Predicate<File> jobDir) {
+        Iterator<Map.Entry<File, Entry>> entries = ENTRIES.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<File, Entry> entry = entries.next();
+            if (jobDir.test(entry.getKey().getAbsoluteFile().getParentFile())) {
+                bytes -= entry.getValue().history.size();
+                entries.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes of the cached histories.
+     */
+    static synchronized long getBytes() {
+        return bytes;
+    }
+}
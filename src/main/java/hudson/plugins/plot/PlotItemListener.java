@@ -0,0 +1,36 @@
+package hudson.plugins.plot;
+
+import hudson.Extension;
+import hudson.model.Item;
+import hudson.model.listeners.ItemListener;
+import java.io.File;
+import java.nio.file.Path;
+import java.util.function.Predicate;
+
+/**
+ * Drops what is kept in memory for the plot files of jobs that are deleted or
+ * moved, so it doesn't stay around until Jenkins restarts.
+ */
+@Extension
+public class PlotItemListener extends ItemListener {
+    @Override
+    public void onDeleted(Item item) {
+        // a folder takes the jobs in it along
+        Path dir = item.getRootDir().getAbsoluteFile().toPath();
+        forget(jobDir -> jobDir.toPath().startsWith(dir));
+    }
+
+    @Override
+    public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+        // the old directory of the item, and of the jobs in it, is gone
+        forget(jobDir -> !jobDir.isDirectory());
+    }
+
+    static void forget(Predicate<File> jobDir) {
+        PlotStore.forget(jobDir);
+        BuildLabels.forget(jobDir);
+        PlotTombstones.forget(jobDir);
+        PlotCompaction.forget(jobDir);
+        Series.forget(jobDir);
+    }
+}
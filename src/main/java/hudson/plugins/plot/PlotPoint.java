@@ -16,6 +16,20 @@ public class PlotPoint {
      */
     private String url;
 
+    /**
+     * The template the url is rendered from when it is first asked for, null
+     * if the url was given.
+     */
+    private transient UrlTemplate urlTemplate;
+
+    /**
+     * The label, column index and build number the url is rendered with.
+     */
+    private transient String urlName;
+
+    private transient int urlIndex;
+    private transient int urlBuildNumber;
+
     /**
      * Label for a plot point
      */
@@ -34,6 +48,25 @@ public class PlotPoint {
         this.label = label;
     }
 
+    /**
+     * Creates a point whose url is rendered from a template when it is needed.
+     *
+     * @param urlTemplate the url template of the series, null for no url
+     * @param urlName     the label the url is rendered with
+     * @param urlIndex    the column index the url is rendered with
+     * @param buildNumber the build number the url is rendered with
+     */
+    PlotPoint(String yvalue, UrlTemplate urlTemplate, String urlName, int urlIndex, int buildNumber, String label) {
+        this(yvalue, urlTemplate == null ? null : urlTemplate.getTemplate(), label);
+        if (urlTemplate != null && !urlTemplate.isLiteral()) {
+            this.url = null;
+            this.urlTemplate = urlTemplate;
+            this.urlName = urlName;
+            this.urlIndex = urlIndex;
+            this.urlBuildNumber = buildNumber;
+        }
+    }
+
     /**
      * @return the yvalue for this point.
      */
@@ -52,14 +85,35 @@ public class PlotPoint {
      * @return url for this point.
      */
     public String getUrl() {
+        if (url == null && urlTemplate != null) {
+            url = urlTemplate.render(urlName, urlIndex, urlBuildNumber);
+        }
         return url;
     }
 
+    /**
+     * Returns the template the url is rendered from, or null if the url was
+     * given as it is.
+     */
+    UrlTemplate getUrlTemplate() {
+        return urlTemplate;
+    }
+
+    String getUrlName() {
+        return urlName;
+    }
+
+    int getUrlIndex() {
+        return urlIndex;
+    }
+
     /**
      * @param url set the url for this point.
      */
     public void setUrl(String url) {
         this.url = url;
+        this.urlTemplate = null;
+        this.urlName = null;
     }
 
     /**
@@ -78,6 +132,6 @@ public class PlotPoint {
 
     @Override
     public String toString() {
-        return label + " " + url + " " + yvalue;
+        return label + " " + getUrl() + " " + yvalue;
     }
 }
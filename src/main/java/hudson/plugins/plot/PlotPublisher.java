@@ -146,9 +146,14 @@ public class PlotPublisher extends AbstractPlotPublisher {
 
     private void recordPlotData(Run<?, ?> build, TaskListener listener) {
         listener.getLogger().println("Recording plot data");
-        // add the build to each plot
-        for (Plot plot : getPlots()) {
-            plot.addBuild((AbstractBuild<?, ?>) build, listener.getLogger());
+        // add the build to each plot, the plots reading the same files share
+        // their content
+        AbstractBuild<?, ?> abstractBuild = (AbstractBuild<?, ?>) build;
+        try (SharedExtraction shared = SharedExtraction.open(
+                abstractBuild.getWorkspace(), build.getNumber(), build.getParent().getRootDir())) {
+            for (Plot plot : getPlots()) {
+                plot.addBuild(abstractBuild, listener.getLogger());
+            }
         }
     }
 
@@ -0,0 +1,24 @@
+package hudson.plugins.plot;
+
+import hudson.Extension;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.listeners.RunListener;
+
+/**
+ * Marks deleted builds in the plot files of their job, so the plots stop
+ * showing them right away.
+ *
+ * @see PlotTombstones
+ */
+@Extension
+public class PlotRunListener extends RunListener<Run<?, ?>> {
+    @Override
+    public void onDeleted(Run<?, ?> run) {
+        Job<?, ?> job = run.getParent();
+        // called for each build log rotation deletes, so no build is loaded
+        if (PlotCompaction.hasPlotFiles(job)) {
+            PlotTombstones.of(job).add(run.getNumber());
+        }
+    }
+}
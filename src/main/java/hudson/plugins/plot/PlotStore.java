@@ -0,0 +1,1002 @@
+package hudson.plugins.plot;
+
+import com.opencsv.CSVWriter;
+import hudson.util.AtomicFileWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.util.SystemProperties;
+
+/**
+ * The CSV file that persists the data of a plot, with a single writer per
+ * file.
+ * <p>
+ * Builds finishing at the same time append their rows through
+ * {@link #append(String, List)}: whichever build gets to write first also
+ * writes the rows queued by the others, so a build storm results in a few
+ * append-and-fsync cycles instead of one full rewrite per build, and no build
+ * can overwrite the rows of another one.
+ * <p>
+ * The file is never truncated in place: rewrites go to a temporary file that
+ * replaces the plot file atomically, and readers ignore a trailing row that is
+ * still being appended. Readers share an immutable snapshot of the file that
+ * is republished after each write, so they never wait for a writer.
+ * <p>
+ * The rows of a snapshot aren't kept on the heap: they are cached outside of
+ * it, by file and generation of the snapshot, in {@link PlotHistoryCache},
+ * and only become objects while they are read. They go to the cache as they
+ * are parsed, a write appends its rows to the cached ones, and rows that are
+ * no longer cached are read again from the file. When the rows of a file are
+ * too many to be cached, the file is read each time, and only the rows of the
+ * builds that are asked for are kept.
+ * <p>
+ * A plain file has the series labels and the URLs of the rows as they are
+ * rendered, like older versions and other tools expect them, and its fields
+ * are never taken for references. In a compressed file, which no version
+ * before compression reads anyway, the series labels and the URL templates
+ * of the rows (see {@link PlotUrl}) are stored once, each in a row that only
+ * has the label or the template and comes before the first row using it.
+ * Rows refer to them by their position among these rows. Either way, all the
+ * rows of a label share the same String once the file is read.
+ * <p>
+ * Optionally, new files are written compressed, in blocks of whole builds
+ * (see {@link PlotBlocks}), with each append adding a block. The rows of a
+ * block are encoded column by column (see {@link PlotColumns}), unless CSV
+ * text blocks are configured. Files keep their format when rows are
+ * appended, and get the configured one when they are rewritten, so existing
+ * plain files are compressed by the next {@link PlotCompaction}.
+ */
+final class PlotStore {
+    private static final Logger LOGGER = Logger.getLogger(PlotStore.class.getName());
+
+    private static final ConcurrentMap<File, PlotStore> STORES = new ConcurrentHashMap<>();
+
+    private static final AtomicLong GENERATIONS = new AtomicLong();
+
+    /**
+     * The values of the rows of a compressed file that hold a series label or
+     * a URL template. They have no build number, so they can't be taken for
+     * the row of a build.
+     */
+    private static final String LABEL_ROW = "%label";
+
+    private static final String TEMPLATE_ROW = "%url";
+
+    /**
+     * Whether new files are written compressed, and existing ones when they
+     * are rewritten. Not final so it can be changed from the script console.
+     */
+    static boolean COMPRESS = SystemProperties.getBoolean(PlotStore.class.getName() + ".compress", false);
+
+    /**
+     * Whether the blocks of compressed files hold encoded rows rather than
+     * CSV text, which can be read with {@code zcat} but is several times
+     * larger. Not final so it can be changed from the script console.
+     */
+    static boolean COLUMNS = SystemProperties.getBoolean(PlotStore.class.getName() + ".columns", true);
+
+    /**
+     * A compressed file with more blocks than this, that are on average
+     * smaller than {@link #MIN_BLOCK_LENGTH}, is rewritten into fewer larger
+     * blocks even if none of its rows are dropped.
+     */
+    private static final int MAX_SMALL_BLOCKS = 64;
+
+    private static final int MIN_BLOCK_LENGTH = 4096;
+
+    /**
+     * Plain files at least this long are mapped and their rows parsed in
+     * place, instead of being read into memory first. Not final so it can be
+     * changed from the script console.
+     */
+    static long MIN_MAPPED_LENGTH =
+            SystemProperties.getLong(PlotStore.class.getName() + ".minMappedLength", 1024L * 1024);
+
+    /**
+     * Windows doesn't let a mapped file be replaced until the mapping is
+     * garbage collected, which would make rewrites fail, so files are never
+     * mapped there.
+     */
+    private static final boolean MAPPABLE =
+            File.pathSeparatorChar != ';' && MappedCSVParser.supports(Charset.defaultCharset());
+
+    private final File file;
+
+    /**
+     * Held while writing the file, there is only ever one writer per file.
+     */
+    private final Object writeLock = new Object();
+
+    /**
+     * Rows waiting to be appended, guarded by itself.
+     */
+    private final List<Batch> pending = new ArrayList<>();
+
+    /**
+     * The file as of the last read or write, replaced as a whole.
+     */
+    private volatile Snapshot snapshot;
+
+    /**
+     * The number of bytes the rows of the file took when they last didn't
+     * fit in the {@link PlotHistoryCache}, 0 if they did. While they still
+     * don't, only the rows of the builds that are read are kept when the
+     * file is read.
+     */
+    private volatile long uncachedBytes;
+
+    private PlotStore(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns the store of the given plot file.
+     */
+    static PlotStore of(File file) {
+        return STORES.computeIfAbsent(file.getAbsoluteFile(), PlotStore::new);
+    }
+
+    /**
+     * Drops the stores of the plot files of the jobs whose directory matches, once they were
+     * deleted or moved, see {@link PlotItemListener}.
+     */
+    static void forget(Predicate<File> jobDir) {
+        STORES.keySet().removeIf(file -> jobDir.test(file.getParentFile()));
+        PlotHistoryCache.forget(jobDir);
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Immutable view of the complete rows of the file at a given length,
+     * whose rows are cached by its generation.
+     */
+    private static final class Snapshot {
+        private final long length;
+        private final long lastModified;
+        private final Dictionary dictionary;
+        private final boolean compressed;
+
+        /**
+         * The number of blocks of a compressed file, which grows by one with
+         * each append.
+         */
+        private final int blocks;
+
+        /**
+         * The number of those blocks that hold encoded rows.
+         */
+        private final int columnBlocks;
+
+        private final long generation = GENERATIONS.incrementAndGet();
+
+        /**
+         * Whether the rows whose value isn't a number were logged.
+         */
+        private volatile boolean invalidReported;
+
+        Snapshot(
+                long length,
+                long lastModified,
+                Dictionary dictionary,
+                boolean compressed,
+                int blocks,
+                int columnBlocks) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.dictionary = dictionary;
+            this.compressed = compressed;
+            this.blocks = blocks;
+            this.columnBlocks = columnBlocks;
+        }
+
+        /**
+         * Returns whether the file is entirely in the given format.
+         */
+        boolean hasFormat(boolean compressed, boolean columns) {
+            return this.compressed == compressed && (!compressed || columnBlocks == (columns ? blocks : 0));
+        }
+
+        /**
+         * Returns whether a compressed file has many small blocks, appended by
+         * builds, that would compress better as fewer larger ones.
+         */
+        boolean isFragmented() {
+            return compressed && blocks > MAX_SMALL_BLOCKS && length / blocks < MIN_BLOCK_LENGTH;
+        }
+
+        boolean isCurrent(File file) {
+            return length == file.length() && lastModified == file.lastModified();
+        }
+    }
+
+    /**
+     * A snapshot with its rows, read from the file or from the cache.
+     */
+    private static final class Loaded {
+        private final Snapshot snapshot;
+
+        /**
+         * The rows, null if they are too many to be cached.
+         */
+        private final PlotHistory history;
+
+        /**
+         * The rows of the builds that were read, if there is no history.
+         */
+        private final List<String[]> rows;
+
+        Loaded(Snapshot snapshot, PlotHistory history, List<String[]> rows) {
+            this.snapshot = snapshot;
+            this.history = history;
+            this.rows = rows;
+        }
+
+        /**
+         * Returns the rows of the given builds, which must be the ones that
+         * were read if there is no history.
+         */
+        List<String[]> read(int fromBuild, int toBuild) {
+            return history != null ? history.read(fromBuild, toBuild) : rows;
+        }
+    }
+
+    /**
+     * The series labels and URL templates stored in a file, in the order they
+     * were written. Only changed while the file is written, and copied for
+     * each write.
+     */
+    private static final class Dictionary {
+        private final List<String> labels = new ArrayList<>();
+        private final List<String> templates = new ArrayList<>();
+        private final Map<String, Integer> labelIds = new HashMap<>();
+        private final Map<String, Integer> templateIds = new HashMap<>();
+
+        Dictionary copy() {
+            Dictionary copy = new Dictionary();
+            for (String label : labels) {
+                copy.addLabel(label);
+            }
+            for (String template : templates) {
+                copy.addTemplate(template);
+            }
+            return copy;
+        }
+
+        void addLabel(String label) {
+            labelIds.putIfAbsent(label, labels.size());
+            labels.add(label);
+        }
+
+        void addTemplate(String template) {
+            templateIds.putIfAbsent(template, templates.size());
+            templates.add(template);
+        }
+
+        /**
+         * Returns the label or template a field refers to, or null if there is
+         * no such entry.
+         */
+        static String get(List<String> entries, String id) {
+            try {
+                int index = Integer.parseInt(id);
+                return index >= 0 && index < entries.size() ? entries.get(index) : null;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * The records written to a file at once, as CSV text or, in a compressed
+     * file, possibly as encoded rows.
+     */
+    private static final class Block {
+        private final boolean compressed;
+        private final boolean columns;
+        private final StringWriter text = new StringWriter();
+        private final CSVWriter writer = new CSVWriter(text);
+        private final List<String[]> records = new ArrayList<>();
+
+        Block(boolean compressed, boolean columns) {
+            this.compressed = compressed;
+            this.columns = compressed && columns;
+        }
+
+        void add(String[] record) {
+            if (columns) {
+                records.add(record);
+            } else {
+                writer.writeNext(record);
+            }
+        }
+
+        boolean isEmpty() throws IOException {
+            writer.flush();
+            return records.isEmpty() && text.getBuffer().length() == 0;
+        }
+
+        /**
+         * Returns whether the block is large enough to be cut.
+         */
+        boolean isFull() throws IOException {
+            if (columns) {
+                return records.size() >= PlotColumns.BLOCK_ROWS;
+            }
+            writer.flush();
+            return text.getBuffer().length() >= PlotBlocks.BLOCK_SIZE;
+        }
+
+        /**
+         * Returns the content of the block as it is written to the file, and
+         * empties it.
+         */
+        byte[] finish() throws IOException {
+            byte[] data;
+            if (columns) {
+                data = PlotColumns.encode(records);
+                records.clear();
+            } else {
+                writer.flush();
+                data = text.toString().getBytes(Charset.defaultCharset());
+                text.getBuffer().setLength(0);
+            }
+            return compressed ? PlotBlocks.encode(data, 0, data.length, columns) : data;
+        }
+    }
+
+    /**
+     * Rows appended by one build.
+     */
+    private static final class Batch {
+        private final String title;
+        private final List<String[]> rows;
+        private boolean written;
+        private IOException failure;
+
+        Batch(String title, List<String[]> rows) {
+            this.title = title;
+            this.rows = rows;
+        }
+    }
+
+    /**
+     * Appends rows to the end of the file and waits until they are on disk.
+     * Rows queued by other threads in the meantime are written in the same
+     * append.
+     *
+     * @param title the plot title, written to the header of a new file
+     * @param rows  rows in the plot CSV format
+     * @throws IOException if the rows could not be written
+     */
+    void append(String title, List<String[]> rows) throws IOException {
+        Batch batch = new Batch(title, rows);
+        synchronized (pending) {
+            pending.add(batch);
+        }
+        synchronized (writeLock) {
+            if (!batch.written) {
+                // this thread writes everything that has been queued so far
+                List<Batch> group;
+                synchronized (pending) {
+                    group = new ArrayList<>(pending);
+                    pending.clear();
+                }
+                IOException failure = null;
+                try {
+                    write(group);
+                } catch (IOException e) {
+                    failure = e;
+                }
+                for (Batch b : group) {
+                    b.failure = failure;
+                    b.written = true;
+                }
+            }
+            if (batch.failure != null) {
+                throw batch.failure;
+            }
+        }
+    }
+
+    private void write(List<Batch> group) throws IOException {
+        Snapshot previous = snapshot;
+        // null if the rows are no longer cached, then they are read again
+        // from the file when they are needed
+        PlotHistory history = previous != null ? PlotHistoryCache.get(file, previous.generation) : null;
+        if (previous == null || !previous.isCurrent(file)) {
+            // the templates already in the file are needed to write the rows,
+            // the rows themselves aren't
+            Loaded loaded = load(Integer.MAX_VALUE, Integer.MIN_VALUE);
+            previous = loaded.snapshot;
+            history = loaded.history;
+        }
+        List<String[]> rows = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(
+                file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            boolean compressed = size == 0 ? COMPRESS : previous.compressed;
+            // the blocks of a compressed file were checked when it was read
+            long complete = compressed ? previous.length : completeLength(channel, size);
+            if (complete < size) {
+                // the last append was interrupted, drop the partial row
+                // rather than glue the next one to it
+                LOGGER.log(Level.WARNING, "Discarding incomplete row at the end of plot file " + file);
+                channel.truncate(complete);
+                size = complete;
+            }
+            Block block = new Block(compressed, COLUMNS);
+            Dictionary dictionary = null;
+            if (size == 0) {
+                writeHeader(block::add, group.get(0).title);
+                history = PlotHistory.of(rows);
+                dictionary = compressed ? new Dictionary() : null;
+            } else if (compressed) {
+                dictionary = previous.dictionary.copy();
+            }
+            for (Batch batch : group) {
+                for (String[] row : batch.rows) {
+                    rows.add(writeRow(block::add, row, dictionary));
+                }
+            }
+            ByteBuffer bytes = ByteBuffer.wrap(block.finish());
+            long position = size;
+            while (bytes.hasRemaining()) {
+                position += channel.write(bytes, position);
+            }
+            channel.force(false);
+            int blocks = compressed ? (size == 0 ? 0 : previous.blocks) + 1 : 0;
+            int columnBlocks = (size == 0 ? 0 : previous.columnBlocks) + (block.columns ? 1 : 0);
+            Snapshot written =
+                    new Snapshot(position, file.lastModified(), dictionary, compressed, blocks, columnBlocks);
+            if (history != null) {
+                cache(written, history.append(rows));
+            }
+            snapshot = written;
+        }
+    }
+
+    /**
+     * Writes a row. In a compressed file, it is preceded by the rows of its
+     * label and URL template if they aren't in the file yet, and refers to
+     * them. A plain file has the label and the URL as they are rendered.
+     *
+     * @param dictionary the labels and templates of a compressed file,
+     *                   updated with the new ones, null for a plain file
+     * @return the row as it is read back from the file
+     */
+    private static String[] writeRow(Consumer<String[]> writer, String[] row, Dictionary dictionary) {
+        String[] stored = row.clone();
+        if (dictionary == null) {
+            if (row.length >= 5) {
+                stored[4] = PlotUrl.expand(row[4], row[1], row[2]);
+            }
+            writer.accept(stored);
+            if (row.length < 5 || !PlotUrl.isReference(row[4])) {
+                return row;
+            }
+            // the URL of a template is read back rendered
+            String[] read = row.clone();
+            read[4] = PlotUrl.literal(stored[4]);
+            return read;
+        }
+        String label = row[1] != null ? row[1] : "";
+        Integer labelId = dictionary.labelIds.get(label);
+        if (labelId == null) {
+            labelId = dictionary.labels.size();
+            dictionary.addLabel(label);
+            writer.accept(new String[] {LABEL_ROW, label, "", "", ""});
+        }
+        stored[1] = "%" + labelId;
+        if (row.length >= 5 && PlotUrl.isReference(row[4])) {
+            String template = PlotUrl.getTemplate(row[4]);
+            Integer templateId = dictionary.templateIds.get(template);
+            if (templateId == null) {
+                templateId = dictionary.templates.size();
+                dictionary.addTemplate(template);
+                writer.accept(new String[] {TEMPLATE_ROW, "", "", "", template});
+            }
+            stored[4] = PlotUrl.reference(Integer.toString(templateId), PlotUrl.getIndex(row[4]));
+        }
+        writer.accept(stored);
+        return row;
+    }
+
+    /**
+     * Returns the length of the file without a trailing partial row.
+     */
+    private static long completeLength(FileChannel channel, long size) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(1024);
+        long end = size;
+        while (end > 0) {
+            long start = Math.max(0, end - chunk.capacity());
+            chunk.clear().limit((int) (end - start));
+            int read;
+            do {
+                read = channel.read(chunk, start + chunk.position());
+            } while (read >= 0 && chunk.hasRemaining());
+            for (int i = chunk.position() - 1; i >= 0; i--) {
+                if (chunk.get(i) == '\n') {
+                    return start + i + 1;
+                }
+            }
+            end = start;
+        }
+        return 0;
+    }
+
+    private static void writeHeader(Consumer<String[]> writer, String title) {
+        writer.accept(new String[] {Messages.Plot_Title(), title});
+        writer.accept(new String[] {
+            Messages.Plot_Value(),
+            Messages.Plot_SeriesLabel(),
+            Messages.Plot_BuildNumber(),
+            Messages.Plot_BuildDate(),
+            Messages.Plot_URL()
+        });
+    }
+
+    /**
+     * Returns all rows of the file, without the two header lines. Doesn't
+     * block while the file is written, a row that is only partially written
+     * is not returned.
+     *
+     * @return an unmodifiable list of the rows, empty if the file doesn't
+     * exist
+     */
+    List<String[]> read() {
+        Loaded current = current(Integer.MIN_VALUE, Integer.MAX_VALUE);
+        return current == null ? Collections.emptyList() : current.read(Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the rows of the file like {@link #read()}, with their values
+     * and build numbers parsed.
+     */
+    PlotValues readValues() {
+        return readValues(Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the rows of the builds in the given range, with their values
+     * and build numbers parsed. Only these rows are decoded, the others stay
+     * in the cache.
+     */
+    PlotValues readValues(int fromBuild, int toBuild) {
+        Loaded current = current(fromBuild, toBuild);
+        if (current == null) {
+            return PlotValues.of(Collections.emptyList());
+        }
+        PlotValues values = PlotValues.of(current.read(fromBuild, toBuild));
+        if (values.getInvalidCount() > 0 && !current.snapshot.invalidReported) {
+            current.snapshot.invalidReported = true;
+            LOGGER.log(
+                    Level.WARNING,
+                    "Ignoring {0} rows of {1} whose value or build number is not a number",
+                    new Object[] {values.getInvalidCount(), file});
+        }
+        return values;
+    }
+
+    /**
+     * Returns the snapshot of the file as it is now with its rows, or at
+     * least those of the given builds, null if the file can't be read.
+     */
+    private Loaded current(int fromBuild, int toBuild) {
+        Snapshot current = snapshot;
+        if (current != null && current.isCurrent(file)) {
+            PlotHistory history = PlotHistoryCache.get(file, current.generation);
+            if (history != null) {
+                return new Loaded(current, history, null);
+            }
+        }
+        Loaded loaded;
+        try {
+            loaded = load(fromBuild, toBuild);
+        } catch (IOException ioe) {
+            LOGGER.log(Level.SEVERE, "Exception reading plot file", ioe);
+            return null;
+        }
+        snapshot = loaded.snapshot;
+        return loaded;
+    }
+
+    /**
+     * Reads the complete lines of the file. The rows are parsed straight into
+     * a history, unless they are too many to be cached, then only the rows of
+     * the given builds are kept.
+     */
+    private Loaded load(int fromBuild, int toBuild) throws IOException {
+        long lastModified = file.lastModified();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (MAPPABLE && size >= MIN_MAPPED_LENGTH && size <= Integer.MAX_VALUE) {
+                // the pages are left to the page cache, and shared with any
+                // other reader of the file
+                MappedByteBuffer content = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                if (!PlotBlocks.isCompressed(content)) {
+                    return load(content, lastModified, new Loader(false, fromBuild, toBuild));
+                }
+            }
+            byte[] content = read(channel, size);
+            boolean compressed = PlotBlocks.isCompressed(content, content.length);
+            return load(content, lastModified, new Loader(compressed, fromBuild, toBuild));
+        } catch (NoSuchFileException e) {
+            return cache(new Snapshot(0, 0, null, false, 0, 0), new Loader(false, fromBuild, toBuild));
+        }
+    }
+
+    /**
+     * Reads the content of a file that is no longer than the given size.
+     */
+    private static byte[] read(FileChannel channel, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Plot file too large: " + size + " bytes");
+        }
+        ByteBuffer content = ByteBuffer.allocate((int) size);
+        while (content.hasRemaining() && channel.read(content) >= 0) {
+            // until the end of the file or of the buffer
+        }
+        return Arrays.copyOf(content.array(), content.position());
+    }
+
+    /**
+     * Parses the complete lines of a plain file in a buffer.
+     */
+    private Loaded load(ByteBuffer content, long lastModified, Loader loader) throws IOException {
+        // a row that doesn't end with a newline is still being appended
+        int length = content.limit();
+        while (length > 0 && content.get(length - 1) != '\n') {
+            length--;
+        }
+        new MappedCSVParser(content, Charset.defaultCharset()).parse(length, loader::add);
+        return cache(new Snapshot(length, lastModified, loader.dictionary, false, 0, 0), loader);
+    }
+
+    /**
+     * Parses the complete lines of a file.
+     */
+    private Loaded load(byte[] content, long lastModified, Loader loader) throws IOException {
+        boolean compressed = loader.dictionary != null;
+        int length;
+        int blocks = 0;
+        int columnBlocks = 0;
+        if (compressed) {
+            // so is a block that is only partially written
+            length = PlotBlocks.completeLength(content, content.length);
+            blocks = PlotBlocks.count(content, length);
+            columnBlocks = PlotBlocks.countColumns(content, length);
+            PlotBlocks.decode(content, length, (data, columns) -> {
+                if (columns) {
+                    for (String[] record : PlotColumns.decode(data, data.length, loader::intern)) {
+                        loader.add(record);
+                    }
+                } else {
+                    loader.read(data, data.length);
+                }
+            });
+        } else {
+            // a row that doesn't end with a newline is still being appended
+            length = content.length;
+            while (length > 0 && content[length - 1] != '\n') {
+                length--;
+            }
+            loader.read(content, length);
+        }
+        return cache(new Snapshot(length, lastModified, loader.dictionary, compressed, blocks, columnBlocks), loader);
+    }
+
+    /**
+     * Caches the rows a loader read, if they weren't too many.
+     */
+    private Loaded cache(Snapshot snapshot, Loader loader) {
+        PlotHistory history = loader.getHistory();
+        if (history == null) {
+            return new Loaded(snapshot, null, Collections.unmodifiableList(loader.rows));
+        }
+        cache(snapshot, history);
+        return new Loaded(snapshot, history, null);
+    }
+
+    /**
+     * Caches the rows of a snapshot, unless they are too many.
+     */
+    private void cache(Snapshot snapshot, PlotHistory history) {
+        uncachedBytes = history.size() > PlotHistoryCache.MAX_BYTES ? history.size() : 0;
+        PlotHistoryCache.put(file, snapshot.generation, history);
+    }
+
+    /**
+     * Turns the records of the file into rows, in the order they are in the
+     * file.
+     */
+    private final class Loader {
+        /**
+         * The most Strings kept for sharing between encoded rows, like
+         * {@link CSVTokenizer} does for CSV text.
+         */
+        private static final int MAX_INTERNED = 4096;
+
+        /**
+         * The labels and templates of a compressed file, null for a plain
+         * file, whose fields are the labels and URLs as they are rendered.
+         */
+        private final Dictionary dictionary;
+
+        private final int fromBuild;
+        private final int toBuild;
+
+        /**
+         * The rows read so far, null once they are too many to be cached.
+         */
+        private PlotHistory.Builder history;
+
+        /**
+         * The rows of the builds to read, once there is no history.
+         */
+        private List<String[]> rows;
+
+        /**
+         * The URL fields of the file mapped to those of the rows.
+         */
+        private final Map<String, String> urls = new HashMap<>();
+
+        private final Map<String, String> interned = new HashMap<>();
+
+        /**
+         * The number of header lines still to be skipped.
+         */
+        private int header = 2;
+
+        Loader(boolean compressed, int fromBuild, int toBuild) {
+            dictionary = compressed ? new Dictionary() : null;
+            this.fromBuild = fromBuild;
+            this.toBuild = toBuild;
+            if (uncachedBytes > PlotHistoryCache.MAX_BYTES) {
+                rows = new ArrayList<>();
+            } else {
+                history = new PlotHistory.Builder();
+            }
+        }
+
+        /**
+         * Reads the records of CSV text.
+         */
+        void read(byte[] data, int length) throws IOException {
+            try (CSVTokenizer tokenizer = new CSVTokenizer(
+                    new InputStreamReader(new ByteArrayInputStream(data, 0, length), Charset.defaultCharset()))) {
+                // apart from the value, the fields are the same for many rows,
+                // so the rows share their Strings
+                List<String> fields = new ArrayList<>();
+                while (tokenizer.nextRecord()) {
+                    fields.clear();
+                    while (tokenizer.nextField()) {
+                        fields.add(tokenizer.getColumn() == 0 ? tokenizer.getField() : tokenizer.getInternedField());
+                    }
+                    add(fields.toArray(new String[0]));
+                }
+            }
+        }
+
+        String intern(String field) {
+            String shared = interned.get(field);
+            if (shared != null) {
+                return shared;
+            }
+            if (interned.size() < MAX_INTERNED) {
+                interned.put(field, field);
+            }
+            return field;
+        }
+
+        void add(String[] fields) {
+            if (header > 0) {
+                header--;
+                return;
+            }
+            if (fields.length < 4) {
+                // left over from an append that was cut short
+                LOGGER.log(Level.WARNING, "Skipping incomplete row in plot file " + file);
+                return;
+            }
+            if (dictionary == null) {
+                if (fields.length >= 5) {
+                    fields[4] = PlotUrl.literal(fields[4]);
+                }
+                keep(fields);
+                return;
+            }
+            if (fields[2].isEmpty() && LABEL_ROW.equals(fields[0])) {
+                dictionary.addLabel(fields[1]);
+                return;
+            }
+            if (fields[2].isEmpty() && TEMPLATE_ROW.equals(fields[0]) && fields.length >= 5) {
+                dictionary.addTemplate(fields[4]);
+                return;
+            }
+            // every row of a compressed file refers to its label
+            String label = fields[1].startsWith("%") ? Dictionary.get(dictionary.labels, fields[1].substring(1)) : null;
+            if (label == null) {
+                LOGGER.log(Level.WARNING, "Unknown series label " + fields[1] + " in plot file " + file);
+            } else {
+                fields[1] = label;
+            }
+            if (fields.length >= 5 && PlotUrl.isReference(fields[4])) {
+                fields[4] = urls.computeIfAbsent(fields[4], u -> readReference(u, dictionary));
+            }
+            keep(fields);
+        }
+
+        private void keep(String[] row) {
+            if (history == null) {
+                if (PlotHistory.isInRange(row[2], fromBuild, toBuild)) {
+                    rows.add(row);
+                }
+                return;
+            }
+            history.add(row);
+            if (history.size() > PlotHistoryCache.MAX_BYTES) {
+                // too many to be cached, so only the rows to read are kept,
+                // and the next reads don't even try until they fit
+                uncachedBytes = history.size();
+                rows = new ArrayList<>(history.build().read(fromBuild, toBuild));
+                history = null;
+            }
+        }
+
+        /**
+         * Returns the rows that were read, null if they are too many to be
+         * cached.
+         */
+        PlotHistory getHistory() {
+            return history != null ? history.build() : null;
+        }
+    }
+
+    /**
+     * Returns the URL field of a row referring to one of the templates of the
+     * file, or the field as it is if there is no such template.
+     */
+    private String readReference(String url, Dictionary dictionary) {
+        String template = Dictionary.get(dictionary.templates, PlotUrl.getTemplate(url));
+        if (template == null) {
+            LOGGER.log(Level.WARNING, "Unknown URL template " + url + " in plot file " + file);
+            return url;
+        }
+        return PlotUrl.reference(template, PlotUrl.getIndex(url));
+    }
+
+    /**
+     * Replaces the content of the file. No rows can be appended while the
+     * file is rewritten, so none are lost. The new content is written to a
+     * temporary file first, so the file is never left half-written. The file
+     * is left untouched if the update doesn't change the number of rows and
+     * the file is already in the configured format.
+     *
+     * @param title  the plot title, written to the header
+     * @param update computes the new rows from the current ones
+     * @return the number of bytes the file shrank by
+     * @throws IOException if the file could not be written
+     */
+    long rewrite(String title, UnaryOperator<List<String[]>> update) throws IOException {
+        synchronized (writeLock) {
+            // a file that can't be read completely is not replaced
+            Loaded loaded = load(Integer.MIN_VALUE, Integer.MAX_VALUE);
+            Snapshot current = loaded.snapshot;
+            List<String[]> existing = loaded.read(Integer.MIN_VALUE, Integer.MAX_VALUE);
+            List<String[]> rows = new ArrayList<>(update.apply(existing));
+            boolean compressed = COMPRESS;
+            boolean columns = compressed && COLUMNS;
+            if (rows.size() == existing.size() && current.hasFormat(compressed, columns) && !current.isFragmented()) {
+                snapshot = current;
+                return 0;
+            }
+            long before = file.length();
+            // only the labels and templates still in use are written
+            Dictionary dictionary = compressed ? new Dictionary() : null;
+            List<String[]> written = rows;
+            int blocks = 0;
+            if (compressed) {
+                List<byte[]> content = compress(title, rows, dictionary, columns);
+                replace(content);
+                blocks = content.size();
+            } else {
+                AtomicFileWriter out = new AtomicFileWriter(file.toPath(), Charset.defaultCharset());
+                try {
+                    CSVWriter writer = new CSVWriter(out);
+                    writeHeader(writer::writeNext, title);
+                    written = new ArrayList<>(rows.size());
+                    for (String[] row : rows) {
+                        written.add(writeRow(writer::writeNext, row, null));
+                    }
+                    writer.flush();
+                    out.commit();
+                } finally {
+                    out.abort();
+                }
+            }
+            long after = file.length();
+            Snapshot replaced =
+                    new Snapshot(after, file.lastModified(), dictionary, compressed, blocks, columns ? blocks : 0);
+            cache(replaced, PlotHistory.of(written));
+            snapshot = replaced;
+            return before - after;
+        }
+    }
+
+    /**
+     * Returns the blocks of a compressed file with the given rows. A block
+     * is cut once it is large enough, at the next build.
+     *
+     * @param dictionary gets the labels and templates of the rows
+     * @param columns    whether the blocks hold encoded rows
+     */
+    private static List<byte[]> compress(String title, List<String[]> rows, Dictionary dictionary, boolean columns)
+            throws IOException {
+        List<byte[]> blocks = new ArrayList<>();
+        Block block = new Block(true, columns);
+        writeHeader(block::add, title);
+        String lastBuild = null;
+        for (String[] row : rows) {
+            if (block.isFull() && !row[2].equals(lastBuild)) {
+                blocks.add(block.finish());
+            }
+            writeRow(block::add, row, dictionary);
+            lastBuild = row[2];
+        }
+        if (!block.isEmpty()) {
+            blocks.add(block.finish());
+        }
+        return blocks;
+    }
+
+    /**
+     * Replaces the file with the given blocks. They are written to a
+     * temporary file first, which then replaces the file atomically.
+     */
+    private void replace(List<byte[]> blocks) throws IOException {
+        Path target = file.toPath();
+        Path temp = Files.createTempFile(target.toAbsolutePath().getParent(), file.getName(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                for (byte[] block : blocks) {
+                    ByteBuffer bytes = ByteBuffer.wrap(block);
+                    while (bytes.hasRemaining()) {
+                        channel.write(bytes);
+                    }
+                }
+                channel.force(false);
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
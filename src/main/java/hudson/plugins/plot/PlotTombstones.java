@@ -0,0 +1,186 @@
+package hudson.plugins.plot;
+
+import hudson.model.Job;
+import hudson.util.AtomicFileWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.util.Timer;
+
+/**
+ * The builds of a job that were deleted while their rows may still be in the
+ * job's plot files.
+ * <p>
+ * Deleting a build only appends its number to {@code plot-tombstones.txt} in
+ * the job directory, so discarding many builds at once doesn't rewrite any
+ * plot file. Readers skip the rows of these builds right away, and
+ * {@link PlotCompaction} removes the rows and then the tombstones.
+ * <p>
+ * The numbers of builds deleted within {@link #FLUSH_DELAY_MS} of each other
+ * are appended at once. A tombstone lost in a crash before that only means
+ * its rows are found to belong to a deleted build by looking the build up.
+ */
+final class PlotTombstones {
+    private static final Logger LOGGER = Logger.getLogger(PlotTombstones.class.getName());
+
+    private static final String FILE_NAME = "plot-tombstones.txt";
+
+    private static final ConcurrentMap<File, PlotTombstones> TOMBSTONES = new ConcurrentHashMap<>();
+
+    /**
+     * Milliseconds a deleted build waits for more deletions before the
+     * tombstones are written.
+     */
+    private static final long FLUSH_DELAY_MS = 1000;
+
+    private final File file;
+
+    /**
+     * The deleted build numbers, replaced as a whole when they change. Null
+     * until the file has been read.
+     */
+    private volatile Set<Integer> deleted;
+
+    /**
+     * The deleted build numbers that aren't in the file yet, guarded by this.
+     */
+    private final List<Integer> unwritten = new ArrayList<>();
+
+    private PlotTombstones(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns the tombstones of the given job.
+     */
+    static PlotTombstones of(Job<?, ?> job) {
+        return TOMBSTONES.computeIfAbsent(new File(job.getRootDir(), FILE_NAME).getAbsoluteFile(), PlotTombstones::new);
+    }
+
+    /**
+     * Drops the tombstones of the jobs whose directory matches, once they were
+     * deleted or moved, see {@link PlotItemListener}.
+     */
+    static void forget(Predicate<File> jobDir) {
+        TOMBSTONES.keySet().removeIf(file -> jobDir.test(file.getParentFile()));
+    }
+
+    /**
+     * Returns the deleted build numbers. The returned set never changes, a
+     * different set is returned once builds are added or removed.
+     */
+    Set<Integer> get() {
+        Set<Integer> current = deleted;
+        if (current == null) {
+            synchronized (this) {
+                current = deleted;
+                if (current == null) {
+                    current = load();
+                    deleted = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    boolean contains(int buildNumber) {
+        return get().contains(buildNumber);
+    }
+
+    private Set<Integer> load() {
+        Set<Integer> builds = new HashSet<>();
+        try {
+            for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                try {
+                    builds.add(Integer.parseInt(line.trim()));
+                } catch (NumberFormatException e) {
+                    // a line cut short by a crash
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // no build was deleted
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to read " + file, e);
+        }
+        return Collections.unmodifiableSet(builds);
+    }
+
+    /**
+     * Records that a build was deleted. The readers know right away, the file
+     * is written shortly after.
+     */
+    synchronized void add(int buildNumber) {
+        Set<Integer> builds = new HashSet<>(get());
+        if (!builds.add(buildNumber)) {
+            return;
+        }
+        deleted = Collections.unmodifiableSet(builds);
+        if (unwritten.isEmpty()) {
+            Timer.get().schedule(this::flush, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+        unwritten.add(buildNumber);
+    }
+
+    /**
+     * Appends the deleted builds that aren't in the file yet.
+     */
+    synchronized void flush() {
+        if (unwritten.isEmpty()) {
+            return;
+        }
+        StringBuilder lines = new StringBuilder();
+        for (Integer build : unwritten) {
+            lines.append(build).append('\n');
+        }
+        unwritten.clear();
+        try {
+            Files.write(
+                    file.toPath(),
+                    lines.toString().getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to record deleted builds in " + file, e);
+        }
+    }
+
+    /**
+     * Forgets deleted builds whose rows have been removed from the plot files.
+     */
+    synchronized void removeAll(Set<Integer> buildNumbers) throws IOException {
+        Set<Integer> builds = new HashSet<>(get());
+        if (!builds.removeAll(buildNumbers)) {
+            return;
+        }
+        // the file is written as a whole, with the unwritten builds
+        unwritten.clear();
+        if (builds.isEmpty()) {
+            Files.deleteIfExists(file.toPath());
+        } else {
+            AtomicFileWriter out = new AtomicFileWriter(file.toPath(), StandardCharsets.UTF_8);
+            try {
+                for (Integer build : builds) {
+                    out.write(build + "\n");
+                }
+                out.commit();
+            } finally {
+                out.abort();
+            }
+        }
+        deleted = Collections.unmodifiableSet(builds);
+    }
+}
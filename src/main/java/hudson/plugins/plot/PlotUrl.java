@@ -0,0 +1,117 @@
+package hudson.plugins.plot;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The URL field of the rows of a plot file.
+ * <p>
+ * The URL of a point from a series with a URL template isn't stored expanded:
+ * the field is {@code %<index>:<template>}, with the column index the URL is
+ * rendered with, and is expanded with the label and build number of the row
+ * when the image map is generated. It is the same for all builds, so rows
+ * share it and a compressed plot file only stores the template once (see
+ * {@link PlotStore}). Any other URL is kept as it is, with a second {@code %}
+ * in front of it if it starts with one. Plain plot files have the URLs as
+ * they are rendered.
+ */
+final class PlotUrl {
+    private static final char MARKER = '%';
+
+    /**
+     * The templates compiled so far, there are few of them per plot.
+     */
+    private static final Map<String, UrlTemplate> TEMPLATES = new ConcurrentHashMap<>();
+
+    private static final int MAX_TEMPLATES = 1024;
+
+    private PlotUrl() {}
+
+    /**
+     * Returns the URL field of a URL that is stored as it is.
+     */
+    static String literal(String url) {
+        return url != null && !url.isEmpty() && url.charAt(0) == MARKER ? MARKER + url : url;
+    }
+
+    static String reference(String template, int index) {
+        return MARKER + Integer.toString(index) + ':' + template;
+    }
+
+    /**
+     * Returns whether the field refers to a URL template.
+     */
+    static boolean isReference(String field) {
+        return separator(field) > 0;
+    }
+
+    /**
+     * Returns the template of a field that refers to one.
+     */
+    static String getTemplate(String field) {
+        return field.substring(separator(field) + 1);
+    }
+
+    /**
+     * Returns the column index of a field that refers to a template.
+     */
+    static int getIndex(String field) {
+        return Integer.parseInt(field, 1, separator(field), 10);
+    }
+
+    /**
+     * Returns the URL of a row.
+     *
+     * @param field       the URL field of the row, may be null
+     * @param label       the series label of the row
+     * @param buildNumber the build number of the row
+     */
+    static String expand(String field, String label, int buildNumber) {
+        if (field == null || field.isEmpty() || field.charAt(0) != MARKER) {
+            return field;
+        }
+        int separator = separator(field);
+        if (separator < 0) {
+            return field.startsWith("%%") ? field.substring(1) : field;
+        }
+        String source = field.substring(separator + 1);
+        UrlTemplate template = TEMPLATES.get(source);
+        if (template == null) {
+            template = UrlTemplate.compile(source);
+            if (TEMPLATES.size() < MAX_TEMPLATES) {
+                TEMPLATES.put(source, template);
+            }
+        }
+        return template.render(label, getIndex(field), buildNumber);
+    }
+
+    /**
+     * Returns the URL of a row like {@link #expand(String, String, int)}, with
+     * a build number that isn't a number rendered as 0. The value of such a
+     * row isn't plotted, so its URL is never shown.
+     */
+    static String expand(String field, String label, String buildNumber) {
+        int build;
+        try {
+            build = Integer.parseInt(buildNumber);
+        } catch (NumberFormatException e) {
+            build = 0;
+        }
+        return expand(field, label, build);
+    }
+
+    /**
+     * Returns where the index of a reference ends, or -1 if the field isn't
+     * a reference.
+     */
+    private static int separator(String field) {
+        if (field == null || field.length() < 3 || field.charAt(0) != MARKER) {
+            return -1;
+        }
+        int i = 1;
+        while (i < field.length() && i < 10 && field.charAt(i) >= '0' && field.charAt(i) <= '9') {
+            i++;
+        }
+        return i > 1 && i < field.length() && field.charAt(i) == ':' ? i : -1;
+    }
+}
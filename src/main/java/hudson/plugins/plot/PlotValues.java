@@ -0,0 +1,146 @@
+package hudson.plugins.plot;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The values and build numbers of the rows of a plot file, parsed once for
+ * all the rows a chart shows.
+ * <p>
+ * A value is a number the way the chart has always read it: an
+ * {@link Integer} if {@link Integer#parseInt(String)} accepts it, otherwise a
+ * {@link Double} if {@link Double#parseDouble(String)} does. Points whose
+ * value isn't a number are rejected when they are recorded, rows written
+ * before that are marked as invalid here and skipped by the chart.
+ */
+final class PlotValues {
+    private final List<String[]> rows;
+    private final int[] buildNumbers;
+    private final double[] values;
+
+    /**
+     * The rows whose value is an int, stored exactly in {@link #values}.
+     */
+    private final BitSet integers;
+
+    /**
+     * The rows whose value and build number are numbers.
+     */
+    private final BitSet valid;
+
+    private final int invalidCount;
+
+    private PlotValues(List<String[]> rows) {
+        this.rows = rows;
+        int size = rows.size();
+        buildNumbers = new int[size];
+        values = new double[size];
+        integers = new BitSet(size);
+        valid = new BitSet(size);
+        int invalid = 0;
+        for (int i = 0; i < size; i++) {
+            String[] row = rows.get(i);
+            Number value = parse(row[0]);
+            if (value == null || !isInteger(row[2])) {
+                invalid++;
+                continue;
+            }
+            buildNumbers[i] = Integer.parseInt(row[2]);
+            values[i] = value.doubleValue();
+            integers.set(i, value instanceof Integer);
+            valid.set(i);
+        }
+        invalidCount = invalid;
+    }
+
+    /**
+     * Parses the values of the given rows, which must have at least the
+     * value, label and build number fields.
+     */
+    static PlotValues of(List<String[]> rows) {
+        return new PlotValues(rows);
+    }
+
+    /**
+     * Returns the number the chart shows for a value.
+     *
+     * @return an Integer or a Double, null if the value isn't a number
+     */
+    static Number parse(String value) {
+        if (value == null) {
+            return null;
+        }
+        if (isInteger(value)) {
+            return Integer.parseInt(value);
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException nfe) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns whether {@link Integer#parseInt(String)} accepts the value,
+     * without having it throw for the values that are no ints.
+     */
+    static boolean isInteger(String value) {
+        int length = value == null ? 0 : value.length();
+        int start = length > 0 && (value.charAt(0) == '-' || value.charAt(0) == '+') ? 1 : 0;
+        if (start == length || length - start > 10) {
+            return false;
+        }
+        for (int i = start; i < length; i++) {
+            if (Character.digit(value.charAt(i), 10) < 0) {
+                return false;
+            }
+        }
+        if (length - start < 10) {
+            return true;
+        }
+        // as many digits as Integer.MIN_VALUE, it may overflow
+        long parsed = Long.parseLong(value);
+        return parsed >= Integer.MIN_VALUE && parsed <= Integer.MAX_VALUE;
+    }
+
+    List<String[]> getRows() {
+        return rows;
+    }
+
+    int size() {
+        return rows.size();
+    }
+
+    /**
+     * Returns whether the value and build number of a row are numbers, the
+     * other methods only give meaningful results for such rows.
+     */
+    boolean isValid(int row) {
+        return valid.get(row);
+    }
+
+    /**
+     * Returns how many rows aren't {@linkplain #isValid(int) valid}.
+     */
+    int getInvalidCount() {
+        return invalidCount;
+    }
+
+    int getBuildNumber(int row) {
+        return buildNumbers[row];
+    }
+
+    double getValue(int row) {
+        return values[row];
+    }
+
+    /**
+     * Returns the value of a row as the chart shows it.
+     */
+    Number getNumber(int row) {
+        if (integers.get(row)) {
+            return (int) values[row];
+        }
+        return values[row];
+    }
+}
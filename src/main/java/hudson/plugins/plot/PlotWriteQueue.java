@@ -0,0 +1,307 @@
+package hudson.plugins.plot;
+
+import hudson.XmlFile;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import hudson.util.XStream2;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+
+/**
+ * Durable queue that merges extracted plot data into the plot CSV files in the
+ * background, so a build doesn't wait for the plot files to be rewritten.
+ * <p>
+ * Each submitted record is written to {@code $JENKINS_HOME/plot-queue} before
+ * the build continues and is only deleted once it has been merged, so pending
+ * records are replayed after a restart. Records are merged one at a time, in
+ * submission order.
+ * <p>
+ * A record that can't be merged stays queued, and so do the later records of
+ * the same plot, so that rows are never merged out of order. They are retried
+ * whenever a new record of the plot is submitted, and otherwise after a delay
+ * that doubles from {@link #MIN_RETRY_DELAY_MS} up to
+ * {@link #MAX_RETRY_DELAY_MS}.
+ *
+ * @see Plot#addBuild(Run, java.io.PrintStream, hudson.FilePath)
+ */
+public final class PlotWriteQueue {
+    private static final Logger LOGGER = Logger.getLogger(PlotWriteQueue.class.getName());
+
+    /**
+     * Whether plot data is merged into the plot files in the background
+     * instead of by the build itself. Not final so it can be changed from the
+     * script console.
+     */
+    static boolean ASYNC = SystemProperties.getBoolean(PlotWriteQueue.class.getName() + ".async");
+
+    /**
+     * Milliseconds before the records of a plot are retried the first time.
+     */
+    private static final long MIN_RETRY_DELAY_MS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * The longest delay between two retries of the records of a plot.
+     */
+    private static final long MAX_RETRY_DELAY_MS = TimeUnit.HOURS.toMillis(1);
+
+    private static final XStream2 XSTREAM = new XStream2();
+
+    private static final PlotWriteQueue INSTANCE = new PlotWriteQueue();
+
+    static {
+        XSTREAM.alias("plot-record", Record.class);
+    }
+
+    private final ExecutorService writer =
+            Executors.newSingleThreadExecutor(new NamingThreadFactory(new DaemonThreadFactory(), "Plot data writer"));
+
+    /**
+     * Makes spool file names unique and sortable in submission order.
+     */
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * The records that couldn't be merged yet, by job and plot file name.
+     * Only used by the writer thread.
+     */
+    private final Map<String, Pending> pending = new HashMap<>();
+
+    private PlotWriteQueue() {}
+
+    static PlotWriteQueue get() {
+        return INSTANCE;
+    }
+
+    /**
+     * A snapshot of the data extracted for one plot from one build.
+     */
+    static final class Record {
+        private String job;
+        private String csvFileName;
+        private String title;
+        private String numBuilds;
+        private boolean keepRecords;
+        private int build;
+        private List<String[]> rows;
+    }
+
+    /**
+     * A record that couldn't be merged, with the file it is spooled in.
+     */
+    private static final class Queued {
+        private final File spoolFile;
+        private final Record record;
+        private final boolean replay;
+
+        Queued(File spoolFile, Record record, boolean replay) {
+            this.spoolFile = spoolFile;
+            this.record = record;
+            this.replay = replay;
+        }
+    }
+
+    /**
+     * The records of a plot that couldn't be merged yet, in submission order.
+     */
+    private static final class Pending {
+        private final List<Queued> records = new ArrayList<>();
+        private long retryDelay = MIN_RETRY_DELAY_MS;
+    }
+
+    /**
+     * Persists the extracted rows of the given plot and schedules them to be
+     * merged into the plot's CSV file.
+     */
+    void submit(Plot plot, Run<?, ?> run, List<String[]> rows) {
+        Record record = new Record();
+        record.job = run.getParent().getFullName();
+        record.csvFileName = plot.getCsvFileName();
+        record.title = plot.getTitle();
+        record.numBuilds = plot.getNumBuilds();
+        record.keepRecords = plot.getKeepRecords();
+        record.build = run.getNumber();
+        record.rows = new ArrayList<>(rows);
+
+        File spoolDir = getSpoolDir();
+        if (!spoolDir.isDirectory() && !spoolDir.mkdirs()) {
+            LOGGER.log(Level.WARNING, "Failed to create plot queue directory " + spoolDir);
+        }
+        File spoolFile = new File(
+                spoolDir,
+                String.format("%013d-%06d.xml", System.currentTimeMillis(), sequence.incrementAndGet() % 1000000));
+        try {
+            new XmlFile(XSTREAM, spoolFile).write(record);
+        } catch (IOException e) {
+            // without a durable copy, merge right away rather than lose the data
+            LOGGER.log(Level.WARNING, "Failed to queue plot data of " + run + ", recording it synchronously", e);
+            try {
+                plot.mergeRows(rows, false);
+            } catch (IOException ioe) {
+                LOGGER.log(Level.SEVERE, "Exception saving plot file", ioe);
+            }
+            return;
+        }
+        writer.execute(() -> merge(spoolFile, false));
+    }
+
+    /**
+     * Waits until all records submitted so far have been merged.
+     */
+    void awaitMerged() throws InterruptedException, ExecutionException {
+        writer.submit(() -> {}).get();
+    }
+
+    /**
+     * Merges a spooled record into its plot file and removes it from the queue.
+     * If the plot file can't be written, or earlier records of the plot are
+     * still pending, the record stays in the queue and is retried later.
+     *
+     * @param replay true if the record was left over from before a restart
+     */
+    private void merge(File spoolFile, boolean replay) {
+        XmlFile xmlFile = new XmlFile(XSTREAM, spoolFile);
+        if (!xmlFile.exists()) {
+            return;
+        }
+        Record record;
+        try {
+            record = (Record) xmlFile.read();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Failed to read queued plot data from " + spoolFile + ", keeping it queued", e);
+            return;
+        }
+        String plotKey = record.job + '/' + record.csvFileName;
+        Pending plotPending = pending.get(plotKey);
+        if (plotPending != null) {
+            // the rows of the earlier builds go first
+            if (plotPending.records.stream().noneMatch(queued -> queued.spoolFile.equals(spoolFile))) {
+                plotPending.records.add(new Queued(spoolFile, record, replay));
+            }
+            retry(plotKey);
+        } else if (!mergeRecord(spoolFile, record, replay)) {
+            plotPending = new Pending();
+            plotPending.records.add(new Queued(spoolFile, record, replay));
+            pending.put(plotKey, plotPending);
+            scheduleRetry(plotKey, plotPending);
+        }
+    }
+
+    /**
+     * Merges the pending records of a plot in order, up to the first one that
+     * still can't be merged.
+     */
+    private void retry(String plotKey) {
+        Pending plotPending = pending.get(plotKey);
+        if (plotPending == null) {
+            return;
+        }
+        while (!plotPending.records.isEmpty()) {
+            Queued queued = plotPending.records.get(0);
+            if (queued.spoolFile.exists() && !mergeRecord(queued.spoolFile, queued.record, queued.replay)) {
+                return;
+            }
+            plotPending.records.remove(0);
+        }
+        pending.remove(plotKey);
+    }
+
+    /**
+     * Retries the pending records of a plot after its retry delay, and again
+     * after twice the delay as long as some are left.
+     */
+    private void scheduleRetry(String plotKey, Pending plotPending) {
+        Runnable retry = () -> writer.execute(() -> retryLater(plotKey, plotPending));
+        Timer.get().schedule(retry, plotPending.retryDelay, TimeUnit.MILLISECONDS);
+    }
+
+    private void retryLater(String plotKey, Pending plotPending) {
+        if (pending.get(plotKey) != plotPending) {
+            // all merged since, later failures have their own schedule
+            return;
+        }
+        retry(plotKey);
+        if (pending.get(plotKey) == plotPending) {
+            plotPending.retryDelay = Math.min(2 * plotPending.retryDelay, MAX_RETRY_DELAY_MS);
+            scheduleRetry(plotKey, plotPending);
+        }
+    }
+
+    /**
+     * Merges a record into its plot file and removes it from the queue.
+     *
+     * @return false if the record couldn't be merged and stays queued
+     */
+    private static boolean mergeRecord(File spoolFile, Record record, boolean replay) {
+        try {
+            Job<?, ?> job = Jenkins.get().getItemByFullName(record.job, Job.class);
+            if (job == null) {
+                LOGGER.log(
+                        Level.INFO,
+                        "Dropping queued plot data of " + record.job + " #" + record.build + ", job was deleted");
+            } else {
+                Plot plot = new Plot(
+                        record.title,
+                        null,
+                        null,
+                        record.numBuilds,
+                        record.csvFileName,
+                        null,
+                        false,
+                        record.keepRecords,
+                        false,
+                        false,
+                        null,
+                        null,
+                        null);
+                plot.setJob(job);
+                // a record may be replayed after a restart that happened
+                // just after it was merged
+                plot.mergeRows(record.rows, replay);
+            }
+            new XmlFile(XSTREAM, spoolFile).delete();
+            return true;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Failed to merge queued plot data from " + spoolFile + ", keeping it queued", e);
+            return false;
+        }
+    }
+
+    static File getSpoolDir() {
+        return new File(Jenkins.get().getRootDir(), "plot-queue");
+    }
+
+    /**
+     * Replays the records that were still pending when Jenkins stopped.
+     */
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void replayPendingRecords() {
+        File[] pending = getSpoolDir().listFiles((dir, name) -> name.endsWith(".xml"));
+        if (pending == null || pending.length == 0) {
+            return;
+        }
+        Arrays.sort(pending);
+        LOGGER.log(Level.INFO, "Replaying " + pending.length + " queued plot records");
+        for (File spoolFile : pending) {
+            INSTANCE.writer.execute(() -> INSTANCE.merge(spoolFile, true));
+        }
+    }
+}
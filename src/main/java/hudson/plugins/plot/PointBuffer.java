@@ -0,0 +1,77 @@
+package hudson.plugins.plot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps the points of one file of a series while the other files are read,
+ * so that they can be passed on in path order. The URL templates of the
+ * points are kept, so a buffer can be passed on again for a later build of an
+ * unchanged file.
+ */
+final class PointBuffer implements PointSink {
+    private final List<String> yvalues = new ArrayList<>();
+    private final List<String> labels = new ArrayList<>();
+
+    /**
+     * The URL of each point, or its template if it has an index.
+     */
+    private final List<String> urls = new ArrayList<>();
+
+    /**
+     * The index each URL template is rendered with, -1 for the URLs given as
+     * they are.
+     */
+    private int[] indexes = new int[16];
+
+    @Override
+    public void add(String yvalue, String url, String label) {
+        add(yvalue, url, -1, -1, label);
+    }
+
+    /**
+     * Adds a point whose URL is rendered from a template, with the build
+     * number given to {@link #drainTo(PointSink, String, int)}.
+     */
+    @Override
+    public void add(String yvalue, String urlTemplate, int index, int buildNumber, String label) {
+        int size = yvalues.size();
+        if (size == indexes.length) {
+            indexes = Arrays.copyOf(indexes, size * 2);
+        }
+        yvalues.add(yvalue);
+        labels.add(label);
+        urls.add(urlTemplate);
+        indexes[size] = index;
+    }
+
+    int size() {
+        return yvalues.size();
+    }
+
+    /**
+     * Passes the points on to another sink.
+     *
+     * @param prefix      put in front of the labels, the URLs are still
+     *                    rendered with the labels read from the file
+     * @param buildNumber the build number the URL templates are rendered with
+     */
+    void drainTo(PointSink sink, String prefix, int buildNumber) {
+        UrlTemplate template = null;
+        for (int i = 0; i < yvalues.size(); i++) {
+            String label = labels.get(i);
+            String url = urls.get(i);
+            if (indexes[i] < 0) {
+                sink.add(yvalues.get(i), url, prefix == null ? label : prefix + label);
+            } else if (prefix == null) {
+                sink.add(yvalues.get(i), url, indexes[i], buildNumber, label);
+            } else {
+                if (template == null || !template.getTemplate().equals(url)) {
+                    template = UrlTemplate.compile(url);
+                }
+                sink.add(yvalues.get(i), template.render(label, indexes[i], buildNumber), prefix + label);
+            }
+        }
+    }
+}
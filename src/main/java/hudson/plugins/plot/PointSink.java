@@ -0,0 +1,33 @@
+package hudson.plugins.plot;
+
+/**
+ * Receives the points of a data series as they are read from the workspace,
+ * see {@link Series#loadSeries(hudson.FilePath, int, java.io.PrintStream, PointSink)}.
+ */
+public interface PointSink {
+    /**
+     * Adds a point.
+     *
+     * @param yvalue the value of the point
+     * @param url    the URL of the point, may be null
+     * @param label  the label of the point
+     */
+    void add(String yvalue, String url, String label);
+
+    /**
+     * Adds a point whose URL is rendered from the URL of its series, where
+     * {@code %name%} stands for the label, {@code %index%} for the given index
+     * and {@code %build%} for the build number. Sinks may keep the template
+     * and render the URL only when it is needed, by default it is rendered
+     * right away.
+     *
+     * @param yvalue      the value of the point
+     * @param urlTemplate the URL of the series
+     * @param index       the index the URL is rendered with
+     * @param buildNumber the build number the URL is rendered with
+     * @param label       the label of the point, which the URL is rendered with
+     */
+    default void add(String yvalue, String urlTemplate, int index, int buildNumber, String label) {
+        add(yvalue, UrlTemplate.compile(urlTemplate).render(label, index, buildNumber), label);
+    }
+}
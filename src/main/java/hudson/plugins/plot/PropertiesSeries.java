@@ -12,8 +12,6 @@ import hudson.FilePath;
 import hudson.model.Descriptor;
 import java.io.InputStream;
 import java.io.PrintStream;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Properties;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -38,25 +36,30 @@ public class PropertiesSeries extends Series {
      * Load the series from a properties file.
      */
     @Override
-    public List<PlotPoint> loadSeries(FilePath workspaceRootDir, int buildNumber, PrintStream logger) {
-        InputStream in = null;
+    public boolean loadSeries(FilePath workspaceRootDir, int buildNumber, PrintStream logger, PointSink sink) {
         FilePath[] seriesFiles;
 
         try {
             seriesFiles = workspaceRootDir.list(getFile());
         } catch (Exception e) {
             LOGGER.log(Level.SEVERE, "Exception trying to retrieve series files", e);
-            return null;
+            return false;
         }
 
         if (ArrayUtils.isEmpty(seriesFiles)) {
             logger.println("No plot data file found: " + getFile());
-            return null;
+            return false;
         }
 
+        return loadSeriesFiles(
+                workspaceRootDir, seriesFiles, buildNumber, (f, fingerprint, s) -> loadSeriesFile(f, logger, s), sink);
+    }
+
+    private boolean loadSeriesFile(FilePath seriesFile, PrintStream logger, PointSink sink) {
+        InputStream in = null;
         try {
-            in = seriesFiles[0].read();
-            logger.println("Saving plot series data from: " + seriesFiles[0]);
+            in = SeriesFiles.open(seriesFile);
+            logger.println("Saving plot series data from: " + seriesFile);
             Properties properties = new Properties();
             properties.load(in);
             String yvalue = properties.getProperty("YVALUE");
@@ -64,14 +67,13 @@ public class PropertiesSeries extends Series {
             if (yvalue == null || url == null) {
                 logger.println(
                         "Not creating point with null values: y=" + yvalue + " label=" + getLabel() + " url=" + url);
-                return null;
+                return false;
             }
-            List<PlotPoint> series = new ArrayList<>();
-            series.add(new PlotPoint(yvalue, url, getLabel()));
-            return series;
+            sink.add(yvalue, url, getLabel());
+            return true;
         } catch (Exception e) {
-            LOGGER.log(Level.SEVERE, "Exception reading plot series data from " + seriesFiles[0], e);
-            return null;
+            LOGGER.log(Level.SEVERE, "Exception reading plot series data from " + seriesFile, e);
+            return false;
         } finally {
             IOUtils.closeQuietly(in);
         }
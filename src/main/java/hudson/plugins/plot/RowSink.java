@@ -0,0 +1,95 @@
+package hudson.plugins.plot;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Turns the points of the series into rows of the plot file as they are
+ * read, without keeping a {@link PlotPoint} for each of them. Points whose
+ * value isn't a number (see {@link PlotValues#parse(String)}) are rejected
+ * and reported instead, so the plot file only gets valid rows.
+ */
+final class RowSink implements PointSink {
+    /**
+     * How many rejected points are reported by their label and value.
+     */
+    static final int MAX_REPORTED = 10;
+
+    private final List<String[]> rows = new ArrayList<>();
+    private final String buildNumber;
+    private final String timestamp;
+
+    /**
+     * The URL fields referring to the last template by the index they are
+     * rendered with, since most points of a series share it.
+     */
+    private String template;
+
+    private final List<String> references = new ArrayList<>();
+
+    private int rejectedCount;
+
+    private final List<String> rejected = new ArrayList<>();
+
+    RowSink(int buildNumber, long timestamp) {
+        this.buildNumber = Integer.toString(buildNumber);
+        this.timestamp = Long.toString(timestamp);
+    }
+
+    List<String[]> getRows() {
+        return rows;
+    }
+
+    /**
+     * Returns how many points were rejected.
+     */
+    int getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * Returns the first rejected points, as {@code label=value}.
+     */
+    List<String> getRejected() {
+        return rejected;
+    }
+
+    @Override
+    public void add(String yvalue, String url, String label) {
+        if (reject(yvalue, label)) {
+            return;
+        }
+        rows.add(new String[] {yvalue, label, buildNumber, timestamp, PlotUrl.literal(url == null ? "" : url)});
+    }
+
+    @Override
+    public void add(String yvalue, String urlTemplate, int index, int buildNumber, String label) {
+        if (reject(yvalue, label)) {
+            return;
+        }
+        if (!urlTemplate.equals(template)) {
+            template = urlTemplate;
+            references.clear();
+        }
+        while (references.size() <= index) {
+            references.add(null);
+        }
+        String reference = references.get(index);
+        if (reference == null) {
+            reference = PlotUrl.reference(urlTemplate, index);
+            references.set(index, reference);
+        }
+        rows.add(new String[] {yvalue, label, this.buildNumber, timestamp, reference});
+    }
+
+    private boolean reject(String yvalue, String label) {
+        if (PlotValues.parse(yvalue) != null) {
+            return false;
+        }
+        if (rejected.size() < MAX_REPORTED) {
+            rejected.add(label + "=" + yvalue);
+        }
+        rejectedCount++;
+        return true;
+    }
+}
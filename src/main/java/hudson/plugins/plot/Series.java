@@ -8,13 +8,26 @@ package hudson.plugins.plot;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.Extension;
 import hudson.FilePath;
+import hudson.Util;
 import hudson.model.AbstractDescribableImpl;
 import hudson.model.Descriptor;
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.util.SystemProperties;
 import net.sf.json.JSONObject;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.StaplerRequest2;
 
 /**
@@ -24,9 +37,44 @@ import org.kohsuke.stapler.StaplerRequest2;
  * @author Allen Reese
  */
 public abstract class Series extends AbstractDescribableImpl<Series> {
-    private static final transient Pattern PAT_NAME = Pattern.compile("%name%");
-    private static final transient Pattern PAT_INDEX = Pattern.compile("%index%");
-    private static final Pattern PAT_BUILD_NUMBER = Pattern.compile("%build%");
+    private static final Logger LOGGER = Logger.getLogger(Series.class.getName());
+
+    /**
+     * Whether the points of files that haven't changed since the previous
+     * build are reused rather than read again. Not final so it can be changed
+     * from the script console.
+     */
+    static boolean REUSE_UNCHANGED_FILES =
+            SystemProperties.getBoolean(Series.class.getName() + ".reuseUnchangedFiles", false);
+
+    /**
+     * Files with more points are read again by each build rather than kept.
+     */
+    private static final int MAX_REUSED_POINTS = 10_000;
+
+    /**
+     * The most points kept for all series together, a file without points
+     * counting as one.
+     */
+    private static final int MAX_LOADED_POINTS = 100_000;
+
+    /**
+     * The most files kept for all series together.
+     */
+    private static final int MAX_LOADED_FILES = 1000;
+
+    /**
+     * The files loaded lately, by job and path, least recently used first,
+     * guarded by the map. See
+     * {@link #loadSeriesFiles(FilePath, FilePath[], int, FileLoader, PointSink)}.
+     */
+    private static final Map<LoadedKey, LoadedFile> LOADED_FILES = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The number of points of the loaded files, guarded by
+     * {@link #LOADED_FILES}.
+     */
+    private static int loadedPoints;
 
     /**
      * Relative path to the data series property file. Mandatory.
@@ -48,6 +96,23 @@ public abstract class Series extends AbstractDescribableImpl<Series> {
     @SuppressWarnings("visibilitymodifier")
     protected String fileType;
 
+    /**
+     * Whether the labels of the points are prefixed with the path of the file
+     * they were read from, to tell the same label in several files apart.
+     */
+    private boolean labelPrefix;
+
+    /**
+     * The last url template compiled by {@link #getUrlTemplate(String)}.
+     */
+    private transient volatile UrlTemplate urlTemplate;
+
+    /**
+     * Whether the series only serves one build, like those of a pipeline
+     * step, so the points of its files can't be reused by the next one.
+     */
+    private transient boolean temporary;
+
     protected Series(String file, String label, String fileType) {
         this.file = file;
 
@@ -71,15 +136,308 @@ public abstract class Series extends AbstractDescribableImpl<Series> {
         return fileType;
     }
 
+    public boolean getLabelPrefix() {
+        return labelPrefix;
+    }
+
+    @DataBoundSetter
+    public void setLabelPrefix(boolean labelPrefix) {
+        this.labelPrefix = labelPrefix;
+    }
+
+    /**
+     * Marks the series as only serving the current build, so the points of
+     * its files aren't kept for the next one.
+     */
+    void setTemporary() {
+        temporary = true;
+    }
+
     /**
      * Retrieves the plot data for one series after a build from the workspace.
+     * <p>
+     * Subclasses implement this method or
+     * {@link #loadSeries(FilePath, int, PrintStream, PointSink)}, each adapts
+     * the other one.
      *
      * @param workspaceRootDir the root directory of the workspace
      * @param buildNumber      the build Number
      * @param logger           the logger to use
      * @return a PlotPoint array of points to plot
      */
-    public abstract List<PlotPoint> loadSeries(FilePath workspaceRootDir, int buildNumber, PrintStream logger);
+    public List<PlotPoint> loadSeries(FilePath workspaceRootDir, int buildNumber, PrintStream logger) {
+        if (!Util.isOverridden(
+                Series.class,
+                getClass(),
+                "loadSeries",
+                FilePath.class,
+                int.class,
+                PrintStream.class,
+                PointSink.class)) {
+            throw new AbstractMethodError(getClass().getName() + " must implement loadSeries");
+        }
+        List<PlotPoint> points = new ArrayList<>();
+        boolean loaded = loadSeries(workspaceRootDir, buildNumber, logger, new PointSink() {
+            @Override
+            public void add(String yvalue, String url, String label) {
+                points.add(new PlotPoint(yvalue, url, label));
+            }
+
+            @Override
+            public void add(String yvalue, String urlTemplate, int index, int buildNumber, String label) {
+                points.add(new PlotPoint(yvalue, getUrlTemplate(urlTemplate), label, index, buildNumber, label));
+            }
+        });
+        return loaded ? points : null;
+    }
+
+    /**
+     * Retrieves the plot data for one series after a build from the workspace
+     * and passes each point to the given sink as it is read.
+     *
+     * @param workspaceRootDir the root directory of the workspace
+     * @param buildNumber      the build Number
+     * @param logger           the logger to use
+     * @param sink             receives the points
+     * @return false if the data couldn't be loaded at all
+     */
+    public boolean loadSeries(FilePath workspaceRootDir, int buildNumber, PrintStream logger, PointSink sink) {
+        if (!Util.isOverridden(Series.class, getClass(), "loadSeries", FilePath.class, int.class, PrintStream.class)) {
+            throw new AbstractMethodError(getClass().getName() + " must implement loadSeries");
+        }
+        List<PlotPoint> points = loadSeries(workspaceRootDir, buildNumber, logger);
+        if (points == null) {
+            return false;
+        }
+        for (PlotPoint point : points) {
+            if (point == null) {
+                continue;
+            }
+            UrlTemplate template = point.getUrlTemplate();
+            if (template != null && point.getLabel() != null && point.getLabel().equals(point.getUrlName())) {
+                sink.add(point.getYvalue(), template.getTemplate(), point.getUrlIndex(), buildNumber, point.getLabel());
+            } else {
+                sink.add(point.getYvalue(), point.getUrl(), point.getLabel());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Passes a point to a sink, with the URL of the series rendered for it.
+     *
+     * @param baseUrl the URL of the series, may have placeholders or be null
+     * @param label   the label of the point, which the URL is rendered with
+     * @param index   the index the URL is rendered with
+     */
+    void addPoint(PointSink sink, String yvalue, String baseUrl, String label, int index, int buildNumber) {
+        UrlTemplate template = getUrlTemplate(baseUrl);
+        if (template == null || template.isLiteral()) {
+            sink.add(yvalue, baseUrl, label);
+        } else {
+            sink.add(yvalue, baseUrl, index, buildNumber, label);
+        }
+    }
+
+    /**
+     * Loads the points of every matched file with the given loader. Files are
+     * read concurrently but passed to the sink in the order they were
+     * matched, like when they were read one after another.
+     * <p>
+     * Optionally, when the build shares the files its series read (see
+     * {@link SharedExtraction}), the points of each file are kept with its
+     * {@link FileFingerprint} and the job, and reused by the next build of
+     * the job if the file hasn't changed, with only the URLs rendered again
+     * for its build number. The series is only held weakly: a changed
+     * configuration makes a new series, whose files are read again. The files
+     * of all series together keep at most {@link #MAX_LOADED_POINTS} points.
+     *
+     * @param workspaceRootDir the root directory of the workspace
+     * @param seriesFiles      the files matched by {@link #getFile()}
+     * @param buildNumber      the build number
+     * @param loader           loads the points of one file into a sink
+     * @param sink             receives the points of all files
+     * @return false if none of the files could be loaded
+     */
+    boolean loadSeriesFiles(
+            FilePath workspaceRootDir, FilePath[] seriesFiles, int buildNumber, FileLoader loader, PointSink sink) {
+        SharedExtraction scope =
+                REUSE_UNCHANGED_FILES && !temporary ? SharedExtraction.find(workspaceRootDir, buildNumber) : null;
+        File jobDir = scope != null ? scope.getJobDir() : null;
+        if (jobDir == null && seriesFiles.length == 1 && !labelPrefix) {
+            return loader.load(seriesFiles[0], null, sink);
+        }
+        List<FilePath> files = Arrays.asList(seriesFiles);
+        List<PointBuffer> loaded = ExtractionPool.map(files, file -> loadSeriesFile(file, loader, jobDir));
+
+        boolean any = false;
+        for (int i = 0; i < files.size(); i++) {
+            PointBuffer buffer = loaded.get(i);
+            if (buffer == null) {
+                continue;
+            }
+            any = true;
+            String prefix = labelPrefix ? getRelativePath(workspaceRootDir, files.get(i)) + ": " : null;
+            buffer.drainTo(sink, prefix, buildNumber);
+        }
+        return any;
+    }
+
+    /**
+     * Loads the points of one file, or takes them from a previous build if
+     * the file is unchanged.
+     *
+     * @param jobDir the directory of the job whose builds the points are
+     *               taken from and kept for, null if they aren't
+     * @return the points, or null if the file can't be loaded
+     */
+    private PointBuffer loadSeriesFile(FilePath file, FileLoader loader, File jobDir) {
+        FileFingerprint fingerprint = null;
+        LoadedKey key = null;
+        if (jobDir != null) {
+            try {
+                fingerprint = FileFingerprint.of(file);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Exception computing the fingerprint of " + file, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            key = new LoadedKey(jobDir, file.getRemote(), System.identityHashCode(this));
+            LoadedFile last;
+            synchronized (LOADED_FILES) {
+                last = LOADED_FILES.get(key);
+            }
+            if (last != null && last.series.get() == this && last.fingerprint.equals(fingerprint)) {
+                return last.points;
+            }
+        }
+        PointBuffer buffer = new PointBuffer();
+        if (!loader.load(file, fingerprint, buffer)) {
+            return null;
+        }
+        if (fingerprint != null && buffer.size() <= MAX_REUSED_POINTS) {
+            keep(key, new LoadedFile(this, fingerprint, buffer));
+        }
+        return buffer;
+    }
+
+    /**
+     * Keeps the points of a file for the next builds, in place of those of a
+     * previous version of the file, and drops the least recently used files
+     * if there are too many points or files.
+     */
+    private static void keep(LoadedKey key, LoadedFile loaded) {
+        synchronized (LOADED_FILES) {
+            LoadedFile previous = LOADED_FILES.put(key, loaded);
+            loadedPoints += loaded.weight() - (previous != null ? previous.weight() : 0);
+            Iterator<LoadedFile> eldest = LOADED_FILES.values().iterator();
+            while ((loadedPoints > MAX_LOADED_POINTS || LOADED_FILES.size() > MAX_LOADED_FILES) && eldest.hasNext()) {
+                loadedPoints -= eldest.next().weight();
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops the points kept for the jobs whose directory matches, once they
+     * were deleted or moved, see {@link PlotItemListener}.
+     */
+    static void forget(Predicate<File> jobDir) {
+        synchronized (LOADED_FILES) {
+            Iterator<Map.Entry<LoadedKey, LoadedFile>> entries = LOADED_FILES.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<LoadedKey, LoadedFile> entry = entries.next();
+                if (jobDir.test(entry.getKey().jobDir)) {
+                    loadedPoints -= entry.getValue().weight();
+                    entries.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads the points of one series file.
+     */
+    interface FileLoader {
+        /**
+         * @param fingerprint the fingerprint of the file, null if it isn't
+         *                    known
+         * @return false if the file can't be loaded
+         */
+        boolean load(FilePath file, FileFingerprint fingerprint, PointSink sink);
+    }
+
+    /**
+     * A file read by a series of a job. The series of a job configuration
+     * stays the same from build to build, so series are told apart by their
+     * identity hash code, and the entry checks it has the same series.
+     */
+    private static final class LoadedKey {
+        private final File jobDir;
+        private final String path;
+        private final int series;
+
+        LoadedKey(File jobDir, String path, int series) {
+            this.jobDir = jobDir;
+            this.path = path;
+            this.series = series;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof LoadedKey)) {
+                return false;
+            }
+            LoadedKey other = (LoadedKey) o;
+            return series == other.series && jobDir.equals(other.jobDir) && path.equals(other.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(jobDir, path, series);
+        }
+    }
+
+    /**
+     * The points read from a file, with the fingerprint of the file and the
+     * series that read them, which is only held weakly so that an old
+     * configuration isn't kept.
+     */
+    private static final class LoadedFile {
+        private final WeakReference<Series> series;
+        private final FileFingerprint fingerprint;
+        private final PointBuffer points;
+
+        LoadedFile(Series series, FileFingerprint fingerprint, PointBuffer points) {
+            this.series = new WeakReference<>(series);
+            this.fingerprint = fingerprint;
+            this.points = points;
+        }
+
+        /**
+         * Returns what the file counts towards {@link #MAX_LOADED_POINTS}.
+         */
+        int weight() {
+            return Math.max(1, points.size());
+        }
+    }
+
+    /**
+     * Returns the path of a file relative to the workspace, with forward
+     * slashes whatever the agent's platform.
+     */
+    static String getRelativePath(FilePath workspaceRootDir, FilePath file) {
+        String root = workspaceRootDir.getRemote();
+        String path = file.getRemote();
+        if (path.startsWith(root)) {
+            path = path.substring(root.length());
+        }
+        path = path.replace('\\', '/');
+        while (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        return path;
+    }
 
     // Convert data from before version 1.3
     private Object readResolve() {
@@ -95,40 +453,26 @@ public abstract class Series extends AbstractDescribableImpl<Series> {
      * @return url for the label.
      */
     protected String getUrl(String baseUrl, String label, int index, int buildNumber) {
-        String resultUrl = baseUrl;
-        if (resultUrl != null) {
-            if (label == null) {
-                // This implementation searches for tokens to replace.
-                // If the argument was NULL then replacing the null with an empty string
-                // should still produce the desired outcome.
-                label = "";
-            }
-            /*
-             * Check the name first, and do replacement upon it.
-             */
-            Matcher nameMatcher = PAT_NAME.matcher(resultUrl);
-            if (nameMatcher.find()) {
-                resultUrl = nameMatcher.replaceAll(label);
-            }
-
-            /*
-             * Check the index, and do replacement on it.
-             */
-            Matcher indexMatcher = PAT_INDEX.matcher(resultUrl);
-            if (indexMatcher.find()) {
-                resultUrl = indexMatcher.replaceAll(String.valueOf(index));
-            }
+        UrlTemplate template = getUrlTemplate(baseUrl);
+        return template == null ? null : template.render(label, index, buildNumber);
+    }
 
-            /*
-             * Check the build number first, and do replacement upon it.
-             */
-            Matcher buildNumberMatcher = PAT_BUILD_NUMBER.matcher(resultUrl);
-            if (buildNumberMatcher.find()) {
-                resultUrl = buildNumberMatcher.replaceAll(String.valueOf(buildNumber));
-            }
+    /**
+     * Returns the given url compiled to a template. The series url is the
+     * same for all points, so it is only compiled again when it changes.
+     *
+     * @return the template, or null if the url is null
+     */
+    UrlTemplate getUrlTemplate(String baseUrl) {
+        if (baseUrl == null) {
+            return null;
         }
-
-        return resultUrl;
+        UrlTemplate template = urlTemplate;
+        if (template == null || !template.getTemplate().equals(baseUrl)) {
+            template = UrlTemplate.compile(baseUrl);
+            urlTemplate = template;
+        }
+        return template;
     }
 
     @Override
@@ -0,0 +1,184 @@
+package hudson.plugins.plot;
+
+import hudson.FilePath;
+import hudson.remoting.Pipe;
+import hudson.remoting.VirtualChannel;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.util.SystemProperties;
+
+/**
+ * Opens the series files of a workspace for reading.
+ * <p>
+ * A file on an agent is gzipped by the agent while it is sent, since plot
+ * data is mostly text and compresses well. Files ending with {@code .gz} are
+ * sent as they are and uncompressed when they are read, so series can read
+ * compressed reports directly.
+ */
+final class SeriesFiles {
+    /**
+     * Whether files on agents are gzipped while they are sent.
+     */
+    static final boolean COMPRESS =
+            SystemProperties.getBoolean(SeriesFiles.class.getName() + ".compress", true);
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private SeriesFiles() {}
+
+    /**
+     * Returns the uncompressed content of a series file.
+     */
+    static InputStream open(FilePath file) throws IOException, InterruptedException {
+        boolean gzipped = isGzipped(file);
+        InputStream in = COMPRESS && file.isRemote() && !gzipped ? openCompressed(file) : file.read();
+        return gzipped ? new GZIPInputStream(in, BUFFER_SIZE) : in;
+    }
+
+    /**
+     * Returns whether a file is gzipped, by its name.
+     */
+    static boolean isGzipped(FilePath file) {
+        return file.getName().toLowerCase(Locale.ENGLISH).endsWith(".gz");
+    }
+
+    /**
+     * Returns the content of a file that the agent gzips while it sends it.
+     * If the agent fails, reading fails with the exception of the agent.
+     */
+    static InputStream openCompressed(FilePath file) throws IOException, InterruptedException {
+        Pipe pipe = Pipe.createRemoteToLocal();
+        Future<Void> sent = file.actAsync(new Send(pipe));
+        InputStream in = new BufferedInputStream(pipe.getIn(), BUFFER_SIZE);
+        try {
+            return new Received(new GZIPInputStream(in, BUFFER_SIZE), sent);
+        } catch (IOException e) {
+            in.close();
+            throw failure(sent, e);
+        }
+    }
+
+    /**
+     * Returns the exception the agent failed with while sending a file, with
+     * the given one suppressed, or the given one if the agent didn't fail.
+     */
+    private static IOException failure(Future<?> sent, IOException e) {
+        try {
+            sent.get();
+            return e;
+        } catch (ExecutionException failed) {
+            Throwable cause = failed.getCause();
+            IOException agent = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            if (e != null) {
+                agent.addSuppressed(e);
+            }
+            return agent;
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            return e != null ? e : new InterruptedIOException();
+        }
+    }
+
+    /**
+     * The content sent by the agent, which fails with the exception of the
+     * agent rather than with the end of the gzip stream the agent cut short,
+     * and checks the agent succeeded once it is read to the end.
+     */
+    private static final class Received extends FilterInputStream {
+        private final Future<?> sent;
+        private boolean checked;
+
+        Received(InputStream in, Future<?> sent) {
+            super(in);
+            this.sent = sent;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read;
+            try {
+                read = super.read();
+            } catch (IOException e) {
+                throw failure(sent, e);
+            }
+            if (read < 0) {
+                check();
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read;
+            try {
+                read = super.read(b, off, len);
+            } catch (IOException e) {
+                throw failure(sent, e);
+            }
+            if (read < 0) {
+                check();
+            }
+            return read;
+        }
+
+        private void check() throws IOException {
+            if (!checked) {
+                checked = true;
+                IOException failed = failure(sent, null);
+                if (failed != null) {
+                    throw failed;
+                }
+            }
+        }
+    }
+
+    private static final class Send extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final Pipe pipe;
+
+        Send(Pipe pipe) {
+            this.pipe = pipe;
+        }
+
+        @Override
+        public Void invoke(File f, VirtualChannel channel) throws IOException {
+            // the gzip stream is only finished once the whole file is read,
+            // so the controller fails on a file that can't be read rather
+            // than seeing it empty or cut short
+            OutputStream raw = pipe.getOut();
+            try (InputStream in = Files.newInputStream(f.toPath())) {
+                GZIPOutputStream out = new FastGZIPOutputStream(raw);
+                in.transferTo(out);
+                out.finish();
+            } finally {
+                raw.close();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Compresses for speed rather than size, the agent shouldn't spend more
+     * time compressing than it saves sending.
+     */
+    private static final class FastGZIPOutputStream extends GZIPOutputStream {
+        FastGZIPOutputStream(OutputStream out) throws IOException {
+            super(out, BUFFER_SIZE);
+            def.setLevel(Deflater.BEST_SPEED);
+        }
+    }
+}
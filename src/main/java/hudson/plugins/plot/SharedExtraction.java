@@ -0,0 +1,143 @@
+package hudson.plugins.plot;
+
+import hudson.FilePath;
+import java.io.Closeable;
+import java.io.File;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Shares the content of the series files read while a build records its
+ * plots, so that a file read by the series of several plots, or by several
+ * series of one plot, is only read and tokenized once. Each series then takes
+ * its own points from the shared content.
+ * <p>
+ * The content is shared from when the build opens a scope for its workspace
+ * until the last scope opened for it is closed, and files are shared by their
+ * path and {@link FileFingerprint}, so a file that changes in the meantime is
+ * read again.
+ * <p>
+ * A file is only shared once a second series asks for it. The first series
+ * reads it on its own, the way it would without a scope, so a file read by a
+ * single series only has the fields that series needs copied.
+ */
+final class SharedExtraction implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(SharedExtraction.class.getName());
+
+    /**
+     * Larger files are read by each series on its own rather than kept.
+     */
+    static final long MAX_SHARED_LENGTH = 32L * 1024 * 1024;
+
+    private static final Map<String, SharedExtraction> OPEN = new ConcurrentHashMap<>();
+
+    private final String key;
+
+    private final File jobDir;
+
+    /**
+     * How many times the scope was opened and not closed yet, guarded by
+     * {@link #OPEN}.
+     */
+    private int opened;
+
+    private final Map<String, CompletableFuture<Object>> files = new ConcurrentHashMap<>();
+
+    /**
+     * The files some series asked for, see {@link #get}.
+     */
+    private final Set<String> requested = ConcurrentHashMap.newKeySet();
+
+    private SharedExtraction(String key, File jobDir) {
+        this.key = key;
+        this.jobDir = jobDir;
+    }
+
+    /**
+     * Opens the scope of a build, or returns the one that is already open.
+     *
+     * @param workspace   the workspace of the build, may be null
+     * @param buildNumber the build number
+     * @param jobDir      the directory of the job of the build
+     */
+    static SharedExtraction open(FilePath workspace, int buildNumber, File jobDir) {
+        return OPEN.compute(key(workspace, buildNumber), (scopeKey, open) -> {
+            SharedExtraction scope =
+                    open != null ? open : new SharedExtraction(scopeKey, jobDir.getAbsoluteFile());
+            scope.opened++;
+            return scope;
+        });
+    }
+
+    /**
+     * Returns the open scope of a build, or null if there is none.
+     */
+    static SharedExtraction find(FilePath workspace, int buildNumber) {
+        return OPEN.get(key(workspace, buildNumber));
+    }
+
+    private static String key(FilePath workspace, int buildNumber) {
+        return (workspace == null ? "" : workspace.getRemote()) + '#' + buildNumber;
+    }
+
+    /**
+     * Returns the directory of the job of the build.
+     */
+    File getJobDir() {
+        return jobDir;
+    }
+
+    /**
+     * Loads a file for the series that read it.
+     */
+    interface Reader<T> {
+        T read(FilePath file) throws Exception;
+    }
+
+    /**
+     * Returns the content of a file, read by the given reader if no other
+     * series of the build did so yet. Nothing is read for the first series
+     * that asks for a file.
+     *
+     * @param type   what the reader returns, files are read again for a
+     *               different type of content
+     * @param reader reads the content, called once per file and type
+     * @return the content, or null if it is the first time the file is asked
+     *         for or it couldn't be read, in which case the series reads the
+     *         file on its own
+     */
+    <T> T get(FilePath file, FileFingerprint fingerprint, Class<T> type, Reader<T> reader) {
+        String fileKey = type.getName() + ':' + file.getRemote() + ':' + fingerprint;
+        if (requested.add(fileKey)) {
+            return null;
+        }
+        CompletableFuture<Object> content = new CompletableFuture<>();
+        CompletableFuture<Object> shared = files.putIfAbsent(fileKey, content);
+        if (shared == null) {
+            try {
+                content.complete(reader.read(file));
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Exception reading shared plot series data from " + file, e);
+            } finally {
+                // the other series don't wait forever, they read the file
+                // on their own
+                content.complete(null);
+            }
+            shared = content;
+        }
+        return type.cast(shared.join());
+    }
+
+    /**
+     * Closes the scope, the shared content is dropped when it has been closed
+     * as many times as it was opened.
+     */
+    @Override
+    public void close() {
+        OPEN.computeIfPresent(key, (scopeKey, open) -> --open.opened > 0 ? open : null);
+    }
+}
@@ -0,0 +1,451 @@
+package hudson.plugins.plot;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.xpath.XPathConstants;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Evaluates a subset of XPath over a stream of StAX events, so the document
+ * doesn't have to be loaded into a DOM first.
+ * <p>
+ * Supported are unions of absolute location paths made of child
+ * ({@code /a}) and descendant ({@code //a}) steps, element names or
+ * {@code *}, predicates on attributes ({@code [@name]},
+ * {@code [@name='value']}) and a final attribute step ({@code /@time}).
+ * {@link #compile(String)} returns null for any other expression.
+ * <p>
+ * Only the matched elements are kept: each one is copied into a small DOM
+ * subtree under a copy of its parent element without the parent's other
+ * children, so the result can be processed like the result of a DOM XPath
+ * evaluation. Matches that share a parent in the document share a parent in
+ * the result too, and the parent of a matched root element is a document.
+ */
+final class StreamingXPath {
+    private static final String NAME = "[A-Za-z_][\\w.\\-]*";
+
+    private static final Pattern STEP = Pattern.compile(
+            "(//?)(\\*|" + NAME + ")((?:\\[\\s*@" + NAME + "\\s*(?:=\\s*(?:'[^']*'|\"[^\"]*\")\\s*)?\\])*)");
+
+    private static final Pattern PREDICATE =
+            Pattern.compile("\\[\\s*@(" + NAME + ")\\s*(?:=\\s*(?:'([^']*)'|\"([^\"]*)\")\\s*)?\\]");
+
+    private static final Pattern ATTRIBUTE_STEP = Pattern.compile("/@(" + NAME + ")");
+
+    /**
+     * Parser factories aren't guaranteed to be thread safe, so each thread
+     * keeps its own.
+     */
+    private static final ThreadLocal<XMLInputFactory> INPUT_FACTORY =
+            ThreadLocal.withInitial(StreamingXPath::createInputFactory);
+
+    private static final ThreadLocal<DocumentBuilderFactory> DOCUMENT_FACTORY =
+            ThreadLocal.withInitial(DocumentBuilderFactory::newInstance);
+
+    private final LocationPath[] paths;
+
+    private StreamingXPath(LocationPath[] paths) {
+        this.paths = paths;
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        // same as the DOM parser of XMLUtils
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    /**
+     * An element step of a location path.
+     */
+    private static final class Step {
+        private final boolean descendant;
+        private final String name;
+        private final String[] attributes;
+        private final String[] values;
+
+        Step(boolean descendant, String name, String[] attributes, String[] values) {
+            this.descendant = descendant;
+            this.name = name;
+            this.attributes = attributes;
+            this.values = values;
+        }
+
+        boolean matches(XMLStreamReader reader) {
+            if (name != null && !name.equals(reader.getLocalName())) {
+                return false;
+            }
+            for (int i = 0; i < attributes.length; i++) {
+                String value = reader.getAttributeValue(null, attributes[i]);
+                if (value == null || values[i] != null && !values[i].equals(value)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class LocationPath {
+        private final Step[] steps;
+
+        /**
+         * The attribute selected from the matched elements, or null to select
+         * the elements themselves.
+         */
+        private final String attribute;
+
+        LocationPath(Step[] steps, String attribute) {
+            this.steps = steps;
+            this.attribute = attribute;
+        }
+    }
+
+    /**
+     * Compiles an expression that can be evaluated over a stream.
+     *
+     * @param expression the XPath expression
+     * @return the compiled expression, or null if it is outside the subset
+     * supported for streaming
+     */
+    static StreamingXPath compile(String expression) {
+        if (expression == null) {
+            return null;
+        }
+        String[] alternatives = expression.split("\\|", -1);
+        LocationPath[] paths = new LocationPath[alternatives.length];
+        for (int i = 0; i < alternatives.length; i++) {
+            paths[i] = compilePath(alternatives[i].trim());
+            if (paths[i] == null) {
+                return null;
+            }
+        }
+        return new StreamingXPath(paths);
+    }
+
+    private static LocationPath compilePath(String path) {
+        List<Step> steps = new ArrayList<>();
+        Matcher step = STEP.matcher(path);
+        int position = 0;
+        while (position < path.length() && step.find(position) && step.start() == position) {
+            List<String> attributes = new ArrayList<>();
+            List<String> values = new ArrayList<>();
+            Matcher predicate = PREDICATE.matcher(step.group(3));
+            while (predicate.find()) {
+                attributes.add(predicate.group(1));
+                values.add(predicate.group(2) != null ? predicate.group(2) : predicate.group(3));
+            }
+            steps.add(new Step(
+                    step.group(1).length() == 2,
+                    "*".equals(step.group(2)) ? null : step.group(2),
+                    attributes.toArray(new String[0]),
+                    values.toArray(new String[0])));
+            position = step.end();
+        }
+        String attribute = null;
+        if (position < path.length()) {
+            Matcher attributeStep = ATTRIBUTE_STEP.matcher(path);
+            if (!attributeStep.find(position)
+                    || attributeStep.start() != position
+                    || attributeStep.end() != path.length()) {
+                return null;
+            }
+            attribute = attributeStep.group(1);
+        }
+        if (steps.isEmpty()) {
+            return null;
+        }
+        return new LocationPath(steps.toArray(new Step[0]), attribute);
+    }
+
+    /**
+     * Evaluates the expression over the given document.
+     *
+     * @param in         the XML document
+     * @param returnType one of the {@link XPathConstants} types
+     * @return the result, of the same type as returned by
+     * {@link javax.xml.xpath.XPathExpression#evaluate(Object, QName)}
+     * @throws XMLStreamException if the document can't be parsed
+     */
+    Object evaluate(InputStream in, QName returnType) throws XMLStreamException {
+        boolean firstOnly = !XPathConstants.NODESET.equals(returnType);
+        List<Node> nodes = select(in, firstOnly);
+        if (XPathConstants.NODESET.equals(returnType)) {
+            return new ResultNodeList(nodes);
+        }
+        Node first = nodes.isEmpty() ? null : nodes.get(0);
+        if (XPathConstants.NODE.equals(returnType)) {
+            return first;
+        }
+        if (XPathConstants.BOOLEAN.equals(returnType)) {
+            return first != null;
+        }
+        String string = first != null ? first.getTextContent() : "";
+        if (XPathConstants.NUMBER.equals(returnType)) {
+            return toNumber(string);
+        }
+        return string;
+    }
+
+    /**
+     * Returns the number of a string like the XPath {@code number()} function
+     * does: an optional minus sign and digits with an optional decimal point,
+     * between optional whitespace. Anything else, like an exponent, a plus
+     * sign or {@code Infinity}, is NaN.
+     */
+    static double toNumber(String string) {
+        int start = 0;
+        int end = string.length();
+        while (start < end && isWhitespace(string.charAt(start))) {
+            start++;
+        }
+        while (end > start && isWhitespace(string.charAt(end - 1))) {
+            end--;
+        }
+        int i = start < end && string.charAt(start) == '-' ? start + 1 : start;
+        boolean digits = false;
+        boolean point = false;
+        for (; i < end; i++) {
+            char c = string.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits = true;
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                return Double.NaN;
+            }
+        }
+        return digits ? Double.parseDouble(string.substring(start, end)) : Double.NaN;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\r' || c == '\n';
+    }
+
+    /**
+     * The state of an open element of the document.
+     */
+    private static final class Frame {
+        /**
+         * The steps still to match below this element, as
+         * {@code path << 16 | step}.
+         */
+        private int[] states;
+
+        private int stateCount;
+
+        private String name;
+        private String[] attributeNames;
+        private String[] attributeValues;
+
+        /**
+         * The copy of this element, if it is part of a selected subtree.
+         */
+        private Element copy;
+
+        /**
+         * The copy of this element that is the parent of its selected
+         * children, if it isn't selected itself, or the document for the
+         * parent of the root element.
+         */
+        private Node stub;
+
+        void addState(int state) {
+            for (int i = 0; i < stateCount; i++) {
+                if (states[i] == state) {
+                    return;
+                }
+            }
+            if (stateCount == states.length) {
+                states = Arrays.copyOf(states, stateCount * 2);
+            }
+            states[stateCount++] = state;
+        }
+    }
+
+    private List<Node> select(InputStream in, boolean firstOnly) throws XMLStreamException {
+        Document document;
+        try {
+            document = DOCUMENT_FACTORY.get().newDocumentBuilder().newDocument();
+        } catch (ParserConfigurationException e) {
+            throw new XMLStreamException(e);
+        }
+        List<Node> selected = new ArrayList<>();
+        List<Frame> stack = new ArrayList<>();
+        Frame root = new Frame();
+        root.states = new int[Math.max(4, paths.length)];
+        for (int p = 0; p < paths.length; p++) {
+            root.addState(p << 16);
+        }
+        stack.add(root);
+        int depth = 0;
+
+        XMLStreamReader reader = INPUT_FACTORY.get().createXMLStreamReader(in);
+        try {
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.DTD:
+                        throw new XMLStreamException("DOCTYPE is disallowed", reader.getLocation());
+                    case XMLStreamConstants.START_ELEMENT:
+                        Frame parent = stack.get(depth);
+                        depth++;
+                        if (stack.size() == depth) {
+                            Frame created = new Frame();
+                            created.states = new int[4];
+                            stack.add(created);
+                        }
+                        Frame frame = stack.get(depth);
+                        frame.stateCount = 0;
+                        frame.copy = null;
+                        frame.stub = null;
+                        frame.name = null;
+                        match(reader, parent, frame, document, selected);
+                        if (frame.copy == null && parent.copy != null) {
+                            // inside a selected subtree
+                            frame.copy = copy(document, reader);
+                            parent.copy.appendChild(frame.copy);
+                        }
+                        if (frame.stateCount > 0) {
+                            // may become the parent of selected elements
+                            frame.name = reader.getLocalName();
+                            frame.attributeNames = new String[reader.getAttributeCount()];
+                            frame.attributeValues = new String[frame.attributeNames.length];
+                            for (int i = 0; i < frame.attributeNames.length; i++) {
+                                frame.attributeNames[i] = reader.getAttributeLocalName(i);
+                                frame.attributeValues[i] = reader.getAttributeValue(i);
+                            }
+                        }
+                        if (firstOnly && !selected.isEmpty() && selected.get(0) instanceof Attr) {
+                            return selected;
+                        }
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        Frame closed = stack.get(depth);
+                        depth--;
+                        if (firstOnly && !selected.isEmpty() && closed.copy != null && stack.get(depth).copy == null) {
+                            // the first selected subtree is complete
+                            return selected;
+                        }
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                    case XMLStreamConstants.SPACE:
+                        Element copy = stack.get(depth).copy;
+                        if (copy != null) {
+                            copy.appendChild(document.createTextNode(reader.getText()));
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return selected;
+    }
+
+    private void match(XMLStreamReader reader, Frame parent, Frame frame, Document document, List<Node> selected) {
+        boolean elementSelected = false;
+        List<String> selectedAttributes = null;
+        for (int s = 0; s < parent.stateCount; s++) {
+            int state = parent.states[s];
+            LocationPath path = paths[state >>> 16];
+            int index = state & 0xFFFF;
+            Step step = path.steps[index];
+            if (step.descendant) {
+                // keep looking for the step further down
+                frame.addState(state);
+            }
+            if (!step.matches(reader)) {
+                continue;
+            }
+            if (index + 1 < path.steps.length) {
+                frame.addState(state + 1);
+            } else if (path.attribute == null) {
+                elementSelected = true;
+            } else if (reader.getAttributeValue(null, path.attribute) != null) {
+                if (selectedAttributes == null) {
+                    selectedAttributes = new ArrayList<>();
+                }
+                if (!selectedAttributes.contains(path.attribute)) {
+                    selectedAttributes.add(path.attribute);
+                }
+            }
+        }
+        if (elementSelected) {
+            frame.copy = copy(document, reader);
+            if (parent.copy != null) {
+                // nested in another selected element
+                parent.copy.appendChild(frame.copy);
+            } else {
+                if (parent.stub == null) {
+                    parent.stub = copy(document, parent);
+                }
+                parent.stub.appendChild(frame.copy);
+            }
+            selected.add(frame.copy);
+        }
+        if (selectedAttributes != null) {
+            for (String name : selectedAttributes) {
+                Attr attribute = document.createAttribute(name);
+                attribute.setValue(reader.getAttributeValue(null, name));
+                selected.add(attribute);
+            }
+        }
+    }
+
+    private static Element copy(Document document, XMLStreamReader reader) {
+        Element element = document.createElement(reader.getLocalName());
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            element.setAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+        }
+        return element;
+    }
+
+    private static Node copy(Document document, Frame frame) {
+        if (frame.name == null) {
+            // the parent of the root element
+            return document;
+        }
+        Element element = document.createElement(frame.name);
+        for (int i = 0; i < frame.attributeNames.length; i++) {
+            element.setAttribute(frame.attributeNames[i], frame.attributeValues[i]);
+        }
+        return element;
+    }
+
+    private static final class ResultNodeList implements NodeList {
+        private final List<Node> nodes;
+
+        ResultNodeList(List<Node> nodes) {
+            this.nodes = nodes;
+        }
+
+        @Override
+        public Node item(int index) {
+            return index >= 0 && index < nodes.size() ? nodes.get(index) : null;
+        }
+
+        @Override
+        public int getLength() {
+            return nodes.size();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package hudson.plugins.plot;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The URL configured for a series, split once into its literal parts and its
+ * {@code %name%}, {@code %index%} and {@code %build%} placeholders so that the
+ * URL of each point is rendered in a single pass.
+ * <p>
+ * The placeholders are found the way they used to be replaced one after the
+ * other: first {@code %name%}, then {@code %index%} in what is left of the
+ * template, then {@code %build%}. The values are inserted as they are.
+ */
+final class UrlTemplate {
+    private static final String[] PLACEHOLDERS = {"%name%", "%index%", "%build%"};
+
+    private static final int LITERAL = -1;
+    private static final int NAME = 0;
+    private static final int INDEX = 1;
+    private static final int BUILD = 2;
+
+    private final String template;
+
+    /**
+     * The parts of the template, each either {@link #LITERAL} with its text in
+     * {@link #literals} or one of the placeholders.
+     */
+    private final int[] kinds;
+
+    private final String[] literals;
+
+    private final boolean literal;
+
+    private UrlTemplate(String template, int[] kinds, String[] literals) {
+        this.template = template;
+        this.kinds = kinds;
+        this.literals = literals;
+        boolean literal = true;
+        for (int kind : kinds) {
+            literal &= kind == LITERAL;
+        }
+        this.literal = literal;
+    }
+
+    static UrlTemplate compile(String template) {
+        List<Integer> kinds = new ArrayList<>();
+        List<String> literals = new ArrayList<>();
+        kinds.add(LITERAL);
+        literals.add(template);
+        for (int placeholder = NAME; placeholder <= BUILD; placeholder++) {
+            String token = PLACEHOLDERS[placeholder];
+            for (int i = 0; i < kinds.size(); i++) {
+                String text = literals.get(i);
+                int found = kinds.get(i) == LITERAL ? text.indexOf(token) : -1;
+                if (found < 0) {
+                    continue;
+                }
+                // split the literal around the placeholder and look for more
+                // of it in the rest
+                kinds.set(i, placeholder);
+                literals.set(i, null);
+                kinds.add(i, LITERAL);
+                literals.add(i, text.substring(0, found));
+                kinds.add(i + 2, LITERAL);
+                literals.add(i + 2, text.substring(found + token.length()));
+                i++;
+            }
+        }
+
+        // drop the empty literals
+        List<Integer> keptKinds = new ArrayList<>();
+        List<String> keptLiterals = new ArrayList<>();
+        for (int i = 0; i < kinds.size(); i++) {
+            if (kinds.get(i) != LITERAL || !literals.get(i).isEmpty()) {
+                keptKinds.add(kinds.get(i));
+                keptLiterals.add(literals.get(i));
+            }
+        }
+        int[] kindArray = new int[keptKinds.size()];
+        for (int i = 0; i < kindArray.length; i++) {
+            kindArray[i] = keptKinds.get(i);
+        }
+        return new UrlTemplate(template, kindArray, keptLiterals.toArray(new String[0]));
+    }
+
+    String getTemplate() {
+        return template;
+    }
+
+    /**
+     * Returns whether the template has no placeholders, so that every point
+     * gets the template itself as URL.
+     */
+    boolean isLiteral() {
+        return literal;
+    }
+
+    /**
+     * Returns the URL of a point.
+     *
+     * @param name        the label of the point, null for an empty one
+     * @param index       the index of the point's column
+     * @param buildNumber the build number
+     */
+    String render(String name, int index, int buildNumber) {
+        if (literal) {
+            return template;
+        }
+        StringBuilder url = new StringBuilder(template.length() + 16);
+        for (int i = 0; i < kinds.length; i++) {
+            switch (kinds[i]) {
+                case NAME:
+                    if (name != null) {
+                        url.append(name);
+                    }
+                    break;
+                case INDEX:
+                    url.append(index);
+                    break;
+                case BUILD:
+                    url.append(buildNumber);
+                    break;
+                default:
+                    url.append(literals[i]);
+                    break;
+            }
+        }
+        return url.toString();
+    }
+}
@@ -18,24 +18,26 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
-import java.util.Scanner;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
+import jenkins.util.SystemProperties;
 import jenkins.util.xml.XMLUtils;
 import net.sf.json.JSONObject;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.StaplerRequest2;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
 /**
@@ -50,6 +52,22 @@ public class XMLSeries extends Series {
 
     private static final Map<String, QName> Q_NAME_MAP;
 
+    /**
+     * XPath engines are neither thread safe nor cheap to look up, so each
+     * thread keeps its own.
+     */
+    private static final ThreadLocal<XPath> XPATH =
+            ThreadLocal.withInitial(() -> XPathFactory.newInstance().newXPath());
+
+    /**
+     * Files of at least this many bytes are evaluated while they are read,
+     * rather than loaded into a DOM first, if the XPath allows it. A negative
+     * value always uses a DOM. Not final so it can be changed from the script
+     * console.
+     */
+    static long STREAMING_THRESHOLD =
+            SystemProperties.getLong(XMLSeries.class.getName() + ".streamingThreshold", 16L * 1024 * 1024);
+
     /*
      Fill out the qName map for easy reference.
     */
@@ -87,6 +105,18 @@ public class XMLSeries extends Series {
      */
     private transient QName nodeType;
 
+    /**
+     * The XPath compiled on first use, per thread as compiled expressions
+     * aren't thread safe either.
+     */
+    private transient ThreadLocal<XPathExpression> compiledXpath;
+
+    /**
+     * The XPath compiled for evaluation over a stream, or null if it is
+     * outside the supported subset.
+     */
+    private transient StreamingXPath streamingXpath;
+
     @DataBoundConstructor
     public XMLSeries(String file, String xpath, String nodeType, String url) {
         super(file, "", "xml");
@@ -95,14 +125,27 @@ public class XMLSeries extends Series {
         this.nodeTypeString = nodeType;
         this.nodeType = Q_NAME_MAP.get(nodeType);
         this.url = url;
+        this.compiledXpath = new ThreadLocal<>();
+        this.streamingXpath = StreamingXPath.compile(xpath);
     }
 
     private Object readResolve() {
         // Set nodeType when deserialized
         nodeType = Q_NAME_MAP.get(nodeTypeString);
+        compiledXpath = new ThreadLocal<>();
+        streamingXpath = StreamingXPath.compile(xpathString);
         return this;
     }
 
+    private XPathExpression getCompiledXpath() throws XPathExpressionException {
+        XPathExpression expression = compiledXpath.get();
+        if (expression == null) {
+            expression = XPATH.get().compile(xpathString);
+            compiledXpath.set(expression);
+        }
+        return expression;
+    }
+
     public String getXpath() {
         return xpathString;
     }
@@ -116,16 +159,15 @@ public class XMLSeries extends Series {
     }
 
     /**
+     * Adds points where the label is the element name and the value is the
+     * node content.
+     *
      * @param buildNumber the build number
-     * @return a List of PlotPoints where the label is the element name and the
-     * value is the node content.
      */
-    private List<PlotPoint> mapNodeNameAsLabelTextContentAsValueStrategy(NodeList nodeList, int buildNumber) {
-        List<PlotPoint> retval = new ArrayList<>();
+    private void mapNodeNameAsLabelTextContentAsValueStrategy(NodeList nodeList, int buildNumber, PointSink sink) {
         for (int i = 0; i < nodeList.getLength(); i++) {
-            this.addNodeToList(retval, nodeList.item(i), buildNumber);
+            this.addNodeToList(sink, nodeList.item(i), buildNumber);
         }
-        return retval;
     }
 
     /**
@@ -134,12 +176,13 @@ public class XMLSeries extends Series {
      * values share a common parent. If a node has attributes and is empty that
      * node will be re-enqueued as a parent to its attributes.
      *
+     * Adds points where the label is the last non numeric text content and the
+     * value is the last numeric text content for each set of nodes under a
+     * given parent.
+     *
      * @param buildNumber the build number
-     * @return a list of PlotPoints where the label is the last non numeric
-     * text content and the value is the last numeric text content for
-     * each set of nodes under a given parent.
      */
-    private List<PlotPoint> coalesceTextnodesAsLabelsStrategy(NodeList nodeList, int buildNumber) {
+    private void coalesceTextnodesAsLabelsStrategy(NodeList nodeList, int buildNumber, PointSink sink) {
         Map<Node, List<Node>> parentNodeMap = new HashMap<>();
 
         for (int i = 0; i < nodeList.getLength(); i++) {
@@ -150,7 +193,7 @@ public class XMLSeries extends Series {
             parentNodeMap.get(node.getParentNode()).add(node);
         }
 
-        List<PlotPoint> retval = new ArrayList<>();
+        NumberParser numbers = NumberParser.forDefaultLocale();
         Queue<Node> parents = new ArrayDeque<>(parentNodeMap.keySet());
         while (!parents.isEmpty()) {
             Node parent = parents.poll();
@@ -158,8 +201,8 @@ public class XMLSeries extends Series {
             String label = null;
 
             for (Node child : parentNodeMap.get(parent)) {
-                if (null == child.getTextContent()
-                        || child.getTextContent().trim().isEmpty()) {
+                String text = StringUtils.trimToEmpty(child.getTextContent());
+                if (text.isEmpty()) {
                     NamedNodeMap attrmap = child.getAttributes();
                     List<Node> attrs = new ArrayList<>();
                     for (int i = 0; i < attrmap.getLength(); i++) {
@@ -167,51 +210,61 @@ public class XMLSeries extends Series {
                     }
                     parentNodeMap.put(child, attrs);
                     parents.add(child);
-                } else if (new Scanner(child.getTextContent().trim()).hasNextDouble()) {
-                    value = new Scanner(child.getTextContent().trim()).nextDouble();
+                } else if (numbers.isNumber(text)) {
+                    value = numbers.parse(text);
                 } else {
-                    label = child.getTextContent().trim();
+                    label = text;
                 }
             }
             if ((label != null) && (value != null)) {
-                addValueToList(retval, label, String.valueOf(value), buildNumber);
+                addValueToList(sink, label, String.valueOf(value), buildNumber);
             }
         }
-        return retval;
     }
 
     /**
-     * Load the series from a properties file.
+     * Load the series from the matched XML files.
      */
     @Override
-    public List<PlotPoint> loadSeries(FilePath workspaceRootDir, int buildNumber, PrintStream logger) {
-        InputStream in = null;
-        InputSource inputSource;
+    public boolean loadSeries(FilePath workspaceRootDir, int buildNumber, PrintStream logger, PointSink sink) {
+        FilePath[] seriesFiles;
 
         try {
-            List<PlotPoint> ret = new ArrayList<>();
-            FilePath[] seriesFiles;
+            seriesFiles = workspaceRootDir.list(getFile());
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, "Exception trying to retrieve series files", e);
+            return false;
+        }
 
-            try {
-                seriesFiles = workspaceRootDir.list(getFile());
-            } catch (Exception e) {
-                LOGGER.log(Level.SEVERE, "Exception trying to retrieve series files", e);
-                return null;
-            }
+        if (ArrayUtils.isEmpty(seriesFiles)) {
+            LOGGER.info("No plot data file found: " + getFile());
+            return false;
+        }
 
-            if (ArrayUtils.isEmpty(seriesFiles)) {
-                LOGGER.info("No plot data file found: " + getFile());
-                return null;
-            }
+        return loadSeriesFiles(
+                workspaceRootDir,
+                seriesFiles,
+                buildNumber,
+                (f, fingerprint, s) -> loadSeriesFile(f, buildNumber, logger, s),
+                sink);
+    }
+
+    private boolean loadSeriesFile(FilePath seriesFile, int buildNumber, PrintStream logger, PointSink sink) {
+        InputStream in = null;
+        long length;
 
+        try {
             try {
                 if (LOGGER.isLoggable(DEFAULT_LOG_LEVEL)) {
-                    LOGGER.log(DEFAULT_LOG_LEVEL, "Loading plot series data from: " + getFile());
+                    LOGGER.log(DEFAULT_LOG_LEVEL, "Loading plot series data from: " + seriesFile);
                 }
-                in = seriesFiles[0].read();
+                // the uncompressed size of a gzipped report isn't known, it
+                // is taken as a large one
+                length = SeriesFiles.isGzipped(seriesFile) ? Long.MAX_VALUE : seriesFile.length();
+                in = SeriesFiles.open(seriesFile);
             } catch (Exception e) {
-                LOGGER.log(Level.SEVERE, "Exception reading plot series data from " + seriesFiles[0], e);
-                return null;
+                LOGGER.log(Level.SEVERE, "Exception reading plot series data from " + seriesFile, e);
+                return false;
             }
 
             if (LOGGER.isLoggable(DEFAULT_LOG_LEVEL)) {
@@ -219,11 +272,16 @@ public class XMLSeries extends Series {
             }
 
             if (LOGGER.isLoggable(DEFAULT_LOG_LEVEL)) {
-                LOGGER.log(DEFAULT_LOG_LEVEL, "Loaded XML Plot file: " + getFile());
+                LOGGER.log(DEFAULT_LOG_LEVEL, "Loaded XML Plot file: " + seriesFile);
             }
 
-            XPath xpath = XPathFactory.newInstance().newXPath();
-            Object xmlObject = xpath.evaluate(xpathString, XMLUtils.parse(in), nodeType);
+            Object xmlObject;
+            if (streamingXpath != null && STREAMING_THRESHOLD >= 0 && length >= STREAMING_THRESHOLD) {
+                // large reports would take many times their size as a DOM
+                xmlObject = streamingXpath.evaluate(in, nodeType);
+            } else {
+                xmlObject = getCompiledXpath().evaluate(XMLUtils.parse(in), nodeType);
+            }
 
             /*
              * If we have a nodeset, we need multiples, otherwise we just need
@@ -235,15 +293,17 @@ public class XMLSeries extends Series {
                     LOGGER.log(DEFAULT_LOG_LEVEL, "Number of nodes: " + nl.getLength());
                 }
 
+                NumberParser numbers = NumberParser.forDefaultLocale();
                 for (int i = 0; i < nl.getLength(); i++) {
                     Node node = nl.item(i);
-                    if (!new Scanner(node.getTextContent().trim()).hasNextDouble()) {
-                        return coalesceTextnodesAsLabelsStrategy(nl, buildNumber);
+                    if (!numbers.isNumber(node.getTextContent())) {
+                        coalesceTextnodesAsLabelsStrategy(nl, buildNumber, sink);
+                        return true;
                     }
                 }
-                return mapNodeNameAsLabelTextContentAsValueStrategy(nl, buildNumber);
+                mapNodeNameAsLabelTextContentAsValueStrategy(nl, buildNumber, sink);
             } else if (nodeType.equals(XPathConstants.NODE)) {
-                addNodeToList(ret, (Node) xmlObject, buildNumber);
+                addNodeToList(sink, (Node) xmlObject, buildNumber);
             } else {
                 // otherwise we have a single type and can do a toString on it.
                 if (xmlObject instanceof NodeList nl) {
@@ -256,17 +316,17 @@ public class XMLSeries extends Series {
                         Node n = nl.item(i);
 
                         if (n != null && n.getLocalName() != null && n.getTextContent() != null) {
-                            addValueToList(ret, label, xmlObject, buildNumber);
+                            addValueToList(sink, label, xmlObject, buildNumber);
                         }
                     }
                 } else {
-                    addValueToList(ret, label, xmlObject, buildNumber);
+                    addValueToList(sink, label, xmlObject, buildNumber);
                 }
             }
-            return ret;
+            return true;
         } catch (XPathExpressionException e) {
             LOGGER.log(Level.SEVERE, "XPathExpressionException for XPath '" + getXpath() + "'", e);
-        } catch (SAXException e) {
+        } catch (SAXException | XMLStreamException e) {
             if (logger != null) {
                 logger.println(e.getMessage());
             }
@@ -277,16 +337,16 @@ public class XMLSeries extends Series {
             IOUtils.closeQuietly(in);
         }
 
-        return null;
+        return false;
     }
 
-    private void addNodeToList(List<PlotPoint> ret, Node n, int buildNumber) {
+    private void addNodeToList(PointSink sink, Node n, int buildNumber) {
         NamedNodeMap nodeMap = n.getAttributes();
 
         if ((null != nodeMap) && (null != nodeMap.getNamedItem("name"))) {
-            addValueToList(ret, nodeMap.getNamedItem("name").getTextContent().trim(), n, buildNumber);
+            addValueToList(sink, nodeMap.getNamedItem("name").getTextContent().trim(), n, buildNumber);
         } else {
-            addValueToList(ret, n.getNodeName().trim(), n, buildNumber);
+            addValueToList(sink, n.getNodeName().trim(), n, buildNumber);
         }
     }
 
@@ -334,25 +394,25 @@ public class XMLSeries extends Series {
 
         // for Node/String/NodeSet, try and parse it as a double.
         // we don't store a double, so just throw away the result.
-        Scanner scanner = new Scanner(ret);
-        if (scanner.hasNextDouble()) {
-            return String.valueOf(scanner.nextDouble());
+        NumberParser numbers = NumberParser.forDefaultLocale();
+        if (numbers.isNumber(ret)) {
+            return String.valueOf(numbers.parse(ret));
         }
         return null;
     }
 
     /**
-     * Add a given value to the list of results. This encapsulates some
+     * Add a given value to the results. This encapsulates some
      * otherwise duplicate logic due to nodeset/!nodeset
      */
-    private void addValueToList(List<PlotPoint> list, String label, Object nodeValue, int buildNumber) {
+    private void addValueToList(PointSink sink, String label, Object nodeValue, int buildNumber) {
         String value = nodeToString(nodeValue);
 
         if (value != null) {
             if (LOGGER.isLoggable(DEFAULT_LOG_LEVEL)) {
                 LOGGER.log(DEFAULT_LOG_LEVEL, "Adding node: " + label + " value: " + value);
             }
-            list.add(new PlotPoint(value, getUrl(url, label, 0, buildNumber), label));
+            addPoint(sink, value, url, label, 0, buildNumber);
         } else {
             if (LOGGER.isLoggable(DEFAULT_LOG_LEVEL)) {
                 LOGGER.log(DEFAULT_LOG_LEVEL, "Unable to add node: " + label + " value: " + nodeValue);
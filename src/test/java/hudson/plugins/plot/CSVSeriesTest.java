@@ -13,11 +13,16 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import com.opencsv.CSVReader;
 import hudson.FilePath;
+import java.io.File;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 /**
  * Test a CSV series.
@@ -158,6 +163,23 @@ class CSVSeriesTest {
         testPlotPoints(points, 3);
     }
 
+    @Test
+    void testExcludeByRegexWithBackreference() {
+        /*
+         * header before:       RunId,Trend Measurement Type,HTTP_200,HTTP_201,HTTP_302,HTTP_500,Hits,Throughput,
+         * header afterwards:   HTTP_200,HTTP_201,HTTP_302
+         */
+        CSVSeries series = new CSVSeries(
+                "test_regex_webstatistics.csv",
+                null,
+                "EXCLUDE_BY_STRING",
+                "\"HTTP_5(0)\\1\",\"Hits\",\"Thr.*\",\"RunId\",\"Trend .*\"",
+                false);
+        List<PlotPoint> points = series.loadSeries(WORKSPACE_ROOT_DIR, 0, System.out);
+        LOGGER.info("Got " + points.size() + " plot points");
+        testPlotPoints(points, 3);
+    }
+
     @Test
     void testExcludeColumnWithParentheses() {
         /*
@@ -305,6 +327,102 @@ class CSVSeriesTest {
         testPlotPoints(points, 2);
     }
 
+    @Test
+    void testUnchangedFilesAreReadOnce(@TempDir File dir) throws Exception {
+        File data = new File(dir, "data.csv");
+        Files.writeString(data.toPath(), "a,b\n1,2\n");
+        FilePath workspace = new FilePath(dir);
+        File job = new File(dir, "job");
+        CSVSeries series = new CSVSeries("data.csv", "http://host/%build%/%name%", "OFF", "", false);
+        series.setLabelPrefix(true);
+        AtomicInteger reads = new AtomicInteger();
+
+        boolean reuse = Series.REUSE_UNCHANGED_FILES;
+        Series.REUSE_UNCHANGED_FILES = true;
+        try {
+            assertEquals(List.of("data.csv: a=/1/a", "data.csv: b=/1/b"), load(series, workspace, job, 1, reads));
+            assertEquals(1, reads.get());
+
+            // the points are reused, with the urls of the new build
+            assertEquals(List.of("data.csv: a=/2/a", "data.csv: b=/2/b"), load(series, workspace, job, 2, reads));
+            assertEquals(1, reads.get());
+
+            Files.writeString(data.toPath(), "a,b\n3,4\n");
+            assertTrue(data.setLastModified(data.lastModified() + 10_000));
+            assertEquals(List.of("data.csv: a=/3/a", "data.csv: b=/3/b"), load(series, workspace, job, 3, reads));
+            assertEquals(2, reads.get());
+
+            // the points are only reused by the builds of the same job
+            load(series, workspace, new File(dir, "other"), 4, reads);
+            assertEquals(3, reads.get());
+
+            // nor once the job is gone
+            Series.forget(job::equals);
+            load(series, workspace, job, 4, reads);
+            assertEquals(4, reads.get());
+        } finally {
+            Series.REUSE_UNCHANGED_FILES = reuse;
+        }
+    }
+
+    @Test
+    void filesOfTemporarySeriesAreReadEveryTime(@TempDir File dir) throws Exception {
+        Files.writeString(new File(dir, "data.csv").toPath(), "a,b\n1,2\n");
+        FilePath workspace = new FilePath(dir);
+        File job = new File(dir, "job");
+        CSVSeries series = new CSVSeries("data.csv", "http://host/%build%/%name%", "OFF", "", false);
+        series.setLabelPrefix(true);
+        series.setTemporary();
+        AtomicInteger reads = new AtomicInteger();
+
+        boolean reuse = Series.REUSE_UNCHANGED_FILES;
+        Series.REUSE_UNCHANGED_FILES = true;
+        try {
+            assertEquals(List.of("data.csv: a=/1/a", "data.csv: b=/1/b"), load(series, workspace, job, 1, reads));
+            assertEquals(List.of("data.csv: a=/2/a", "data.csv: b=/2/b"), load(series, workspace, job, 2, reads));
+            assertEquals(2, reads.get());
+        } finally {
+            Series.REUSE_UNCHANGED_FILES = reuse;
+        }
+    }
+
+    @Test
+    void filesAreReadEveryTimeByDefault(@TempDir File dir) throws Exception {
+        Files.writeString(new File(dir, "data.csv").toPath(), "a,b\n1,2\n");
+        FilePath workspace = new FilePath(dir);
+        File job = new File(dir, "job");
+        CSVSeries series = new CSVSeries("data.csv", "http://host/%build%/%name%", "OFF", "", false);
+        AtomicInteger reads = new AtomicInteger();
+
+        assertEquals(List.of("a=/1/a", "b=/1/b"), load(series, workspace, job, 1, reads));
+        assertEquals(List.of("a=/2/a", "b=/2/b"), load(series, workspace, job, 2, reads));
+        assertEquals(2, reads.get());
+    }
+
+    /**
+     * Loads the series in a build of the given job, with a loader that counts
+     * how often it is called, and returns the label and url path of each
+     * point.
+     */
+    private static List<String> load(
+            CSVSeries series, FilePath workspace, File job, int buildNumber, AtomicInteger reads) throws Exception {
+        List<String> points = new ArrayList<>();
+        PointSink sink = (yvalue, url, label) -> points.add(label + "=" + url.substring("http://host".length()));
+        try (SharedExtraction shared = SharedExtraction.open(workspace, buildNumber, job)) {
+            series.loadSeriesFiles(
+                    workspace,
+                    workspace.list(series.getFile()),
+                    buildNumber,
+                    (f, fingerprint, s) -> {
+                        reads.incrementAndGet();
+                        CSVSeries reader = new CSVSeries(f.getName(), series.getUrl(), "OFF", "", false);
+                        return reader.loadSeries(workspace, buildNumber, System.out, s);
+                    },
+                    sink);
+        }
+        return points;
+    }
+
     private static int getNumColumns(String file) throws Exception {
         FilePath[] seriesFiles = WORKSPACE_ROOT_DIR.list(file);
         assertFalse(
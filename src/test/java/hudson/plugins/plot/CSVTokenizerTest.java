@@ -0,0 +1,187 @@
+package hudson.plugins.plot;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.opencsv.CSVReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that CSV data is split into the same fields as with opencsv.
+ */
+class CSVTokenizerTest {
+    private static final String[] FILES = {
+        "test.csv",
+        "test_exclusions.csv",
+        "test_multiple1.csv",
+        "test_regex_by_suffix.csv",
+        "test_regex_parentheses.csv",
+        "test_regex_webstatistics.csv",
+        "test_trailing_semicolon.csv",
+        "test_trailing_spaces.csv"
+    };
+
+    @Test
+    void testFilesAreSplitLikeOpencsv() throws Exception {
+        for (String file : FILES) {
+            List<String[]> expected = new ArrayList<>();
+            try (CSVReader reader = new CSVReader(open(file))) {
+                String[] line;
+                while ((line = reader.readNext()) != null) {
+                    expected.add(line);
+                }
+            }
+            List<String[]> actual;
+            try (CSVTokenizer tokenizer = new CSVTokenizer(open(file))) {
+                actual = readAll(tokenizer);
+            }
+            assertEquals(expected.size(), actual.size(), file);
+            for (int i = 0; i < expected.size(); i++) {
+                assertArrayEquals(expected.get(i), actual.get(i), file + " line " + i);
+            }
+        }
+    }
+
+    @Test
+    void testQuotedFields() throws Exception {
+        List<String[]> records = readAll(
+                new CSVTokenizer(new StringReader("\"a,b\",\"say \"\"hi\"\"\",\"x\\\"y\"\n\"multi\nline\",2\r\n,\n")));
+        assertEquals(3, records.size());
+        assertArrayEquals(new String[] {"a,b", "say \"hi\"", "x\"y"}, records.get(0));
+        assertArrayEquals(new String[] {"multi\nline", "2"}, records.get(1));
+        assertArrayEquals(new String[] {"", ""}, records.get(2));
+    }
+
+    @Test
+    void testSkippedFields() throws Exception {
+        CSVTokenizer tokenizer = new CSVTokenizer(new StringReader("a,\"b,c\",d\n1,2,3\n"));
+        assertTrue(tokenizer.nextRecord());
+        assertTrue(tokenizer.skipField());
+        assertTrue(tokenizer.skipField());
+        assertTrue(tokenizer.nextField());
+        assertEquals(2, tokenizer.getColumn());
+        assertEquals("d", tokenizer.getField());
+        assertFalse(tokenizer.nextField());
+
+        // the rest of a record is skipped when moving to the next one
+        assertTrue(tokenizer.nextRecord());
+        assertTrue(tokenizer.nextField());
+        assertEquals("1", tokenizer.getField());
+        assertFalse(tokenizer.nextRecord());
+    }
+
+    @Test
+    void testSkippingLeavesTheOtherFieldsUnchanged() throws Exception {
+        String data = "\"a,b\",\"say \"\"hi\"\"\",\"x\\\"y\",  \"q\" ,z\\,\n\"multi\nline\",2\r\n,\nab\"c\"d,\"\"\n";
+        List<String[]> records = readAll(new CSVTokenizer(new StringReader(data)));
+        for (int skipped = 0; skipped < 6; skipped++) {
+            CSVTokenizer tokenizer = new CSVTokenizer(new StringReader(data));
+            for (String[] record : records) {
+                assertTrue(tokenizer.nextRecord());
+                for (int column = 0; column < record.length; column++) {
+                    if (column == skipped) {
+                        assertTrue(tokenizer.skipField());
+                        assertEquals("", tokenizer.getField());
+                    } else {
+                        assertTrue(tokenizer.nextField());
+                        assertEquals(record[column], tokenizer.getField());
+                    }
+                    assertEquals(column, tokenizer.getColumn());
+                }
+                assertFalse(tokenizer.skipField());
+            }
+            assertFalse(tokenizer.nextRecord());
+        }
+    }
+
+    @Test
+    void testUnterminatedQuote() {
+        CSVTokenizer tokenizer = new CSVTokenizer(new StringReader("\"abc\n"));
+        assertThrows(IOException.class, () -> readAll(tokenizer));
+    }
+
+    @Test
+    void testTrimmedFields() throws Exception {
+        CSVTokenizer tokenizer = new CSVTokenizer(new StringReader(" 1.5 ,\" \",\t\n"));
+        assertTrue(tokenizer.nextRecord());
+        assertTrue(tokenizer.nextField());
+        assertFalse(tokenizer.isBlank());
+        assertEquals("1.5", tokenizer.getTrimmedField());
+        assertTrue(tokenizer.nextField());
+        assertTrue(tokenizer.isBlank());
+        assertEquals("", tokenizer.getTrimmedField());
+        assertTrue(tokenizer.nextField());
+        assertTrue(tokenizer.isBlank());
+        assertFalse(tokenizer.nextField());
+    }
+
+    @Test
+    void testInternedFields() throws Exception {
+        CSVTokenizer tokenizer = new CSVTokenizer(new StringReader("a,b\n\"a\",b\nc,a\n"));
+        List<String> fields = new ArrayList<>();
+        while (tokenizer.nextRecord()) {
+            while (tokenizer.nextField()) {
+                fields.add(tokenizer.getInternedField());
+            }
+        }
+        assertEquals(List.of("a", "b", "a", "b", "c", "a"), fields);
+        assertSame(fields.get(0), fields.get(2));
+        assertSame(fields.get(0), fields.get(5));
+        assertSame(fields.get(1), fields.get(3));
+    }
+
+    @Test
+    void testFieldsLargerThanTheBuffer() throws Exception {
+        StringBuilder data = new StringBuilder();
+        String[] record = {"x".repeat(20_000), "say \"hi\"".repeat(3_000), "", "y"};
+        for (int i = 0; i < 3; i++) {
+            data.append(record[0]).append(",\"");
+            data.append(record[1].replace("\"", "\"\"")).append("\",,y\r\n");
+        }
+        List<String[]> records = readAll(new CSVTokenizer(new StringReader(data.toString())));
+        assertEquals(3, records.size());
+        for (String[] actual : records) {
+            assertArrayEquals(record, actual);
+        }
+
+        CSVTokenizer tokenizer = new CSVTokenizer(new StringReader(data.toString()));
+        while (tokenizer.nextRecord()) {
+            assertTrue(tokenizer.skipField());
+            assertTrue(tokenizer.skipField());
+            assertTrue(tokenizer.nextField());
+            assertTrue(tokenizer.nextField());
+            assertEquals("y", tokenizer.getField());
+        }
+    }
+
+    private static List<String[]> readAll(CSVTokenizer tokenizer) throws IOException {
+        List<String[]> records = new ArrayList<>();
+        while (tokenizer.nextRecord()) {
+            List<String> fields = new ArrayList<>();
+            while (tokenizer.nextField()) {
+                fields.add(tokenizer.getField());
+            }
+            records.add(fields.toArray(new String[0]));
+        }
+        return records;
+    }
+
+    private static Reader open(String file) {
+        InputStream in = CSVTokenizerTest.class.getResourceAsStream("/" + file);
+        assertNotNull(in, file);
+        return new InputStreamReader(in, StandardCharsets.UTF_8);
+    }
+}
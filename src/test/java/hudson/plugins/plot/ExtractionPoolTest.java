@@ -0,0 +1,92 @@
+package hudson.plugins.plot;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class ExtractionPoolTest {
+
+    @Test
+    void resultsKeepSubmissionOrder() {
+        List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            items.add(i);
+        }
+
+        List<String> results = ExtractionPool.map(items, i -> {
+            sleepRandomly();
+            return "item-" + i;
+        });
+
+        assertEquals(items.size(), results.size());
+        for (int i = 0; i < items.size(); i++) {
+            assertEquals("item-" + i, results.get(i));
+        }
+    }
+
+    @Test
+    void nestedExtractionDoesNotDeadlock() {
+        List<Integer> outer = List.of(0, 1, 2, 3, 4, 5, 6, 7);
+        List<Integer> inner = List.of(0, 1, 2, 3, 4, 5, 6, 7);
+
+        List<List<Integer>> results = ExtractionPool.map(outer, o -> ExtractionPool.map(inner, i -> {
+            sleepRandomly();
+            return o * 10 + i;
+        }));
+
+        for (int o = 0; o < outer.size(); o++) {
+            for (int i = 0; i < inner.size(); i++) {
+                assertEquals(o * 10 + i, results.get(o).get(i).intValue());
+            }
+        }
+    }
+
+    @Test
+    void blockedExtractionDoesNotHoldUpOthers() throws Exception {
+        CountDownLatch released = new CountDownLatch(1);
+        List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < 2 * ExtractionPool.PARALLELISM + 2; i++) {
+            items.add(i);
+        }
+        // like a build reading from an agent that doesn't answer
+        Thread blocked = new Thread(() -> ExtractionPool.map(items, i -> {
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return i;
+        }));
+        blocked.start();
+
+        assertEquals(items, ExtractionPool.map(items, i -> i));
+        released.countDown();
+        blocked.join(TimeUnit.SECONDS.toMillis(10));
+        assertFalse(blocked.isAlive());
+    }
+
+    @Test
+    void failuresArePropagated() {
+        assertThrows(IllegalStateException.class, () -> ExtractionPool.map(List.of(1, 2, 3), i -> {
+            if (i == 2) {
+                throw new IllegalStateException("broken series");
+            }
+            return i;
+        }));
+    }
+
+    private static void sleepRandomly() {
+        try {
+            TimeUnit.MILLISECONDS.sleep(ThreadLocalRandom.current().nextInt(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
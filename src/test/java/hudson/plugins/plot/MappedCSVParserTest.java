@@ -0,0 +1,88 @@
+package hudson.plugins.plot;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that the records of a buffer are split like {@link CSVTokenizer}
+ * splits them.
+ */
+class MappedCSVParserTest {
+
+    @Test
+    void testRecordsAreSplitLikeTheTokenizer() throws Exception {
+        String[] contents = {
+            "\"Title\",\"plot\"\n\"1\",\"a\",\"1\",\"0\",\"\"\n",
+            "1,a,1,0,\n2,b,2,0,%0:http://host/\n",
+            "\"1\",\"a, b\",\"1\",\"0\",\"\"\n",
+            "\"1\",\"say \"\"hi\"\"\",\"1\",\"0\",\"\"\n\"2\",\"a\",\"2\",\"0\",\"\"\n",
+            "\"1\",\"back\\slash\",\"1\",\"0\",\"\"\n\"2\",\"a\",\"2\",\"0\",\"\"\n",
+            "\"1\",\"escaped \\\"quote\",\"1\",\"0\",\"\"\n\"2\",\"a\",\"2\",\"0\",\"\"\n",
+            "\"1\",\"two\nlines\",\"1\",\"0\",\"\"\n\"2\",\"a\",\"2\",\"0\",\"\"\n",
+            "\"1\",\"a\",\"1\",\"0\",\"\"\r\n\"2\",\"a\",\"2\",\"0\",\"\"\r\n",
+            "\"1\",\"a\",\"1\"\n\n\"2\",\"a\",\"2\",\"0\",\"\"\n",
+            "\"1\",\"a\"x,\"1\", \"0\",\"\"\n\"2\",,\"2\",\"0\",\n",
+            "\"1\",\"\u00e9t\u00e9\",\"1\",\"0\",\"\"\n\"2\",\"\u00e9t\u00e9\",\"2\",\"0\",\"\"\n",
+            "\"1\",\"a\",\"1\",\"0\",\"\"",
+            "",
+        };
+        for (String content : contents) {
+            List<String[]> expected = new ArrayList<>();
+            try (CSVTokenizer tokenizer = new CSVTokenizer(new StringReader(content))) {
+                while (tokenizer.nextRecord()) {
+                    List<String> fields = new ArrayList<>();
+                    while (tokenizer.nextField()) {
+                        fields.add(tokenizer.getField());
+                    }
+                    expected.add(fields.toArray(new String[0]));
+                }
+            }
+            List<String[]> actual = parse(content, StandardCharsets.UTF_8);
+            assertEquals(expected.size(), actual.size(), content);
+            for (int i = 0; i < expected.size(); i++) {
+                assertArrayEquals(expected.get(i), actual.get(i), content + " record " + i);
+            }
+        }
+    }
+
+    @Test
+    void testRepeatedFieldsAreShared() throws Exception {
+        String row = "\"1\",\"a\",\"7\",\"0\",\"\"\n";
+        List<String[]> records = parse(row + row, StandardCharsets.UTF_8);
+        for (int i = 1; i < 5; i++) {
+            assertSame(records.get(0)[i], records.get(1)[i], "field " + i);
+        }
+        // the value of each row is its own
+        assertFalse(records.get(0)[0] == records.get(1)[0]);
+    }
+
+    @Test
+    void testSupportedCharsets() {
+        assertTrue(MappedCSVParser.supports(StandardCharsets.UTF_8));
+        assertTrue(MappedCSVParser.supports(StandardCharsets.ISO_8859_1));
+        assertTrue(MappedCSVParser.supports(StandardCharsets.US_ASCII));
+        assertFalse(MappedCSVParser.supports(StandardCharsets.UTF_16));
+        if (Charset.isSupported("Shift_JIS")) {
+            // has a backslash as the second byte of some characters
+            assertFalse(MappedCSVParser.supports(Charset.forName("Shift_JIS")));
+        }
+    }
+
+    private static List<String[]> parse(String content, Charset charset) throws Exception {
+        byte[] bytes = content.getBytes(charset);
+        List<String[]> records = new ArrayList<>();
+        new MappedCSVParser(ByteBuffer.wrap(bytes), charset).parse(bytes.length, records::add);
+        return records;
+    }
+}
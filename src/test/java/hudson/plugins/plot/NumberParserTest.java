@@ -0,0 +1,152 @@
+package hudson.plugins.plot;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.Scanner;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that numbers are recognized and parsed like Scanner does.
+ */
+class NumberParserTest {
+    private static final String[] TEXTS = {
+        "0",
+        "-0",
+        "+0",
+        "42",
+        "-42",
+        "+42",
+        "007",
+        "1.5",
+        "-1.5",
+        "1.",
+        ".5",
+        "-.5",
+        ".",
+        "-",
+        "+",
+        "1e3",
+        "1E-3",
+        "1.5e+10",
+        "1e",
+        "1e+",
+        "2.5e-400",
+        "1e400",
+        "1e99999999999",
+        "0.1",
+        "0.000000000000000000001",
+        "123456789012345",
+        "1234567890123456789012345",
+        "0.30000000000000004",
+        "9007199254740993",
+        "1,234",
+        "1,234.5",
+        "12,345,678",
+        "1,23",
+        "1,2345",
+        "0,123",
+        "1234,567",
+        "1.234",
+        "1.234,5",
+        "1.234.567",
+        "1,5",
+        "1\u00a0234,5",
+        "1\u202f234,5",
+        "NaN",
+        "-NaN",
+        "Infinity",
+        "-Infinity",
+        "+Infinity",
+        "\u221e",
+        "Inf",
+        "nan",
+        "0x1.8p1",
+        "-0x.8P-2",
+        "0x1.8",
+        "0x1p3",
+        "\u0661\u0662.\u0663",
+        "\u0967\u0968",
+        "12 ms",
+        "  12.5\n",
+        "ms 12",
+        "12ms",
+        "1d",
+        "1f",
+        "",
+        "   ",
+        "abc",
+        "1.5.5",
+        "--1",
+        "1-"
+    };
+
+    private static final Locale[] LOCALES = {Locale.US, Locale.GERMANY, Locale.FRANCE, new Locale("de", "CH")};
+
+    @Test
+    void numbersAreRecognizedLikeScanner() {
+        for (Locale locale : LOCALES) {
+            NumberParser numbers = new NumberParser(locale);
+            for (String text : TEXTS) {
+                assertSameAsScanner(numbers, locale, text);
+            }
+        }
+    }
+
+    @Test
+    void randomNumbersAreParsedLikeScanner() {
+        Random random = new Random(42);
+        NumberParser numbers = new NumberParser(Locale.US);
+        for (int i = 0; i < 10_000; i++) {
+            String text;
+            switch (i % 4) {
+                case 0:
+                    text = Double.toString(Double.longBitsToDouble(random.nextLong()));
+                    break;
+                case 1:
+                    text = Double.toString(random.nextDouble() * 1000);
+                    break;
+                case 2:
+                    text = String.format(Locale.US, "%,.3f", random.nextDouble() * 1e9);
+                    break;
+                default:
+                    text = Long.toString(random.nextLong());
+                    break;
+            }
+            assertSameAsScanner(numbers, Locale.US, text);
+        }
+    }
+
+    @Test
+    void defaultLocaleIsFollowed() {
+        Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+        try {
+            Locale.setDefault(Locale.Category.FORMAT, Locale.GERMANY);
+            assertEquals(1234.5, NumberParser.forDefaultLocale().parse("1.234,5"));
+            Locale.setDefault(Locale.Category.FORMAT, Locale.US);
+            assertEquals(1234.5, NumberParser.forDefaultLocale().parse("1,234.5"));
+        } finally {
+            Locale.setDefault(Locale.Category.FORMAT, locale);
+        }
+    }
+
+    @Test
+    void parsingTextWithoutNumberFails() {
+        NumberParser numbers = new NumberParser(Locale.US);
+        assertFalse(numbers.isNumber(null));
+        assertThrows(NumberFormatException.class, () -> numbers.parse("abc"));
+    }
+
+    private static void assertSameAsScanner(NumberParser numbers, Locale locale, String text) {
+        Scanner scanner = new Scanner(text).useLocale(locale);
+        boolean expected = scanner.hasNextDouble();
+        String message = "'" + text + "' in " + locale;
+        assertEquals(expected, numbers.isNumber(text), message);
+        if (expected) {
+            assertEquals(scanner.nextDouble(), numbers.parse(text), message);
+        }
+    }
+}
@@ -1,5 +1,10 @@
 package hudson.plugins.plot;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import hudson.ExtensionList;
+import hudson.model.TaskListener;
+import java.util.List;
 import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
 import org.junit.jupiter.api.Test;
@@ -82,4 +87,31 @@ class PlotBuilderTest {
                         }""", true));
         r.buildAndAssertSuccess(p);
     }
+
+    @Test
+    void compactsPlotsTheLastBuildDidNotRecord(JenkinsRule r) throws Exception {
+        WorkflowJob p = r.createProject(WorkflowJob.class, "projectUnderTest");
+        p.setDefinition(new CpsFlowDefinition("""
+                        node { \s
+                            writeFile file: 'data.properties', text: "YVALUE=${currentBuild.number}"
+                            plot csvFileName: 'plot-sometimes.csv',
+                               group: 'My Data',
+                               numBuilds: '2',
+                               style: 'line',
+                               propertiesSeries: [[file: 'data.properties', label: 'My Label']]
+                        }""", true));
+        r.buildAndAssertSuccess(p);
+        r.buildAndAssertSuccess(p);
+        r.buildAndAssertSuccess(p);
+        p.setDefinition(new CpsFlowDefinition("node { echo 'no plot this time' }", true));
+        r.buildAndAssertSuccess(p);
+
+        List<Plot> plots = PlotCompaction.getPlots(p);
+        assertEquals(1, plots.size());
+        assertEquals(3, plots.get(0).readPlotData().size());
+
+        ExtensionList.lookupSingleton(PlotCompaction.class).execute(TaskListener.NULL);
+        // only build 3 is still shown
+        assertEquals(1, plots.get(0).readPlotData().size());
+    }
 }
@@ -0,0 +1,161 @@
+package hudson.plugins.plot;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.UnaryOperator;
+import org.junit.jupiter.api.Test;
+
+class PlotColumnsTest {
+
+    @Test
+    void recordsAreReadBackAsTheyWereWritten() throws Exception {
+        List<String[]> records = new ArrayList<>();
+        records.add(new String[] {"Title", "a plot"});
+        records.add(new String[] {"Value", "Series Label", "Build Number", "Build Date", "URL"});
+        records.add(new String[] {"%label", "a", "", "", ""});
+        records.add(new String[] {"1", "%0", "1", "1700000000000", ""});
+        records.add(new String[] {"-2147483648", "%0", "2", "1700000060000", "%0:http://host/%build%"});
+        records.add(new String[] {"1.5", "%0", "3", "-5", "%%literal"});
+        records.add(new String[] {"1.0", "%0", "3", "9223372036854775807", ""});
+        records.add(new String[] {"NaN", "%0", "4", "-9223372036854775808", ""});
+        records.add(new String[] {"-0.0", "%0", "2147483647", "0", ""});
+        // not in their canonical form, so stored as text
+        records.add(new String[] {"007", "%0", "+5", "00", ""});
+        records.add(new String[] {"1e3", "%0", "2147483648", "99999999999999999999", ""});
+        records.add(new String[] {"-0", "%0", "-0", "-0", ""});
+        records.add(new String[] {"n/a", "\u00e9t\u00e9", "5", "17"});
+        records.add(new String[] {"4.9E-324", "%0", "6"});
+        records.add(new String[] {"Infinity"});
+        records.add(new String[] {"1", "%0", "7", "0", "", "extra", "fields"});
+        String[] wide = new String[20];
+        Arrays.fill(wide, "x");
+        records.add(wide);
+
+        List<String[]> decoded = roundTrip(records);
+        assertEquals(records.size(), decoded.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertArrayEquals(records.get(i), decoded.get(i), "record " + i);
+        }
+    }
+
+    @Test
+    void nullFieldsAreReadBackEmpty() throws Exception {
+        List<String[]> records = new ArrayList<>();
+        records.add(new String[] {"1", null, "1", "0", null});
+        assertArrayEquals(new String[] {"1", "", "1", "0", ""}, roundTrip(records).get(0));
+    }
+
+    @Test
+    void emptyBlock() throws Exception {
+        assertEquals(0, roundTrip(new ArrayList<>()).size());
+    }
+
+    @Test
+    void randomHistoriesAreReadBackAsTheyWereWritten() throws Exception {
+        Random random = new Random(42);
+        for (int history = 0; history < 50; history++) {
+            List<String[]> records = new ArrayList<>();
+            long timestamp = random.nextLong() >> 8;
+            int build = random.nextInt(1000);
+            for (int b = 0; b < 100; b++) {
+                build += 1 + random.nextInt(3);
+                timestamp += random.nextInt(1_000_000);
+                for (int series = 0; series < 5; series++) {
+                    String value;
+                    switch (random.nextInt(4)) {
+                        case 0:
+                            value = Integer.toString(random.nextInt());
+                            break;
+                        case 1:
+                            value = Double.toString(Double.longBitsToDouble(random.nextLong()));
+                            break;
+                        case 2:
+                            value = Double.toString(series + random.nextInt(3) / 10.0);
+                            break;
+                        default:
+                            value = Integer.toString(series);
+                    }
+                    records.add(new String[] {
+                        value, "%" + series, Integer.toString(build), Long.toString(timestamp), ""
+                    });
+                }
+            }
+            List<String[]> decoded = roundTrip(records);
+            for (int i = 0; i < records.size(); i++) {
+                assertArrayEquals(records.get(i), decoded.get(i), "record " + i + " of history " + history);
+            }
+        }
+    }
+
+    @Test
+    void steadySeriesTakeFewBytes() {
+        List<String[]> records = new ArrayList<>();
+        int csvLength = 0;
+        for (int build = 1; build <= 1000; build++) {
+            String timestamp = Long.toString(1_700_000_000_000L + build * 3_600_000L);
+            for (int series = 0; series < 10; series++) {
+                String value = Double.toString(100.0 * series + (build % 50 == 0 ? 0.5 : 0));
+                String[] record = {value, "%" + series, Integer.toString(build), timestamp, ""};
+                records.add(record);
+                for (String field : record) {
+                    // quoted and separated like in the CSV text
+                    csvLength += field.length() + 3;
+                }
+            }
+        }
+        byte[] data = PlotColumns.encode(records);
+        int encodedLength = PlotBlocks.encode(data, 0, data.length, true).length;
+        assertTrue(encodedLength * 10 < csvLength, encodedLength + " bytes for " + csvLength + " bytes of CSV");
+    }
+
+    @Test
+    void fieldsAreShared() throws Exception {
+        List<String[]> records = new ArrayList<>();
+        records.add(new String[] {"1", "%0", "7", "0", ""});
+        records.add(new String[] {"2", "%0", "7", "0", ""});
+        List<String> shared = new ArrayList<>();
+        UnaryOperator<String> intern = field -> {
+            for (String s : shared) {
+                if (s.equals(field)) {
+                    return s;
+                }
+            }
+            shared.add(field);
+            return field;
+        };
+        byte[] data = PlotColumns.encode(records);
+        List<String[]> decoded = PlotColumns.decode(data, data.length, intern);
+        for (int i = 1; i < 5; i++) {
+            assertTrue(decoded.get(0)[i] == decoded.get(1)[i], "field " + i);
+        }
+    }
+
+    @Test
+    void corruptDataIsRejected() {
+        List<String[]> records = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            records.add(new String[] {Integer.toString(i), "%0", Integer.toString(i), "0", ""});
+        }
+        byte[] data = PlotColumns.encode(records);
+        for (int length = 0; length < data.length; length++) {
+            int cut = length;
+            assertThrows(IOException.class, () -> PlotColumns.decode(data, cut, UnaryOperator.identity()));
+        }
+        byte[] version = data.clone();
+        version[0] = 99;
+        assertThrows(IOException.class, () -> PlotColumns.decode(version, version.length, UnaryOperator.identity()));
+    }
+
+    private static List<String[]> roundTrip(List<String[]> records) throws IOException {
+        byte[] data = PlotColumns.encode(records);
+        return PlotColumns.decode(data, data.length, UnaryOperator.identity());
+    }
+}
@@ -0,0 +1,39 @@
+package hudson.plugins.plot;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class PlotCompactionTest {
+
+    @Test
+    void keepsAllRowsWithoutLimit() {
+        List<String[]> rows = rows(1, 1, 2, 3);
+        assertEquals(4, PlotCompaction.keepNewest(rows, 0).size());
+        assertEquals(4, PlotCompaction.keepNewest(rows, 4).size());
+    }
+
+    @Test
+    void keepsWholeBuildsNewestFirst() {
+        List<String[]> kept = PlotCompaction.keepNewest(rows(1, 2, 2, 3, 3), 3);
+        assertEquals(2, kept.size());
+        assertEquals("3", kept.get(0)[2]);
+        assertEquals("3", kept.get(1)[2]);
+    }
+
+    @Test
+    void keepsNewestBuildEvenIfLarger() {
+        List<String[]> kept = PlotCompaction.keepNewest(rows(1, 2, 2, 2), 2);
+        assertEquals(3, kept.size());
+    }
+
+    private static List<String[]> rows(int... builds) {
+        List<String[]> rows = new ArrayList<>();
+        for (int build : builds) {
+            rows.add(new String[] {"1", "a", String.valueOf(build), "0", ""});
+        }
+        return rows;
+    }
+}
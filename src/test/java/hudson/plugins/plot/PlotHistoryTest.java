@@ -0,0 +1,142 @@
+package hudson.plugins.plot;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class PlotHistoryTest {
+
+    @Test
+    void rowsAreReadBackInOrder() {
+        List<String[]> rows = rows(1, 3000);
+        PlotHistory history = PlotHistory.of(rows);
+        assertEquals(3, history.getChunkCount());
+        assertTrue(history.size() > 0);
+
+        List<String[]> read = history.read();
+        assertEquals(rows.size(), read.size());
+        for (int i = 0; i < rows.size(); i++) {
+            assertArrayEquals(rows.get(i), read.get(i));
+        }
+        // the fields other than the value are shared
+        assertSame(read.get(0)[1], read.get(2000)[1]);
+        assertSame(read.get(0)[4], read.get(1)[4]);
+    }
+
+    @Test
+    void appendedRowsFillTheLastChunk() {
+        PlotHistory history = PlotHistory.of(rows(1, 10));
+        for (int build = 11; build <= 3000; build += 10) {
+            history = history.append(rows(build, 10));
+        }
+        assertEquals(3, history.getChunkCount());
+        List<String[]> read = history.read();
+        assertEquals(3000, read.size());
+        assertEquals("3000", read.get(2999)[2]);
+        assertSame(history, history.append(new ArrayList<>()));
+    }
+
+    @Test
+    void appendsFillTheRoomOfTheLastChunk() {
+        PlotHistory history = PlotHistory.of(rows(1, 1));
+        Set<Long> sizes = new HashSet<>();
+        for (int build = 2; build < PlotHistory.CHUNK_ROWS; build++) {
+            history = history.append(rows(build, 1));
+            sizes.add(history.size());
+        }
+        // the buffer of the chunk grows by doubling, not with each append
+        assertEquals(1, history.getChunkCount());
+        assertTrue(sizes.size() < 16, sizes.toString());
+        assertEquals(PlotHistory.CHUNK_ROWS - 1, history.read().size());
+
+        // a full chunk is encoded as a whole, without room left
+        long partial = history.size();
+        history = history.append(rows(PlotHistory.CHUNK_ROWS, 1));
+        assertTrue(history.size() < partial);
+        List<String[]> read = history.read();
+        assertEquals(PlotHistory.CHUNK_ROWS, read.size());
+        for (int i = 0; i < read.size(); i++) {
+            assertEquals(String.valueOf(i + 1), read.get(i)[2]);
+        }
+    }
+
+    @Test
+    void appendsLeaveTheHistoryAppendedToUnchanged() {
+        PlotHistory history = PlotHistory.of(rows(1, 10));
+        PlotHistory first = history.append(rows(11, 10));
+        PlotHistory second = history.append(rows(21, 10));
+
+        assertEquals(10, history.read().size());
+        assertEquals("20", first.read().get(19)[2]);
+        assertEquals(20, first.read().size());
+        assertEquals("10", second.read().get(9)[2]);
+        assertEquals("30", second.read().get(19)[2]);
+        assertEquals(20, second.read().size());
+    }
+
+    @Test
+    void onlyTheRequestedBuildsAreRead() {
+        List<String[]> rows = rows(1, 4000);
+        rows.add(new String[] {"1", "label", "not a build", "0", ""});
+        PlotHistory history = PlotHistory.of(rows);
+
+        List<String[]> read = history.read(1500, 1502);
+        assertEquals(4, read.size());
+        assertEquals("1500", read.get(0)[2]);
+        assertEquals("1502", read.get(2)[2]);
+        // to be reported as invalid
+        assertEquals("not a build", read.get(3)[2]);
+        assertEquals(1, history.read(5000, 6000).size());
+    }
+
+    @Test
+    void cacheKeepsTheNewestGenerationWithinItsSize() {
+        File a = new File("a.csv");
+        File b = new File("b.csv");
+        // the histories cached by other tests would be dropped first
+        PlotHistoryCache.forget(dir -> true);
+        PlotHistory history = PlotHistory.of(rows(1, 100));
+        long maxBytes = PlotHistoryCache.MAX_BYTES;
+        PlotHistoryCache.MAX_BYTES = PlotHistoryCache.getBytes() + history.size() * 3 / 2;
+        try {
+            PlotHistoryCache.put(a, 1, history);
+            assertSame(history, PlotHistoryCache.get(a, 1));
+            assertNull(PlotHistoryCache.get(a, 2));
+
+            PlotHistoryCache.put(a, 2, history);
+            assertNull(PlotHistoryCache.get(a, 1));
+            assertSame(history, PlotHistoryCache.get(a, 2));
+
+            // the least recently used history makes room
+            PlotHistoryCache.put(b, 1, history);
+            assertNull(PlotHistoryCache.get(a, 2));
+            assertSame(history, PlotHistoryCache.get(b, 1));
+            assertTrue(PlotHistoryCache.getBytes() <= PlotHistoryCache.MAX_BYTES);
+        } finally {
+            PlotHistoryCache.MAX_BYTES = maxBytes;
+            PlotHistoryCache.put(b, 2, PlotHistory.of(new ArrayList<>()));
+        }
+    }
+
+    /**
+     * Returns a row per build, starting with the given build.
+     */
+    private static List<String[]> rows(int firstBuild, int builds) {
+        List<String[]> rows = new ArrayList<>();
+        for (int build = firstBuild; build < firstBuild + builds; build++) {
+            rows.add(new String[] {
+                Double.toString(build / 10.0), "label", Integer.toString(build), Long.toString(build * 1000L), ""
+            });
+        }
+        return rows;
+    }
+}
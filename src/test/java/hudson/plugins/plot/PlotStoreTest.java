@@ -0,0 +1,462 @@
+package hudson.plugins.plot;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PlotStoreTest {
+
+    @TempDir
+    private File tempDir;
+
+    @Test
+    void concurrentAppendsKeepAllRows() throws Exception {
+        PlotStore store = PlotStore.of(new File(tempDir, "plot-concurrent.csv"));
+        int builds = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Void>> appends = new ArrayList<>();
+            for (int build = 1; build <= builds; build++) {
+                List<String[]> rows = new ArrayList<>();
+                rows.add(new String[] {"1", "a", String.valueOf(build), "0", ""});
+                rows.add(new String[] {"2", "b", String.valueOf(build), "0", ""});
+                appends.add(executor.submit(() -> {
+                    store.append("concurrent", rows);
+                    return null;
+                }));
+            }
+            for (Future<Void> append : appends) {
+                append.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        List<String[]> rows = store.read();
+        assertEquals(2 * builds, rows.size());
+        Set<String> seen = new HashSet<>();
+        for (String[] row : rows) {
+            assertEquals(5, row.length);
+            assertTrue(seen.add(row[1] + "#" + row[2]), "duplicate row for build " + row[2]);
+        }
+    }
+
+    @Test
+    void rewriteReplacesRows() throws Exception {
+        PlotStore store = PlotStore.of(new File(tempDir, "plot-rewrite.csv"));
+        store.append("rewrite", rows("1"));
+        store.append("rewrite", rows("2"));
+
+        store.rewrite("rewrite", rows -> rows.subList(1, rows.size()));
+        store.append("rewrite", rows("3"));
+
+        List<String[]> rows = store.read();
+        assertEquals(2, rows.size());
+        assertEquals("2", rows.get(0)[2]);
+        assertEquals("3", rows.get(1)[2]);
+    }
+
+    @Test
+    void partiallyWrittenRowIsIgnored() throws Exception {
+        File file = new File(tempDir, "plot-partial.csv");
+        Files.writeString(
+                file.toPath(),
+                "\"Title\",\"partial\"\n"
+                        + "\"Value\",\"Series Label\",\"Build Number\",\"Build Date\",\"URL\"\n"
+                        + "\"1\",\"a\",\"1\",\"0\",\"\"\n"
+                        + "\"2\",\"a\",\"2",
+                Charset.defaultCharset());
+        PlotStore store = PlotStore.of(file);
+        assertEquals(1, store.read().size());
+
+        store.append("partial", rows("3"));
+
+        List<String[]> rows = store.read();
+        assertEquals(2, rows.size());
+        assertEquals("1", rows.get(0)[2]);
+        assertEquals("3", rows.get(1)[2]);
+    }
+
+    @Test
+    void repeatedFieldsAreShared() throws Exception {
+        PlotStore store = PlotStore.of(new File(tempDir, "plot-shared.csv"));
+        List<String[]> appended = new ArrayList<>();
+        appended.add(new String[] {"1", "a", "7", "0", ""});
+        appended.add(new String[] {"2", "a", "7", "0", ""});
+        store.append("shared", appended);
+
+        List<String[]> rows = reload(new File(tempDir, "plot-shared.csv"));
+        assertEquals(2, rows.size());
+        assertEquals("a", rows.get(0)[1]);
+        assertSame(rows.get(0)[1], rows.get(1)[1]);
+        assertSame(rows.get(0)[2], rows.get(1)[2]);
+    }
+
+    @Test
+    void urlTemplatesAreStoredOnceInCompressedFiles() throws Exception {
+        File file = new File(tempDir, "plot-urls.csv");
+        boolean compress = PlotStore.COMPRESS;
+        boolean columns = PlotStore.COLUMNS;
+        PlotStore.COMPRESS = true;
+        PlotStore.COLUMNS = false;
+        try {
+            PlotStore store = PlotStore.of(file);
+            String template = "http://host/%build%/%name%/%index%";
+            for (String build : new String[] {"1", "2"}) {
+                store.append("urls", urlRows(template, build));
+            }
+
+            String content = gunzip(file);
+            assertEquals(content.indexOf(template), content.lastIndexOf(template));
+
+            // the rows read back from the file are the rows appended
+            List<String[]> rows = reload(file);
+            assertEquals(6, rows.size());
+            assertEquals("http://host/2/b/1", PlotUrl.expand(rows.get(4)[4], rows.get(4)[1], 2));
+            assertEquals("%literal", PlotUrl.expand(rows.get(5)[4], rows.get(5)[1], 2));
+            assertSame(rows.get(0)[4], rows.get(3)[4]);
+
+            // a rewrite keeps the templates still in use
+            store.rewrite("urls", r -> r.subList(3, r.size()));
+            rows = reload(file);
+            assertEquals(3, rows.size());
+            assertEquals("http://host/2/a/0", PlotUrl.expand(rows.get(0)[4], rows.get(0)[1], 2));
+        } finally {
+            PlotStore.COMPRESS = compress;
+            PlotStore.COLUMNS = columns;
+        }
+    }
+
+    @Test
+    void plainFilesHaveTheLabelsAndUrlsAsTheyAreRendered() throws Exception {
+        File file = new File(tempDir, "plot-rendered.csv");
+        PlotStore store = PlotStore.of(file);
+        String template = "http://host/%build%/%name%/%index%";
+        store.append("rendered", urlRows(template, "1"));
+        List<String[]> appended = store.read();
+
+        String content = Files.readString(file.toPath(), Charset.defaultCharset());
+        assertFalse(content.contains(template), content);
+        assertFalse(content.contains("%url"), content);
+        assertFalse(content.contains("%label"), content);
+        assertTrue(content.contains("\"2\",\"b\",\"1\",\"0\",\"http://host/1/b/1\""), content);
+        assertTrue(content.contains("\"%literal\""), content);
+
+        // the rows read back render the same URLs as the rows appended
+        List<String[]> rows = reload(file);
+        assertEquals(3, rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            assertArrayEquals(appended.get(i), rows.get(i));
+        }
+        assertEquals("http://host/1/a/0", PlotUrl.expand(rows.get(0)[4], rows.get(0)[1], 1));
+        assertEquals("%literal", PlotUrl.expand(rows.get(2)[4], rows.get(2)[1], 1));
+
+        // labels and URLs of existing files that look like references are
+        // kept as they are
+        Files.writeString(
+                file.toPath(),
+                "\"1\",\"%1\",\"2\",\"0\",\"%0:http://host/%build%\"\n",
+                Charset.defaultCharset(),
+                StandardOpenOption.APPEND);
+        rows = reload(file);
+        assertEquals(4, rows.size());
+        assertEquals("%1", rows.get(3)[1]);
+        assertEquals("%0:http://host/%build%", PlotUrl.expand(rows.get(3)[4], rows.get(3)[1], 2));
+    }
+
+    @Test
+    void labelsAreStoredOnceInCompressedFiles() throws Exception {
+        File file = new File(tempDir, "plot-labels.csv");
+        boolean compress = PlotStore.COMPRESS;
+        boolean columns = PlotStore.COLUMNS;
+        PlotStore.COMPRESS = true;
+        PlotStore.COLUMNS = false;
+        try {
+            PlotStore store = PlotStore.of(file);
+            for (String build : new String[] {"1", "2", "3"}) {
+                List<String[]> appended = new ArrayList<>();
+                appended.add(new String[] {"1", "response time", build, "0", ""});
+                appended.add(new String[] {"2", "%errors", build, "0", ""});
+                store.append("labels", appended);
+            }
+
+            String content = gunzip(file);
+            assertEquals(content.indexOf("response time"), content.lastIndexOf("response time"));
+
+            List<String[]> rows = reload(file);
+            assertEquals(6, rows.size());
+            for (int i = 0; i < rows.size(); i += 2) {
+                assertEquals("response time", rows.get(i)[1]);
+                assertEquals("%errors", rows.get(i + 1)[1]);
+                assertSame(rows.get(0)[1], rows.get(i)[1]);
+            }
+        } finally {
+            PlotStore.COMPRESS = compress;
+            PlotStore.COLUMNS = columns;
+        }
+    }
+
+    @Test
+    void valuesAreParsedForTheRequestedBuilds() throws Exception {
+        File file = new File(tempDir, "plot-values.csv");
+        PlotStore store = PlotStore.of(file);
+        List<String[]> appended = new ArrayList<>();
+        appended.add(new String[] {"1", "a", "1", "0", ""});
+        appended.add(new String[] {"n/a", "a", "2", "0", ""});
+        store.append("values", appended);
+
+        PlotValues values = store.readValues();
+        assertEquals(2, values.size());
+        assertEquals(1, values.getInvalidCount());
+
+        store.append("values", rows("3"));
+        values = store.readValues(3, Integer.MAX_VALUE);
+        assertEquals(1, values.size());
+        assertEquals(3, values.getNumber(0));
+        assertEquals(2, store.readValues(2, 3).size());
+    }
+
+    @Test
+    void rowsAreReadAgainOnceNoLongerCached() throws Exception {
+        File file = new File(tempDir, "plot-evicted.csv");
+        PlotStore store = PlotStore.of(file);
+        store.append("evicted", rows("1"));
+        long maxBytes = PlotHistoryCache.MAX_BYTES;
+        PlotHistoryCache.MAX_BYTES = 0;
+        try {
+            // the rows aren't cached, so the append doesn't have them either
+            store.append("evicted", rows("2"));
+            assertEquals(0, PlotHistoryCache.getBytes());
+            List<String[]> rows = store.read();
+            assertEquals(2, rows.size());
+            assertEquals("2", rows.get(1)[2]);
+        } finally {
+            PlotHistoryCache.MAX_BYTES = maxBytes;
+        }
+        // cached again once read from the file
+        store.append("evicted", rows("3"));
+        assertEquals(3, store.read().size());
+    }
+
+    @Test
+    void filesTooLargeToBeCachedAreReadForTheRequestedBuilds() throws Exception {
+        File file = new File(tempDir, "plot-uncached.csv");
+        PlotStore store = PlotStore.of(file);
+        for (int build = 1; build <= 3000; build++) {
+            store.append("uncached", rows(Integer.toString(build)));
+        }
+        long maxBytes = PlotHistoryCache.MAX_BYTES;
+        PlotHistoryCache.MAX_BYTES = 1024;
+        try {
+            List<String[]> rows = reload(file);
+            assertEquals(3000, rows.size());
+            assertEquals("3000", rows.get(2999)[2]);
+
+            assertTrue(file.setLastModified(file.lastModified() - 10_000));
+            PlotValues values = store.readValues(1500, 1502);
+            assertEquals(3, values.size());
+            assertEquals(1500, values.getBuildNumber(0));
+
+            // appended without reading the rows again
+            store.append("uncached", rows("3001"));
+            assertEquals(3001, store.readValues(3001, 3001).getBuildNumber(0));
+        } finally {
+            PlotHistoryCache.MAX_BYTES = maxBytes;
+        }
+        // cached again once they fit
+        assertEquals(3001, reload(file).size());
+        assertTrue(PlotHistoryCache.getBytes() > 0);
+    }
+
+    @Test
+    void compressedFilesAreAppendedInBlocks() throws Exception {
+        File file = new File(tempDir, "plot-compressed.csv");
+        boolean compress = PlotStore.COMPRESS;
+        boolean columns = PlotStore.COLUMNS;
+        PlotStore.COMPRESS = true;
+        PlotStore.COLUMNS = false;
+        try {
+            PlotStore store = PlotStore.of(file);
+            store.append("compressed", rows("1"));
+            store.append("compressed", rows("2"));
+            byte[] content = Files.readAllBytes(file.toPath());
+            assertTrue(PlotBlocks.isCompressed(content, content.length));
+            assertEquals(2, PlotBlocks.count(content, content.length));
+
+            // the blocks are gzip members
+            try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(content))) {
+                String plain = new String(in.readAllBytes(), Charset.defaultCharset());
+                assertTrue(plain.contains("\"1\",\"%0\",\"1\""), plain);
+                assertTrue(plain.contains("\"2\",\"%0\",\"2\""), plain);
+            }
+
+            // a block cut short is ignored, and replaced by the next append
+            byte[] torn = Arrays.copyOf(PlotBlocks.encode(new byte[100], 0, 100, false), 10);
+            Files.write(file.toPath(), torn, StandardOpenOption.APPEND);
+            List<String[]> rows = reload(file);
+            assertEquals(2, rows.size());
+            store.append("compressed", rows("3"));
+            rows = reload(file);
+            assertEquals(3, rows.size());
+            assertEquals("3", rows.get(2)[2]);
+        } finally {
+            PlotStore.COMPRESS = compress;
+            PlotStore.COLUMNS = columns;
+        }
+    }
+
+    @Test
+    void encodedBlocksAreReadBackAfterTextBlocks() throws Exception {
+        File file = new File(tempDir, "plot-columns.csv");
+        boolean compress = PlotStore.COMPRESS;
+        boolean columns = PlotStore.COLUMNS;
+        PlotStore.COMPRESS = true;
+        try {
+            PlotStore store = PlotStore.of(file);
+            PlotStore.COLUMNS = false;
+            store.append("columns", rows("1"));
+            PlotStore.COLUMNS = true;
+            List<String[]> appended = new ArrayList<>();
+            appended.add(new String[] {"2.5", "a", "2", "1700000000000", PlotUrl.reference("http://host/%build%", 0)});
+            appended.add(new String[] {"n/a", "b", "2", "1700000000000", "%%literal"});
+            store.append("columns", appended);
+            byte[] content = Files.readAllBytes(file.toPath());
+            assertEquals(2, PlotBlocks.count(content, content.length));
+            assertEquals(1, PlotBlocks.countColumns(content, content.length));
+
+            List<String[]> rows = reload(file);
+            assertEquals(3, rows.size());
+            assertArrayEquals(new String[] {"1", "a", "1", "0", ""}, rows.get(0));
+            assertArrayEquals(appended.get(0), rows.get(1));
+            assertArrayEquals(appended.get(1), rows.get(2));
+            assertSame(rows.get(0)[1], rows.get(1)[1]);
+
+            // a file with text blocks is encoded by the next rewrite
+            assertTrue(store.rewrite("columns", r -> r) > 0);
+            content = Files.readAllBytes(file.toPath());
+            assertEquals(1, PlotBlocks.countColumns(content, content.length));
+            assertEquals(3, reload(file).size());
+            assertEquals(0, store.rewrite("columns", r -> r));
+        } finally {
+            PlotStore.COMPRESS = compress;
+            PlotStore.COLUMNS = columns;
+        }
+    }
+
+    @Test
+    void plainFilesAreCompressedWhenRewritten() throws Exception {
+        File file = new File(tempDir, "plot-upgraded.csv");
+        PlotStore store = PlotStore.of(file);
+        for (int build = 1; build <= 300; build++) {
+            List<String[]> rows = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                rows.add(new String[] {Integer.toString(build * i), "series " + i, Integer.toString(build), "0", ""});
+            }
+            store.append("upgraded", rows);
+        }
+        List<String[]> plain = reload(file);
+        long plainLength = file.length();
+        assertEquals(0, store.rewrite("upgraded", rows -> rows));
+
+        boolean compress = PlotStore.COMPRESS;
+        PlotStore.COMPRESS = true;
+        try {
+            assertTrue(store.rewrite("upgraded", rows -> rows) > plainLength / 2);
+            byte[] content = Files.readAllBytes(file.toPath());
+            assertTrue(PlotBlocks.isCompressed(content, content.length));
+            assertTrue(PlotBlocks.count(content, content.length) > 1);
+            List<String[]> compressed = reload(file);
+            assertEquals(plain.size(), compressed.size());
+            for (int i = 0; i < plain.size(); i++) {
+                assertArrayEquals(plain.get(i), compressed.get(i));
+            }
+            // already in the right format
+            assertEquals(0, store.rewrite("upgraded", rows -> rows));
+            // encoded, the rows take a fraction of the space of the CSV text
+            assertTrue(file.length() * 10 < plainLength, file.length() + " bytes for " + plainLength);
+        } finally {
+            PlotStore.COMPRESS = compress;
+        }
+    }
+
+    @Test
+    void largeFilesAreReadLikeSmallOnes() throws Exception {
+        File file = new File(tempDir, "plot-mapped.csv");
+        PlotStore store = PlotStore.of(file);
+        for (int build = 1; build <= 50; build++) {
+            List<String[]> appended = new ArrayList<>();
+            appended.add(new String[] {"1.5", "response \"time\"", Integer.toString(build), "0", ""});
+            appended.add(new String[] {"2", "errors", Integer.toString(build), "0", PlotUrl.reference("u", 0)});
+            store.append("mapped", appended);
+        }
+        // torn last row
+        Files.writeString(file.toPath(), "\"3\",\"%1\"", Charset.defaultCharset(), StandardOpenOption.APPEND);
+        List<String[]> read = reload(file);
+
+        long minMappedLength = PlotStore.MIN_MAPPED_LENGTH;
+        PlotStore.MIN_MAPPED_LENGTH = 0;
+        try {
+            List<String[]> mapped = reload(file);
+            assertEquals(100, mapped.size());
+            for (int i = 0; i < read.size(); i++) {
+                assertArrayEquals(read.get(i), mapped.get(i));
+            }
+            assertSame(mapped.get(0)[1], mapped.get(2)[1]);
+            assertSame(mapped.get(1)[4], mapped.get(3)[4]);
+        } finally {
+            PlotStore.MIN_MAPPED_LENGTH = minMappedLength;
+        }
+    }
+
+    private static List<String[]> urlRows(String template, String build) {
+        List<String[]> rows = new ArrayList<>();
+        rows.add(new String[] {"1", "a", build, "0", PlotUrl.reference(template, 0)});
+        rows.add(new String[] {"2", "b", build, "0", PlotUrl.reference(template, 1)});
+        rows.add(new String[] {"3", "c", build, "0", PlotUrl.literal("%literal")});
+        return rows;
+    }
+
+    /**
+     * Returns the CSV text of the blocks of a compressed file.
+     */
+    private static String gunzip(File file) throws IOException {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file.toPath()))) {
+            return new String(in.readAllBytes(), Charset.defaultCharset());
+        }
+    }
+
+    /**
+     * Reads the rows from the file rather than from what was last written.
+     */
+    private static List<String[]> reload(File file) {
+        assertTrue(file.setLastModified(file.lastModified() - 10_000));
+        return PlotStore.of(file).read();
+    }
+
+    private static List<String[]> rows(String build) {
+        List<String[]> rows = new ArrayList<>();
+        rows.add(new String[] {build, "a", build, "0", ""});
+        return rows;
+    }
+}
@@ -24,7 +24,10 @@
 package hudson.plugins.plot;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import hudson.ExtensionList;
 import hudson.Launcher;
 import hudson.matrix.AxisList;
 import hudson.matrix.MatrixConfiguration;
@@ -34,10 +37,15 @@ import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.BuildListener;
 import hudson.model.FreeStyleProject;
+import hudson.model.TaskListener;
 import hudson.tasks.Builder;
 import hudson.tasks.LogRotator;
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.List;
+import java.util.Set;
+import org.apache.commons.io.FileUtils;
 import org.junit.jupiter.api.Test;
 import org.jvnet.hudson.test.JenkinsRule;
 import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
@@ -118,6 +126,175 @@ class PlotTest {
         assertSampleCount(p, 3); // Data should be kept
     }
 
+    @Test
+    void recordPlotSamplesInBackground(JenkinsRule j) throws Exception {
+        FreeStyleProject p = jobArchivingBuilds(j, 10);
+
+        plotBuilds(p, "", false);
+
+        PlotWriteQueue.ASYNC = true;
+        try {
+            j.buildAndAssertSuccess(p);
+            j.buildAndAssertSuccess(p);
+            PlotWriteQueue.get().awaitMerged();
+            assertSampleCount(p, 2);
+        } finally {
+            PlotWriteQueue.ASYNC = false;
+        }
+    }
+
+    @Test
+    void keepQueuedSamplesWhenThePlotFileCannotBeWritten(JenkinsRule j) throws Exception {
+        FreeStyleProject p = jobArchivingBuilds(j, 10);
+
+        plotBuilds(p, "", false);
+
+        Plot plot = p.getPublishersList().get(PlotPublisher.class).getPlots().get(0);
+        plot.setJob(p);
+        // a directory in place of the plot file makes every write fail
+        File csvFile = new File(p.getRootDir(), plot.getCsvFileName());
+        assertTrue(csvFile.delete());
+        assertTrue(new File(csvFile, "blocker").mkdirs());
+
+        PlotWriteQueue.ASYNC = true;
+        try {
+            j.buildAndAssertSuccess(p);
+            PlotWriteQueue.get().awaitMerged();
+            assertEquals(1, PlotWriteQueue.getSpoolDir().list().length);
+
+            // merged by the next replay, once the file can be written
+            FileUtils.deleteDirectory(csvFile);
+            PlotWriteQueue.replayPendingRecords();
+            PlotWriteQueue.get().awaitMerged();
+            assertEquals(0, PlotWriteQueue.getSpoolDir().list().length);
+            assertSampleCount(p, 1);
+        } finally {
+            PlotWriteQueue.ASYNC = false;
+        }
+    }
+
+    @Test
+    void mergeQueuedSamplesInOrderOnceThePlotFileCanBeWritten(JenkinsRule j) throws Exception {
+        FreeStyleProject p = jobArchivingBuilds(j, 10);
+
+        plotBuilds(p, "", false);
+
+        Plot plot = p.getPublishersList().get(PlotPublisher.class).getPlots().get(0);
+        plot.setJob(p);
+        File csvFile = new File(p.getRootDir(), plot.getCsvFileName());
+        assertTrue(csvFile.delete());
+        assertTrue(new File(csvFile, "blocker").mkdirs());
+
+        PlotWriteQueue.ASYNC = true;
+        try {
+            j.buildAndAssertSuccess(p);
+            j.buildAndAssertSuccess(p);
+            PlotWriteQueue.get().awaitMerged();
+            // the second build waits for the first one
+            assertEquals(2, PlotWriteQueue.getSpoolDir().list().length);
+
+            // merged before the next build, without a restart
+            FileUtils.deleteDirectory(csvFile);
+            j.buildAndAssertSuccess(p);
+            PlotWriteQueue.get().awaitMerged();
+            assertEquals(0, PlotWriteQueue.getSpoolDir().list().length);
+            assertSampleCount(p, 3);
+            List<String[]> rows = plot.readPlotData();
+            for (int i = 0; i < rows.size(); i++) {
+                assertEquals(String.valueOf(i + 1), rows.get(i)[2]);
+            }
+        } finally {
+            PlotWriteQueue.ASYNC = false;
+        }
+    }
+
+    @Test
+    void compactionRemovesSamplesOfDeletedBuilds(JenkinsRule j) throws Exception {
+        FreeStyleProject p = jobArchivingBuilds(j, 10);
+
+        plotBuilds(p, "", false);
+
+        j.buildAndAssertSuccess(p);
+        j.buildAndAssertSuccess(p);
+        j.buildAndAssertSuccess(p);
+        p.getLastBuild().delete();
+
+        Plot plot = p.getPublishersList().get(PlotPublisher.class).getPlots().get(0);
+        assertEquals(3, plot.readPlotData().size()); // Only hidden so far
+        assertEquals(Set.of(3), PlotTombstones.of(p).get());
+
+        ExtensionList.lookupSingleton(PlotCompaction.class).execute(TaskListener.NULL);
+        assertEquals(2, plot.readPlotData().size());
+        assertEquals(Set.of(), PlotTombstones.of(p).get());
+        assertSampleCount(p, 2);
+    }
+
+    @Test
+    void compactionKeepsDeletedBuildsOfPlotFilesItDidNotFind(JenkinsRule j) throws Exception {
+        FreeStyleProject p = jobArchivingBuilds(j, 10);
+
+        plotBuilds(p, "", false);
+
+        j.buildAndAssertSuccess(p);
+        j.buildAndAssertSuccess(p);
+        // a plot file that no plot of the job records anymore
+        File unknown = new File(p.getRootDir(), "plot-unknown.csv");
+        Files.writeString(unknown.toPath(), "\"Unknown\",\"\"\n\"1\",\"a\",\"2\",\"0\",\"\"\n");
+        p.getLastBuild().delete();
+
+        ExtensionList.lookupSingleton(PlotCompaction.class).execute(TaskListener.NULL);
+        assertEquals(Set.of(2), PlotTombstones.of(p).get());
+
+        assertTrue(unknown.delete());
+        ExtensionList.lookupSingleton(PlotCompaction.class).execute(TaskListener.NULL);
+        assertEquals(Set.of(), PlotTombstones.of(p).get());
+    }
+
+    @Test
+    void recordDeletedBuildsOnlyForJobsWithPlots(JenkinsRule j) throws Exception {
+        FreeStyleProject p = jobArchivingBuilds(j, 10);
+        FreeStyleProject withoutPlots = jobArchivingBuilds(j, 10);
+
+        plotBuilds(p, "", false);
+
+        j.buildAndAssertSuccess(p);
+        j.buildAndAssertSuccess(p);
+        j.buildAndAssertSuccess(p);
+        j.buildAndAssertSuccess(withoutPlots);
+        p.getBuildByNumber(1).delete();
+        p.getBuildByNumber(2).delete();
+        withoutPlots.getLastBuild().delete();
+
+        assertEquals(Set.of(1, 2), PlotTombstones.of(p).get());
+        assertEquals(Set.of(), PlotTombstones.of(withoutPlots).get());
+        // written together, right away or after a short delay
+        PlotTombstones.of(p).flush();
+        assertEquals(List.of("1", "2"), Files.readAllLines(new File(p.getRootDir(), "plot-tombstones.txt").toPath()));
+    }
+
+    @Test
+    void forgetPlotFilesOfDeletedAndRenamedJobs(JenkinsRule j) throws Exception {
+        FreeStyleProject deleted = jobArchivingBuilds(j, 10);
+        FreeStyleProject renamed = jobArchivingBuilds(j, 10);
+        plotBuilds(deleted, "", false);
+        plotBuilds(renamed, "", false);
+        j.buildAndAssertSuccess(deleted);
+        j.buildAndAssertSuccess(renamed);
+
+        File deletedFile = new File(deleted.getRootDir(), csvFileName(deleted));
+        PlotStore deletedStore = PlotStore.of(deletedFile);
+        BuildLabels deletedLabels = BuildLabels.of(deleted);
+        File renamedFile = new File(renamed.getRootDir(), csvFileName(renamed));
+        PlotStore renamedStore = PlotStore.of(renamedFile);
+
+        deleted.delete();
+        renamed.renameTo("renamed");
+
+        assertNotSame(deletedStore, PlotStore.of(deletedFile));
+        assertNotSame(deletedLabels, BuildLabels.of(deleted));
+        assertNotSame(renamedStore, PlotStore.of(renamedFile));
+    }
+
     @Test
     void discardPlotSamplesForDeletedMatrixBuilds(JenkinsRule j) throws Exception {
         MatrixProject p = matrixJobArchivingBuilds(j, 10);
@@ -199,6 +376,10 @@ class PlotTest {
         plot.series = List.of(new PropertiesSeries("src.properties", null));
     }
 
+    private static String csvFileName(FreeStyleProject p) {
+        return p.getPublishersList().get(PlotPublisher.class).getPlots().get(0).getCsvFileName();
+    }
+
     private static void assertSampleCount(AbstractProject<?, ?> p, int count) throws Exception {
         PlotReport pr = p instanceof MatrixConfiguration
                 ? p.getAction(MatrixPlotAction.class).getDynamic("default")
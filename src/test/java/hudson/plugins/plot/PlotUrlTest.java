@@ -0,0 +1,49 @@
+package hudson.plugins.plot;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that the URL field of plot rows gives back the URL of each point.
+ */
+class PlotUrlTest {
+
+    @Test
+    void templatedUrlsAreExpandedWithTheRow() {
+        RowSink sink = new RowSink(7, 0);
+        sink.add("1", "http://host/%build%/%name%/%index%", 3, 7, "a");
+        String field = sink.getRows().get(0)[4];
+        assertEquals("%3:http://host/%build%/%name%/%index%", field);
+        assertEquals("http://host/42/a/3", PlotUrl.expand(field, "a", 42));
+        assertEquals("http://host/7/a/3", PlotUrl.expand(field, "a", 7));
+    }
+
+    @Test
+    void literalUrlsAreKept() {
+        RowSink sink = new RowSink(7, 0);
+        sink.add("1", "http://host/1", "a");
+        sink.add("1", null, "a");
+        assertEquals("http://host/1", sink.getRows().get(0)[4]);
+        assertEquals("", sink.getRows().get(1)[4]);
+        for (String url : new String[] {"http://host/1", "", "%", "%1:x", "%%", "%20:%name%"}) {
+            String field = PlotUrl.literal(url);
+            assertEquals(url, PlotUrl.expand(field, "a", 1));
+        }
+        assertNull(PlotUrl.expand(null, "a", 1));
+    }
+
+    @Test
+    void relabelledPointsKeepTheirRenderedUrl() {
+        PointBuffer buffer = new PointBuffer();
+        buffer.add("1", "/%name%/%build%", 0, 7, "a");
+        RowSink sink = new RowSink(7, 0);
+        buffer.drainTo(sink, "dir/file: ", 7);
+        String[] row = sink.getRows().get(0);
+        assertEquals("dir/file: a", row[1]);
+        assertFalse(PlotUrl.isReference(row[4]));
+        assertEquals("/a/7", PlotUrl.expand(row[4], row[1], 7));
+    }
+}
@@ -0,0 +1,79 @@
+package hudson.plugins.plot;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class PlotValuesTest {
+
+    @Test
+    void testValuesAreParsedLikeTheChartDid() {
+        assertEquals(42, PlotValues.parse("42"));
+        assertEquals(-7, PlotValues.parse("-7"));
+        assertEquals(7, PlotValues.parse("+7"));
+        assertEquals(Integer.MAX_VALUE, PlotValues.parse("2147483647"));
+        assertEquals(Integer.MIN_VALUE, PlotValues.parse("-2147483648"));
+        assertEquals(2147483648.0, PlotValues.parse("2147483648"));
+        assertEquals(1.5, PlotValues.parse("1.5"));
+        assertEquals(1.5, PlotValues.parse(" 1.5 "));
+        assertEquals(12.0, PlotValues.parse(" 12"));
+        assertEquals(Double.NaN, PlotValues.parse("NaN"));
+        assertNull(PlotValues.parse("abc"));
+        assertNull(PlotValues.parse(""));
+        assertNull(PlotValues.parse("-"));
+        assertNull(PlotValues.parse(null));
+    }
+
+    @Test
+    void testIntegers() {
+        assertTrue(PlotValues.isInteger("0"));
+        assertTrue(PlotValues.isInteger("-2147483648"));
+        assertFalse(PlotValues.isInteger("-2147483649"));
+        assertFalse(PlotValues.isInteger("12345678901"));
+        assertFalse(PlotValues.isInteger("1.0"));
+        assertFalse(PlotValues.isInteger("+"));
+        assertFalse(PlotValues.isInteger(null));
+    }
+
+    @Test
+    void testInvalidRowsAreMarked() {
+        PlotValues values = PlotValues.of(List.of(
+                new String[] {"1", "a", "3", "0", ""},
+                new String[] {"x", "a", "3", "0", ""},
+                new String[] {"2.5", "b", "four", "0", ""},
+                new String[] {"2.5", "b", "4", "0", ""}));
+        assertEquals(4, values.size());
+        assertEquals(2, values.getInvalidCount());
+        assertTrue(values.isValid(0));
+        assertFalse(values.isValid(1));
+        assertFalse(values.isValid(2));
+        assertTrue(values.isValid(3));
+        assertEquals(3, values.getBuildNumber(0));
+        assertEquals(1, values.getNumber(0));
+        assertEquals(4, values.getBuildNumber(3));
+        assertEquals(2.5, values.getValue(3));
+        assertEquals(2.5, values.getNumber(3));
+    }
+
+    @Test
+    void testRowSinkRejectsInvalidValues() {
+        RowSink sink = new RowSink(3, 0);
+        sink.add("1", null, "a");
+        sink.add("oops", null, "b");
+        sink.add("", "http://x/%index%", 0, 3, "c");
+        sink.add("2", "http://x/%index%", 1, 3, "d");
+        assertEquals(2, sink.getRows().size());
+        assertEquals(2, sink.getRejectedCount());
+        assertEquals(List.of("b=oops", "c="), sink.getRejected());
+
+        for (int i = 0; i < RowSink.MAX_REPORTED * 2; i++) {
+            sink.add("-", null, "e");
+        }
+        assertEquals(2 + RowSink.MAX_REPORTED * 2, sink.getRejectedCount());
+        assertEquals(RowSink.MAX_REPORTED, sink.getRejected().size());
+    }
+}
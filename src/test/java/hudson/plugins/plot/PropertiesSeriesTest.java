@@ -6,9 +6,14 @@
 package hudson.plugins.plot;
 
 import static hudson.plugins.plot.SeriesTestUtils.WORKSPACE_ROOT_DIR;
+import static hudson.plugins.plot.SeriesTestUtils.matchIndex;
 import static hudson.plugins.plot.SeriesTestUtils.testPlotPoints;
 import static hudson.plugins.plot.SeriesTestUtils.testSeries;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.ArrayList;
 import java.util.List;
 import org.junit.jupiter.api.Test;
 
@@ -33,4 +38,43 @@ class PropertiesSeriesTest {
         List<PlotPoint> points = propSeries.loadSeries(WORKSPACE_ROOT_DIR, 0, System.err);
         testPlotPoints(points, 1);
     }
+
+    @Test
+    void testPropertiesSeriesWithMultipleFiles() throws Exception {
+        PropertiesSeries propSeries = new PropertiesSeries("modules/*/report.properties", LABELS[0]);
+        int a = matchIndex("modules/*/report.properties", "modules/a/report.properties");
+        int b = 1 - a;
+
+        // every file adds a point, in the order the files are matched
+        List<PlotPoint> points = propSeries.loadSeries(WORKSPACE_ROOT_DIR, 0, System.err);
+        testPlotPoints(points, 2);
+        assertEquals("12", points.get(a).getYvalue());
+        assertEquals(LABELS[0], points.get(a).getLabel());
+        assertEquals("30", points.get(b).getYvalue());
+        assertEquals(LABELS[0], points.get(b).getLabel());
+
+        propSeries.setLabelPrefix(true);
+        points = propSeries.loadSeries(WORKSPACE_ROOT_DIR, 0, System.err);
+        testPlotPoints(points, 2);
+        assertEquals("modules/a/report.properties: " + LABELS[0], points.get(a).getLabel());
+        assertEquals("modules/b/report.properties: " + LABELS[0], points.get(b).getLabel());
+    }
+
+    @Test
+    void testPropertiesSeriesIntoSink() {
+        PropertiesSeries propSeries = new PropertiesSeries("modules/*/report.properties", LABELS[0]);
+
+        // the points are pushed in the same order the list has them
+        List<String> values = new ArrayList<>();
+        PointSink sink = (yvalue, url, label) -> values.add(yvalue);
+        assertTrue(propSeries.loadSeries(WORKSPACE_ROOT_DIR, 0, System.err, sink));
+        List<String> expected = new ArrayList<>();
+        for (PlotPoint point : propSeries.loadSeries(WORKSPACE_ROOT_DIR, 0, System.err)) {
+            expected.add(point.getYvalue());
+        }
+        assertEquals(expected, values);
+
+        PropertiesSeries missing = new PropertiesSeries("missing.properties", LABELS[0]);
+        assertFalse(missing.loadSeries(WORKSPACE_ROOT_DIR, 0, System.err, sink));
+    }
 }
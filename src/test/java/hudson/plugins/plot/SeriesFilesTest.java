@@ -0,0 +1,67 @@
+package hudson.plugins.plot;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import hudson.FilePath;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SeriesFilesTest {
+
+    @TempDir
+    private File tempDir;
+
+    @Test
+    void compressedTransferKeepsTheContent() throws Exception {
+        StringBuilder content = new StringBuilder("a,b,c\n");
+        for (int i = 0; i < 50_000; i++) {
+            content.append(i).append(',').append(i * 2).append(',').append(i % 7).append('\n');
+        }
+        File file = new File(tempDir, "data.csv");
+        Files.writeString(file.toPath(), content);
+        try (InputStream in = SeriesFiles.openCompressed(new FilePath(file))) {
+            assertArrayEquals(content.toString().getBytes(StandardCharsets.UTF_8), in.readAllBytes());
+        }
+    }
+
+    @Test
+    void unreadableFileFailsTheTransferWithTheAgentException() {
+        FilePath missing = new FilePath(new File(tempDir, "missing.csv"));
+        assertThrows(NoSuchFileException.class, () -> {
+            try (InputStream in = SeriesFiles.openCompressed(missing)) {
+                in.readAllBytes();
+            }
+        });
+    }
+
+    @Test
+    void gzippedSeriesFilesAreRead() throws Exception {
+        gzip("report.csv.gz", "min,max\n1,2\n");
+        gzip("report.properties.gz", "YVALUE=42\n");
+        FilePath workspace = new FilePath(tempDir);
+
+        List<String> points = new ArrayList<>();
+        PointSink sink = (yvalue, url, label) -> points.add(label + "=" + yvalue);
+        new CSVSeries("*.csv.gz", null, "OFF", "", false).loadSeries(workspace, 1, System.out, sink);
+        new PropertiesSeries("*.properties.gz", "answer").loadSeries(workspace, 1, System.out, sink);
+        assertEquals(List.of("min=1", "max=2", "answer=42"), points);
+    }
+
+    private void gzip(String name, String content) throws IOException {
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(new File(tempDir, name).toPath()))) {
+            out.write(content.getBytes(StandardCharsets.ISO_8859_1));
+        }
+    }
+}
@@ -67,6 +67,20 @@ class SeriesTestUtils {
         }
     }
 
+    /**
+     * Returns the index of a workspace file among the files matched by a
+     * glob, in the order the series read them.
+     */
+    protected static int matchIndex(String glob, String file) throws Exception {
+        FilePath[] files = WORKSPACE_ROOT_DIR.list(glob);
+        for (int i = 0; i < files.length; i++) {
+            if (files[i].getRemote().equals(WORKSPACE_ROOT_DIR.child(file).getRemote())) {
+                return i;
+            }
+        }
+        throw new AssertionError(file + " isn't matched by " + glob);
+    }
+
     private static FilePath createTestDirectory() {
         File file = new File("target/test-classes/");
         FilePath dir = new FilePath(file);
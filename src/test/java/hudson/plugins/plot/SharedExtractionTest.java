@@ -0,0 +1,90 @@
+package hudson.plugins.plot;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import hudson.FilePath;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SharedExtractionTest {
+
+    @TempDir
+    private File tempDir;
+
+    @Test
+    void filesAreReadOncePerScope() throws Exception {
+        File data = new File(tempDir, "data.csv");
+        Files.writeString(data.toPath(), "a,b\n1,2\n");
+        FilePath workspace = new FilePath(tempDir);
+        FilePath file = new FilePath(data);
+        FileFingerprint fingerprint = FileFingerprint.of(file);
+        AtomicInteger reads = new AtomicInteger();
+        SharedExtraction.Reader<CSVTable> reader = f -> {
+            reads.incrementAndGet();
+            return CSVTable.read(f);
+        };
+
+        try (SharedExtraction outer = SharedExtraction.open(workspace, 1, tempDir)) {
+            try (SharedExtraction inner = SharedExtraction.open(workspace, 1, tempDir)) {
+                assertSame(outer, inner);
+                // the first series reads the file on its own
+                assertNull(inner.get(file, fingerprint, CSVTable.class, reader));
+                assertEquals(0, reads.get());
+                CSVTable table = inner.get(file, fingerprint, CSVTable.class, reader);
+                assertNotNull(table);
+                assertSame(table, inner.get(file, fingerprint, CSVTable.class, reader));
+                assertEquals(1, reads.get());
+            }
+            // still open for the outer scope
+            assertSame(outer, SharedExtraction.find(workspace, 1));
+            assertNull(SharedExtraction.find(workspace, 2));
+
+            // a changed file is read again
+            Files.writeString(data.toPath(), "a,b\n1,2\n3,4\n");
+            assertNull(outer.get(file, FileFingerprint.of(file), CSVTable.class, reader));
+            assertEquals(
+                    2,
+                    outer.get(file, FileFingerprint.of(file), CSVTable.class, reader)
+                            .getLines()
+                            .size());
+            assertEquals(2, reads.get());
+        }
+        assertNull(SharedExtraction.find(workspace, 1));
+    }
+
+    @Test
+    void seriesTakeTheirOwnColumns() throws Exception {
+        Files.writeString(new File(tempDir, "report.csv").toPath(), "min,avg,max\n1, 2 ,3\n4,,6\n");
+        FilePath workspace = new FilePath(tempDir);
+        List<String> expectedMin = load("INCLUDE_BY_STRING", workspace, 1);
+        List<String> expectedOthers = load("EXCLUDE_BY_STRING", workspace, 1);
+        assertEquals(List.of("min=1", "min=4"), expectedMin);
+        assertEquals(List.of("avg=2", "max=3", "max=6"), expectedOthers);
+        try (SharedExtraction shared = SharedExtraction.open(workspace, 2, tempDir)) {
+            assertNotNull(shared);
+            assertEquals(expectedMin, load("INCLUDE_BY_STRING", workspace, 2));
+            assertEquals(expectedOthers, load("EXCLUDE_BY_STRING", workspace, 2));
+            // taken from the table the second series shared
+            assertEquals(expectedMin, load("INCLUDE_BY_STRING", workspace, 2));
+        }
+    }
+
+    /**
+     * Loads the min column of the report or the others, with a new series
+     * each time so that no points are reused from a previous build.
+     */
+    private static List<String> load(String inclusionFlag, FilePath workspace, int buildNumber) {
+        CSVSeries series = new CSVSeries("report.csv", null, inclusionFlag, "min", false);
+        List<String> points = new ArrayList<>();
+        series.loadSeries(workspace, buildNumber, System.out, (yvalue, url, label) -> points.add(label + "=" + yvalue));
+        return points;
+    }
+}
@@ -0,0 +1,200 @@
+package hudson.plugins.plot;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathFactory;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Checks that streaming evaluation gives the same results as a DOM.
+ */
+class StreamingXPathTest {
+    private static final String[] FIXTURES = {
+        "test.xml", "test2.xml", "test3.xml", "modules/a/report.xml", "modules/b/report.xml"
+    };
+
+    @Test
+    void unsupportedExpressionsAreNotCompiled() {
+        assertNull(StreamingXPath.compile(null));
+        assertNull(StreamingXPath.compile("testcase"));
+        assertNull(StreamingXPath.compile("//testcase[1]"));
+        assertNull(StreamingXPath.compile("//testcase/text()"));
+        assertNull(StreamingXPath.compile("count(//testcase)"));
+        assertNull(StreamingXPath.compile("//testcase/@time/.."));
+        assertNull(StreamingXPath.compile("//ns:testcase"));
+        assertNull(StreamingXPath.compile("//testcase | "));
+    }
+
+    @Test
+    void nodesetsMatchDom() throws Exception {
+        assertSameNodes("test.xml", "//testcase");
+        assertSameNodes("test.xml", "/testsuite/testcase");
+        assertSameNodes("test.xml", "//testcase[@name='testOne'] | //testcase[@name=\"testThree\"]");
+        assertSameNodes("test.xml", "//testcase[@name][@time='27']");
+        assertSameNodes("test.xml", "//testcase/@time");
+        assertSameNodes("test.xml", "/testsuite//property[@name='sun.cpu.endian']/@value");
+        assertSameNodes("test.xml", "//*");
+        assertSameNodes("test2.xml", "//UIAction/name|//UIAction/numCalls");
+        assertSameNodes("test2.xml", "/UIActions/*/*");
+        assertSameNodes("test3.xml", "/results/testcase/*");
+        assertSameNodes("test3.xml", "/there/is/no/such/element");
+    }
+
+    @Test
+    void singleValuesMatchDom() throws Exception {
+        assertSameValue("test.xml", "//testcase[@name='testThree']", XPathConstants.STRING);
+        assertSameValue("test.xml", "//testcase[@name='testOne']/@time", XPathConstants.STRING);
+        assertSameValue("test.xml", "//testcase[@name='testOne']/@time", XPathConstants.NUMBER);
+        assertSameValue("test.xml", "//testcase[@name='testFour']/@time", XPathConstants.NUMBER);
+        assertSameValue("test.xml", "//testcase[@name='testOne']", XPathConstants.BOOLEAN);
+        assertSameValue("test.xml", "//testcase[@name='none']", XPathConstants.BOOLEAN);
+        assertSameValue("test2.xml", "//UIAction/numCalls", XPathConstants.NUMBER);
+        assertSameValue("test2.xml", "//UIAction", XPathConstants.STRING);
+    }
+
+    @Test
+    void everyElementAndAttributeOfTheFixturesMatchesDom() throws Exception {
+        QName[] types = {XPathConstants.STRING, XPathConstants.NUMBER, XPathConstants.BOOLEAN};
+        for (String file : FIXTURES) {
+            Set<String> xpaths = new LinkedHashSet<>();
+            NodeList elements = (NodeList) evaluateDom(file, "//*", XPathConstants.NODESET);
+            for (int i = 0; i < elements.getLength(); i++) {
+                Node element = elements.item(i);
+                xpaths.add("//" + element.getNodeName());
+                for (int a = 0; a < element.getAttributes().getLength(); a++) {
+                    xpaths.add("//" + element.getNodeName() + "/@"
+                            + element.getAttributes().item(a).getNodeName());
+                }
+            }
+            for (String xpath : xpaths) {
+                assertSameNodes(file, xpath);
+                for (QName type : types) {
+                    assertSameValue(file, xpath, type);
+                }
+            }
+        }
+    }
+
+    @Test
+    void numbersFollowXPathRules() throws Exception {
+        String[] values = {
+            "12", " 12 ", "-3.5", ".5", "5.", "-.5", "007", "1e5", "1E5", "Infinity", "-Infinity", "NaN", "0x1p3",
+            "1d", "1f", "+1", "-", ".", "", "1,5", "1.2.3", "\u0661", "\u00a012"
+        };
+        for (String value : values) {
+            byte[] xml = ("<a v='" + value + "'>" + value + "</a>").getBytes(StandardCharsets.UTF_8);
+            Document document =
+                    DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(xml));
+            XPath dom = XPathFactory.newInstance().newXPath();
+            for (String xpath : new String[] {"/a", "/a/@v"}) {
+                Object expected = dom.evaluate(xpath, document, XPathConstants.NUMBER);
+                Object actual =
+                        StreamingXPath.compile(xpath).evaluate(new ByteArrayInputStream(xml), XPathConstants.NUMBER);
+                assertEquals(expected, actual, "'" + value + "'");
+            }
+        }
+    }
+
+    @Test
+    void nestedMatchesShareTheirSubtree() throws Exception {
+        String xml = "<a><b id='1'><b id='2'>x</b></b><b id='3'/></a>";
+        NodeList nodes = (NodeList) StreamingXPath.compile("//b")
+                .evaluate(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), XPathConstants.NODESET);
+
+        assertEquals(3, nodes.getLength());
+        assertSame(nodes.item(0), nodes.item(1).getParentNode());
+        assertSame(nodes.item(0).getParentNode(), nodes.item(2).getParentNode());
+        assertEquals("x", nodes.item(0).getTextContent());
+    }
+
+    @Test
+    void doctypeIsRejected() {
+        String xml = "<!DOCTYPE a [<!ENTITY e SYSTEM 'file:///etc/passwd'>]><a>&e;</a>";
+        assertThrows(XMLStreamException.class, () -> StreamingXPath.compile("/a")
+                .evaluate(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), XPathConstants.STRING));
+    }
+
+    private static void assertSameNodes(String file, String xpath) throws Exception {
+        NodeList expected = (NodeList) evaluateDom(file, xpath, XPathConstants.NODESET);
+        NodeList actual = (NodeList) evaluateStreaming(file, xpath, XPathConstants.NODESET);
+        assertEquals(describe(expected), describe(actual), xpath);
+    }
+
+    private static void assertSameValue(String file, String xpath, QName type) throws Exception {
+        Object expected = evaluateDom(file, xpath, type);
+        Object actual = evaluateStreaming(file, xpath, type);
+        assertNotNull(actual, xpath);
+        assertEquals(expected, actual, xpath);
+    }
+
+    private static Object evaluateDom(String file, String xpath, QName type) throws Exception {
+        try (InputStream in = open(file)) {
+            return XPathFactory.newInstance()
+                    .newXPath()
+                    .evaluate(
+                            xpath,
+                            DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(in),
+                            type);
+        }
+    }
+
+    private static Object evaluateStreaming(String file, String xpath, QName type) throws Exception {
+        try (InputStream in = open(file)) {
+            return StreamingXPath.compile(xpath).evaluate(in, type);
+        }
+    }
+
+    private static InputStream open(String file) {
+        InputStream in = StreamingXPathTest.class.getResourceAsStream("/" + file);
+        assertNotNull(in, file);
+        return in;
+    }
+
+    /**
+     * Lists the name, attributes and text of each node, and which nodes
+     * share a parent.
+     */
+    private static List<String> describe(NodeList nodes) {
+        List<Node> parents = new ArrayList<>();
+        List<String> description = new ArrayList<>();
+        for (int i = 0; i < nodes.getLength(); i++) {
+            Node node = nodes.item(i);
+            StringBuilder b = new StringBuilder(node.getNodeName());
+            if (node.getAttributes() != null) {
+                for (int a = 0; a < node.getAttributes().getLength(); a++) {
+                    Node attribute = node.getAttributes().item(a);
+                    b.append(' ').append(attribute.getNodeName()).append('=').append(attribute.getNodeValue());
+                }
+            }
+            b.append(" text=").append(node.getTextContent().trim());
+            Node parent = node.getParentNode();
+            if (parent != null) {
+                if (!parents.contains(parent)) {
+                    parents.add(parent);
+                }
+                b.append(" parent=").append(parents.indexOf(parent)).append(':').append(parent.getNodeName());
+            }
+            description.add(b.toString());
+        }
+        return description;
+    }
+}
@@ -0,0 +1,43 @@
+package hudson.plugins.plot;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that URL templates render like the placeholders were replaced one
+ * after the other.
+ */
+class UrlTemplateTest {
+
+    @Test
+    void placeholdersAreReplaced() {
+        UrlTemplate template = UrlTemplate.compile("http://host/%build%/%name%/%index%/%name%");
+        assertFalse(template.isLiteral());
+        assertEquals("http://host/42/a/3/a", template.render("a", 3, 42));
+        assertEquals("http://host/42//3/", template.render(null, 3, 42));
+    }
+
+    @Test
+    void literalTemplateIsReturnedAsIs() {
+        String url = "http://host/%nam%/%%";
+        UrlTemplate template = UrlTemplate.compile(url);
+        assertTrue(template.isLiteral());
+        assertSame(url, template.render("a", 1, 2));
+        assertEquals("", UrlTemplate.compile("").render("a", 1, 2));
+    }
+
+    @Test
+    void namesAreFoundBeforeIndexes() {
+        assertEquals("%indexa", UrlTemplate.compile("%index%name%").render("a", 1, 2));
+        assertEquals("%21", UrlTemplate.compile("%%build%%index%").render("a", 1, 2));
+    }
+
+    @Test
+    void labelsAreInsertedAsTheyAre() {
+        assertEquals("/$1\\/7", UrlTemplate.compile("/%name%/%build%").render("$1\\", 0, 7));
+    }
+}
@@ -1,6 +1,7 @@
 package hudson.plugins.plot;
 
 import static hudson.plugins.plot.SeriesTestUtils.WORKSPACE_ROOT_DIR;
+import static hudson.plugins.plot.SeriesTestUtils.matchIndex;
 import static hudson.plugins.plot.SeriesTestUtils.testPlotPoints;
 import static hudson.plugins.plot.SeriesTestUtils.testSeries;
 import static org.hamcrest.CoreMatchers.containsString;
@@ -13,9 +14,14 @@ import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.junit.jupiter.api.Test;
 
 /**
@@ -95,6 +101,64 @@ class XMLSeriesTest {
         testPlotPoints(points, 4);
     }
 
+    @Test
+    void testXMLSeriesLoadedConcurrently() throws Exception {
+        XMLSeries series = new XMLSeries(TEST_XML_FILE, "//testcase", "NODESET", null);
+
+        // the compiled XPath is reused by each thread
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<PlotPoint>>> loads = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                loads.add(executor.submit(() -> series.loadSeries(WORKSPACE_ROOT_DIR, 0, System.out)));
+            }
+            for (Future<List<PlotPoint>> load : loads) {
+                List<PlotPoint> points = load.get();
+                testPlotPoints(points, 4);
+                assertEquals("testFour", points.get(3).getLabel());
+                assertEquals("1234.56", points.get(3).getYvalue());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testXMLSeriesStreamed() {
+        String[][] series = {
+            {TEST_XML_FILE, "//testcase", "NODESET"},
+            {TEST_XML_FILE, "//testcase[@name='testOne'] | //testcase[@name='testTwo']", "NODESET"},
+            {TEST_XML_FILE, "//testcase[@name='testThree']", "NODE"},
+            {TEST_XML_FILE, "//testcase[@name='testOne']/@time", "STRING"},
+            {TEST_XML_FILE, "//testcase[@name='testOne']/@time", "NUMBER"},
+            {TEST_XML_FILE, "//testcase[@name='testOne']", "BOOLEAN"},
+            {TEST2_XML_FILE, "//UIAction/name|//UIAction/numCalls", "NODESET"},
+            {TEST3_XML_FILE, "/results/testcase/*", "NODESET"}
+        };
+        for (String[] s : series) {
+            List<PlotPoint> dom = new XMLSeries(s[0], s[1], s[2], null).loadSeries(WORKSPACE_ROOT_DIR, 0, System.out);
+            long threshold = XMLSeries.STREAMING_THRESHOLD;
+            XMLSeries.STREAMING_THRESHOLD = 0;
+            try {
+                List<PlotPoint> streamed =
+                        new XMLSeries(s[0], s[1], s[2], null).loadSeries(WORKSPACE_ROOT_DIR, 0, System.out);
+                // points coalesced by parent come in no particular order
+                assertEquals(sorted(dom), sorted(streamed), s[1]);
+            } finally {
+                XMLSeries.STREAMING_THRESHOLD = threshold;
+            }
+        }
+    }
+
+    private static List<String> sorted(List<PlotPoint> points) {
+        List<String> sorted = new ArrayList<>();
+        for (PlotPoint point : points) {
+            sorted.add(point.toString());
+        }
+        Collections.sort(sorted);
+        return sorted;
+    }
+
     @Test
     void testXMLSeries_WhenAllNodesAreNumeric_ThenPointsAreLabelledWithNodeName() {
         // Create a new XML series.
@@ -236,4 +300,25 @@ class XMLSeriesTest {
         // depending on the "JRE" (?) the custom output is terminated or not by a \n
         assertThat(customOutputAsString, containsString(expectedOutput));
     }
+
+    @Test
+    void testXMLSeriesWithMultipleFiles() throws Exception {
+        XMLSeries series = new XMLSeries("modules/*/report.xml", "//metric", "NODESET", null);
+        int a = 2 * matchIndex("modules/*/report.xml", "modules/a/report.xml");
+        int b = 2 - a;
+
+        // every file is read, and merged in the order the files are matched
+        List<PlotPoint> points = series.loadSeries(WORKSPACE_ROOT_DIR, 0, System.out);
+        testPlotPoints(points, 4);
+        assertEquals("tests=12.0", points.get(a).getLabel() + "=" + points.get(a).getYvalue());
+        assertEquals("failures=1.0", points.get(a + 1).getLabel() + "=" + points.get(a + 1).getYvalue());
+        assertEquals("tests=30.0", points.get(b).getLabel() + "=" + points.get(b).getYvalue());
+        assertEquals("failures=0.0", points.get(b + 1).getLabel() + "=" + points.get(b + 1).getYvalue());
+
+        series.setLabelPrefix(true);
+        points = series.loadSeries(WORKSPACE_ROOT_DIR, 0, System.out);
+        testPlotPoints(points, 4);
+        assertEquals("modules/a/report.xml: tests", points.get(a).getLabel());
+        assertEquals("modules/b/report.xml: failures", points.get(b + 1).getLabel());
+    }
 }